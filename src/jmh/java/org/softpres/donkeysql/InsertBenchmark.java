@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Compares loading rows with JDBC batching through {@link BatchUpdate} against multi-row
+ * INSERT statements through {@link BulkInsert}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InsertBenchmark {
+
+  @Param({"100000"})
+  private int rows;
+
+  private JdbcConnectionPool dataSource;
+  private DB db;
+
+  @Setup
+  public void create() throws SQLException {
+    dataSource = JdbcConnectionPool.create("jdbc:h2:mem:insert;DB_CLOSE_DELAY=-1", "user", "pass");
+    execute("CREATE TABLE animals (id INTEGER PRIMARY KEY, name VARCHAR(20), legs INTEGER)");
+    db = DB.with(dataSource);
+  }
+
+  @Setup(Level.Invocation)
+  public void truncate() throws SQLException {
+    execute("TRUNCATE TABLE animals");
+  }
+
+  @TearDown
+  public void close() throws SQLException {
+    execute("DROP TABLE animals");
+    dataSource.dispose();
+  }
+
+  private void execute(String sql) throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+         Statement statement = connection.createStatement()) {
+      statement.execute(sql);
+    }
+  }
+
+  @Benchmark
+  public int batch() {
+    return db.batch("INSERT INTO animals VALUES (?, ?, ?)")
+          .executeIndexed(IntStream.range(0, rows).mapToObj(i -> new Object[] { i, "animal" + i % 100, i % 8 }))
+          .size();
+  }
+
+  @Benchmark
+  public long bulkInsert() {
+    return db.bulkInsert("animals", "id", "name", "legs")
+          .execute(IntStream.range(0, rows).boxed(), (i, values) -> {
+            values[0] = i;
+            values[1] = "animal" + i % 100;
+            values[2] = i % 8;
+          });
+  }
+
+}
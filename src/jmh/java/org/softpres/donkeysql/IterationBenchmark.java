@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of iterating and mapping a large result through {@link DB},
+ * which is dominated by {@link ResultSetIterator} and the mapping of each row.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IterationBenchmark {
+
+  private static final String QUERY = "SELECT id, name, legs FROM animals";
+
+  @Param({"1000000"})
+  private int rows;
+
+  private JdbcConnectionPool dataSource;
+  private DB db;
+
+  @Setup
+  public void populate() throws SQLException {
+    dataSource = JdbcConnectionPool.create("jdbc:h2:mem:iteration;DB_CLOSE_DELAY=-1", "user", "pass");
+    try (Connection connection = dataSource.getConnection()) {
+      try (Statement create = connection.createStatement()) {
+        create.execute("CREATE TABLE animals (id INTEGER PRIMARY KEY, name VARCHAR(20), legs INTEGER)");
+      }
+      try (PreparedStatement insert = connection.prepareStatement("INSERT INTO animals VALUES (?, ?, ?)")) {
+        for (int i = 0; i < rows; i++) {
+          insert.setInt(1, i);
+          insert.setString(2, "animal" + i % 100);
+          insert.setInt(3, i % 8);
+          insert.addBatch();
+          if (i % 10_000 == 0) {
+            insert.executeBatch();
+          }
+        }
+        insert.executeBatch();
+      }
+    }
+    db = DB.with(dataSource);
+  }
+
+  @TearDown
+  public void close() throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+         Statement drop = connection.createStatement()) {
+      drop.execute("DROP TABLE animals");
+    }
+    dataSource.dispose();
+  }
+
+  @Benchmark
+  public long iterate() {
+    return db.query(QUERY)
+          .map(resultSet -> resultSet.getInt(1))
+          .execute()
+          .count();
+  }
+
+  @Benchmark
+  public long sumBoxed() {
+    return db.query(QUERY)
+          .map(resultSet -> resultSet.getInt(1))
+          .execute()
+          .mapToInt(Integer::intValue)
+          .sum();
+  }
+
+  @Benchmark
+  public long sumPrimitive() {
+    return db.query(QUERY)
+          .mapToInt(resultSet -> resultSet.getInt(1))
+          .execute()
+          .sum();
+  }
+
+  @Benchmark
+  public long mapByLabel() {
+    return db.query(QUERY)
+          .map(resultSet -> new Animal(
+                resultSet.getInt("id"),
+                resultSet.getString("name"),
+                resultSet.getInt("legs")))
+          .execute()
+          .mapToInt(animal -> animal.legs)
+          .sum();
+  }
+
+  @Benchmark
+  public long mapByClass() {
+    return db.query(QUERY)
+          .map(RowMappers.of(Animal.class))
+          .execute()
+          .mapToInt(animal -> animal.legs)
+          .sum();
+  }
+
+  @Benchmark
+  public long process() {
+    return process(0);
+  }
+
+  @Benchmark
+  public long processPrefetched() {
+    return process(1024);
+  }
+
+  /** Mapping overlapped with downstream work on each row when prefetching. */
+  private long process(int prefetchRows) {
+    return db.query(QUERY)
+          .map(resultSet -> new Animal(
+                resultSet.getInt("id"),
+                resultSet.getString("name"),
+                resultSet.getInt("legs")))
+          .prefetchRows(prefetchRows)
+          .execute()
+          .mapToLong(animal -> {
+            Blackhole.consumeCPU(100);
+            return animal.legs;
+          })
+          .sum();
+  }
+
+  public static class Animal {
+    final int id;
+    final String name;
+    final int legs;
+
+    public Animal(int id, String name, int legs) {
+      this.id = id;
+      this.name = name;
+      this.legs = legs;
+    }
+  }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading rows by column label directly from the driver, with reading through
+ * {@link LabelCachingResultSet}, which resolves each label only once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LabelLookupBenchmark {
+
+  private static final String QUERY = "SELECT id, name, legs, habitat, weight FROM animals";
+
+  @Param({"1000"})
+  private int rows;
+
+  private Connection connection;
+  private PreparedStatement statement;
+
+  @Setup
+  public void populate() throws SQLException {
+    connection = DriverManager.getConnection("jdbc:h2:mem:labels");
+    try (Statement create = connection.createStatement()) {
+      create.execute("CREATE TABLE animals (" +
+            "id INTEGER PRIMARY KEY, name VARCHAR(20), legs INTEGER, habitat VARCHAR(20), weight DOUBLE)");
+    }
+    try (PreparedStatement insert = connection.prepareStatement("INSERT INTO animals VALUES (?, ?, ?, ?, ?)")) {
+      for (int i = 0; i < rows; i++) {
+        insert.setInt(1, i);
+        insert.setString(2, "animal" + i);
+        insert.setInt(3, i % 8);
+        insert.setString(4, "habitat" + i % 10);
+        insert.setDouble(5, i * 1.5);
+        insert.addBatch();
+      }
+      insert.executeBatch();
+    }
+    statement = connection.prepareStatement(QUERY);
+  }
+
+  @TearDown
+  public void close() throws SQLException {
+    statement.close();
+    connection.close();
+  }
+
+  @Benchmark
+  public void driverLookup(Blackhole blackhole) throws SQLException {
+    try (ResultSet resultSet = statement.executeQuery()) {
+      readRows(resultSet, resultSet, blackhole);
+    }
+  }
+
+  @Benchmark
+  public void cachedLookup(Blackhole blackhole) throws SQLException {
+    try (ResultSet resultSet = statement.executeQuery()) {
+      readRows(resultSet, new LabelCachingResultSet(resultSet), blackhole);
+    }
+  }
+
+  private static void readRows(ResultSet cursor, ResultSet row, Blackhole blackhole) throws SQLException {
+    while (cursor.next()) {
+      blackhole.consume(row.getInt("id"));
+      blackhole.consume(row.getString("name"));
+      blackhole.consume(row.getInt("legs"));
+      blackhole.consume(row.getString("habitat"));
+      blackhole.consume(row.getDouble("weight"));
+    }
+  }
+
+}
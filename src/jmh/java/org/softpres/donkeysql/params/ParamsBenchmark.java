@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql.params;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Measures the per-execution work of turning named parameters into a JDBC statement
+ * and values, including the expansion of wide IN-lists, and the humanised form of
+ * statements used for logging.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParamsBenchmark {
+
+  private static final String NAMED = "SELECT id, name FROM animals WHERE legs >= :min AND id IN (:ids)";
+  private static final String INDEXED = "SELECT id, name FROM animals WHERE legs >= ? AND name = ? AND id < ?";
+
+  @Param({"10", "1000", "100000"})
+  private int listSize;
+
+  private Map<String, Object> params;
+  private List<Integer> ids;
+
+  @Setup
+  public void createParams() {
+    ids = IntStream.range(0, listSize).boxed().collect(toList());
+    params = new HashMap<>();
+    params.put("min", 2);
+    params.put("ids", ids);
+  }
+
+  @Benchmark
+  public String normalise() {
+    return new NamedParamQuery(NAMED, params).normalise();
+  }
+
+  @Benchmark
+  public List<Object> parameterValues() {
+    return NamedParamQuery.parameterValues(NAMED, params).collect(toList());
+  }
+
+  @Benchmark
+  public String namedToString() {
+    return new NamedParamQuery(NAMED, params).toString();
+  }
+
+  @Benchmark
+  public String humanise() {
+    return IndexedParamQuery.humanise(INDEXED, 4, "cat", 100);
+  }
+
+}
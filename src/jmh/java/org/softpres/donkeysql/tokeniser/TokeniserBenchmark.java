@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql.tokeniser;
+
+import org.openjdk.jmh.annotations.*;
+import org.softpres.donkeysql.tokeniser.Tokens.Token;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures tokenising or scanning a short statement, and a long generated statement with
+ * many parameters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokeniserBenchmark {
+
+  static final String SMALL = "SELECT id, name FROM animals WHERE legs >= :min AND name <> 'x:y' AND id IN (@ids)";
+
+  @Param({"small", "large"})
+  private String size;
+
+  private String sql;
+
+  @Setup
+  public void createStatement() {
+    sql = size.equals("small") ? SMALL : large(500);
+  }
+
+  /** A statement of tens of kilobytes, such as those generated by reporting tools. */
+  static String large(int conditions) {
+    StringBuilder sql = new StringBuilder("SELECT a.id, a.name, a.legs, 'literal: text' AS note\n")
+          .append("FROM animals a\n")
+          .append("WHERE 1 = 1\n");
+    for (int i = 0; i < conditions; i++) {
+      sql.append("  AND (a.column_").append(i).append(" = :value").append(i)
+            .append(" OR a.other_").append(i).append(" IN (@list").append(i).append("))\n");
+    }
+    return sql.toString();
+  }
+
+  @Benchmark
+  public List<Token> tokenise() {
+    return StatementTokeniser.tokenise(sql);
+  }
+
+  @Benchmark
+  public ParamSpans scan() {
+    return StatementTokeniser.scan(sql);
+  }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.softpres.donkeysql.params.ParamQuery;
+import org.softpres.donkeysql.params.Template;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Executes the same INSERT, UPDATE or DELETE statement for many sets of parameters,
+ * sending them to the database with {@link PreparedStatement#executeBatch()} every
+ * {@link #size(int)} rows rather than one round trip per row.
+ * <p/>
+ * Each row is bound using the same named or indexed parameter handling as queries.
+ * Should iterable parameters cause the statement to differ between rows, the pending
+ * batch is flushed and the statement prepared again. Statements are prepared with the
+ * {@link QueryOptions} of the {@link DB}, such as the query timeout.
+ */
+public class BatchUpdate {
+
+  static final int DEFAULT_SIZE = 1000;
+
+  private final DB db;
+  private final Template template;
+  private int size;
+  private String[] keyColumns;
+
+  BatchUpdate(DB db, Template template) {
+    this.db = db;
+    this.template = template;
+    size = DEFAULT_SIZE;
+  }
+
+  /** The number of rows to send to the database at a time. */
+  public BatchUpdate size(int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("Batch size must be positive: " + size);
+    }
+    this.size = size;
+    return this;
+  }
+
+  /**
+   * The columns of the generated keys to return.
+   *
+   * @see StagedUpdate#keyColumns(String...)
+   */
+  public BatchUpdate keyColumns(String... columns) {
+    keyColumns = columns;
+    return this;
+  }
+
+  /**
+   * Execute the statement for each map of named parameters.
+   *
+   * @return the update counts reported by the driver for each batch sent.
+   */
+  public List<int[]> execute(Stream<Map<String, Object>> rows) {
+    return execute(rows.iterator(), row -> ParamQuery.named(template, row));
+  }
+
+  /** @see #execute(Stream) */
+  public List<int[]> execute(Iterable<Map<String, Object>> rows) {
+    return execute(rows.iterator(), row -> ParamQuery.named(template, row));
+  }
+
+  /**
+   * Execute the statement for each item, using the supplied function to provide the
+   * named parameters for it.
+   *
+   * @return the update counts reported by the driver for each batch sent.
+   */
+  public <T> List<int[]> execute(Stream<T> items, Function<? super T, Map<String, Object>> params) {
+    return execute(items.iterator(), item -> ParamQuery.named(template, params.apply(item)));
+  }
+
+  /**
+   * Execute the statement for each array of parameters, which satisfy the '?' placeholders
+   * of the supplied SQL.
+   *
+   * @return the update counts reported by the driver for each batch sent.
+   */
+  public List<int[]> executeIndexed(Stream<Object[]> rows) {
+    return execute(rows.iterator(), row -> ParamQuery.indexed(template, row));
+  }
+
+  /**
+   * Execute the statement, such as an INSERT, for each map of named parameters, returning
+   * the keys generated by the database for all the rows, which are read with the supplied
+   * mapper after each batch is sent. Not all drivers support generated keys for batches.
+   *
+   * @see #keyColumns(String...)
+   */
+  public <K> Stream<K> executeForKeys(Stream<Map<String, Object>> rows, RowMapper<K> mapper) {
+    List<K> keys = new ArrayList<>();
+    execute(rows.iterator(), row -> ParamQuery.named(template, row), GeneratedKeys.into(keys, mapper));
+    return keys.stream();
+  }
+
+  /**
+   * Execute the statement for each map of named parameters, returning the first column of
+   * the generated keys, such as an identity column, as longs.
+   *
+   * @see #executeForKeys(Stream, RowMapper)
+   */
+  public LongStream executeForLongKeys(Stream<Map<String, Object>> rows) {
+    LongStream.Builder keys = LongStream.builder();
+    execute(rows.iterator(), row -> ParamQuery.named(template, row), GeneratedKeys.into(keys));
+    return keys.build();
+  }
+
+  /**
+   * Execute the statement for each array of indexed parameters, returning the generated keys.
+   *
+   * @see #executeForKeys(Stream, RowMapper)
+   */
+  public <K> Stream<K> executeIndexedForKeys(Stream<Object[]> rows, RowMapper<K> mapper) {
+    List<K> keys = new ArrayList<>();
+    execute(rows.iterator(), row -> ParamQuery.indexed(template, row), GeneratedKeys.into(keys, mapper));
+    return keys.stream();
+  }
+
+  /**
+   * Execute the statement for each array of indexed parameters, returning the first column
+   * of the generated keys as longs.
+   *
+   * @see #executeForLongKeys(Stream)
+   */
+  public LongStream executeIndexedForLongKeys(Stream<Object[]> rows) {
+    LongStream.Builder keys = LongStream.builder();
+    execute(rows.iterator(), row -> ParamQuery.indexed(template, row), GeneratedKeys.into(keys));
+    return keys.build();
+  }
+
+  private <T> List<int[]> execute(Iterator<T> rows, Function<T, ParamQuery> toQuery) {
+    return execute(rows, toQuery, null);
+  }
+
+  /** @param keys reader of the generated keys, or null when they are not required. */
+  private <T> List<int[]> execute(Iterator<T> rows, Function<T, ParamQuery> toQuery, GeneratedKeys.Reader keys) {
+    try {
+      return executeThrowing(rows, toQuery, keys);
+    } catch (SQLException e) {
+      throw new UncheckedSQLException(e);
+    }
+  }
+
+  private <T> List<int[]> executeThrowing(
+        Iterator<T> rows, Function<T, ParamQuery> toQuery, GeneratedKeys.Reader keys) throws SQLException {
+
+    Connection connection = db.connection();
+    try (QueryResource c = QueryResource.connection(connection, db.autoCloseConnection());
+         Batch batch = new Batch(db, connection, size, keyColumns, keys)) {
+
+      while (rows.hasNext()) {
+        batch.add(toQuery.apply(rows.next()));
+      }
+      return batch.finish();
+    }
+  }
+
+  /** Accumulates rows against a prepared statement, flushing when full or the SQL changes. */
+  private static class Batch implements QueryResource {
+    private final DB db;
+    private final Connection connection;
+    private final int size;
+    private final String[] keyColumns;
+    private final GeneratedKeys.Reader keys;
+    private final List<int[]> counts;
+    private PreparedStatement statement;
+    private QueryResource release;
+    private String sql;
+    private int pending;
+
+    Batch(DB db, Connection connection, int size, String[] keyColumns, GeneratedKeys.Reader keys) {
+      this.db = db;
+      this.connection = connection;
+      this.size = size;
+      this.keyColumns = keyColumns;
+      this.keys = keys;
+      counts = new ArrayList<>();
+    }
+
+    void add(ParamQuery row) throws SQLException {
+      ParamQuery query = row.forConnection(connection);
+      String next = query.sql();
+      if (!next.equals(sql)) {
+        flush();
+        close();
+        if (keys == null) {
+          statement = db.prepare(connection, next, db.options());
+          release = db.release(statement);
+        } else {
+          // Statements returning generated keys are prepared differently, so are not cached
+          statement = GeneratedKeys.prepare(connection, next, keyColumns);
+          release = statement::close;
+          db.options().apply(statement, false);
+        }
+        sql = next;
+      }
+
+      query.bind(statement);
+      statement.addBatch();
+      if (++pending == size) {
+        flush();
+      }
+    }
+
+    List<int[]> finish() throws SQLException {
+      flush();
+      return counts;
+    }
+
+    private void flush() throws SQLException {
+      if (pending > 0) {
+        counts.add(statement.executeBatch());
+        pending = 0;
+        if (keys != null) {
+          GeneratedKeys.read(statement, keys);
+        }
+      }
+    }
+
+    /** Close the statement, or return it to the cache without any rows left unexecuted. */
+    @Override
+    public void close() throws SQLException {
+      if (statement != null) {
+        try (QueryResource r = release) {
+          if (pending > 0) {
+            pending = 0;
+            statement.clearBatch();
+          }
+        } finally {
+          statement = null;
+          sql = null;
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Loads many rows into the columns of a table, by default with multi-row INSERT statements:
+ * <pre>
+ *   INSERT INTO table (a, b) VALUES (?, ?), (?, ?), ...
+ * </pre>
+ * This sends many rows with each round trip, as with {@link BatchUpdate}, but the database
+ * also only parses and plans each statement once for all its rows. The number of rows in each
+ * statement is limited so that its bind parameters stay within the limits of the database,
+ * such as 2100 on SQL Server or 32767 on PostgreSQL before version 15.
+ * <p/>
+ * Each statement is committed separately unless performed in a transaction, and prepared
+ * with the {@link QueryOptions} of the {@link DB}, such as the query timeout. The table and
+ * column names are written into the statement as given.
+ */
+public class BulkInsert {
+
+  static final int DEFAULT_ROWS_PER_STATEMENT = 1000;
+  static final int DEFAULT_MAX_PARAMETERS = 2000;
+
+  private final DB db;
+  private final String table;
+  private final List<String> columns;
+  private int rowsPerStatement;
+  private int maxParameters;
+  private BulkWriter writer;
+
+  BulkInsert(DB db, String table, String[] columns) {
+    if (columns.length == 0) {
+      throw new IllegalArgumentException("No columns to insert into " + table);
+    }
+    this.db = db;
+    this.table = table;
+    this.columns = Collections.unmodifiableList(Arrays.asList(columns.clone()));
+    rowsPerStatement = DEFAULT_ROWS_PER_STATEMENT;
+    maxParameters = DEFAULT_MAX_PARAMETERS;
+  }
+
+  /** The maximum number of rows to insert with each statement. */
+  public BulkInsert rowsPerStatement(int rows) {
+    if (rows < 1) {
+      throw new IllegalArgumentException("Rows per statement must be positive: " + rows);
+    }
+    rowsPerStatement = rows;
+    return this;
+  }
+
+  /**
+   * The maximum number of bind parameters in each statement, which by default stays within
+   * the lowest limit of the common databases, and further limits the rows per statement.
+   */
+  public BulkInsert maxParameters(int parameters) {
+    if (parameters < 1) {
+      throw new IllegalArgumentException("Max parameters must be positive: " + parameters);
+    }
+    maxParameters = parameters;
+    return this;
+  }
+
+  /**
+   * Write the rows with a database specific mechanism in place of multi-row INSERT
+   * statements, to which the rows per statement and parameter limits do not apply.
+   */
+  public BulkInsert writer(BulkWriter writer) {
+    this.writer = writer;
+    return this;
+  }
+
+  /**
+   * The number of rows inserted by each multi-row INSERT statement.
+   *
+   * @throws IllegalArgumentException if a single row has more columns than the maximum parameters.
+   */
+  int effectiveRowsPerStatement() {
+    if (columns.size() > maxParameters) {
+      throw new IllegalArgumentException("Cannot insert " + columns.size() + " columns into " + table +
+            " within " + maxParameters + " parameters per statement");
+    }
+    return Math.min(rowsPerStatement, maxParameters / columns.size());
+  }
+
+  /**
+   * Insert a row for each item, with the column values supplied by the binder, where any
+   * values it does not set are null.
+   *
+   * @return the number of rows inserted.
+   * @throws IllegalArgumentException if a single row has more columns than the maximum parameters.
+   */
+  public <T> long execute(Stream<T> items, ColumnBinder<? super T> binder) {
+    BulkWriter rows = writer == null ? new MultiRowValues(effectiveRowsPerStatement(), db.options()) : writer;
+    try {
+      Connection connection = db.connection();
+      try (QueryResource c = QueryResource.connection(connection, db.autoCloseConnection())) {
+        return rows.write(connection, table, columns, items.iterator(), binder);
+      }
+    } catch (SQLException e) {
+      throw new UncheckedSQLException(e);
+    }
+  }
+
+  /**
+   * Insert a row for each array of values, in column order.
+   *
+   * @throws IllegalArgumentException if a row does not have a value for each column.
+   * @see #execute(Stream, ColumnBinder)
+   */
+  public long execute(Stream<Object[]> rows) {
+    long[] index = new long[1];
+    return execute(rows, (row, values) -> {
+      if (row.length != values.length) {
+        throw new IllegalArgumentException("Row " + index[0] + " has " + row.length +
+              " values for " + values.length + " columns of " + table);
+      }
+      System.arraycopy(row, 0, values, 0, values.length);
+      index[0]++;
+    });
+  }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Writes the rows of a bulk load into a table, allowing database specific mechanisms,
+ * such as COPY on PostgreSQL, to be used in place of the portable multi-row INSERT.
+ *
+ * @see BulkInsert#writer(BulkWriter)
+ */
+@FunctionalInterface
+public interface BulkWriter {
+
+  /**
+   * Write a row for each item, where the connection is closed by the caller.
+   *
+   * @param table   as given to {@link DB#bulkInsert(String, String...)}.
+   * @param columns as given to {@link DB#bulkInsert(String, String...)}.
+   * @return the number of rows written.
+   */
+  <T> long write(Connection connection, String table, List<String> columns, Iterator<T> items,
+                 ColumnBinder<? super T> binder) throws SQLException;
+
+  /**
+   * Writer inserting up to the specified number of rows with each statement:
+   * <pre>
+   *   INSERT INTO table (a, b) VALUES (?, ?), (?, ?), ...
+   * </pre>
+   * The statement for full groups of rows is prepared once and reused, with only the
+   * final group needing a statement of its own.
+   */
+  static BulkWriter multiRowValues(int rowsPerStatement) {
+    return new MultiRowValues(rowsPerStatement, QueryOptions.defaults());
+  }
+
+}
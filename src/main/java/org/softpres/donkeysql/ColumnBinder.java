@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+/**
+ * Used to supply the column values of the row to insert for each item of a bulk load.
+ *
+ * @see BulkInsert
+ */
+@FunctionalInterface
+public interface ColumnBinder<T> {
+
+  /**
+   * Set the value of each column for the item, in the order the columns were specified.
+   * The array is reused between items, so should not be retained.
+   */
+  void bind(T item, Object[] values);
+
+}
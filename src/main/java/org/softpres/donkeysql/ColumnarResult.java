@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.*;
+
+/**
+ * The rows of a query held column by column in primitive arrays, which takes far less memory
+ * than a list of objects for large numeric results. The type of each column is chosen from the
+ * {@link ResultSetMetaData}:
+ * <ul>
+ *   <li>{@link IntColumn} for TINYINT, SMALLINT and INTEGER, and BOOLEAN as 0 or 1.</li>
+ *   <li>{@link LongColumn} for BIGINT.</li>
+ *   <li>{@link DoubleColumn} for REAL, FLOAT and DOUBLE, and DECIMAL and NUMERIC, which may
+ *   lose precision.</li>
+ *   <li>{@link StringColumn} for everything else, which is dictionary-encoded, so that repeated
+ *   values are only held once.</li>
+ * </ul>
+ * SQL NULL is recorded separately, where the value is zero, or null for strings.
+ *
+ * @see StagedQuery#fetchColumns()
+ */
+public final class ColumnarResult {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final Column[] columns;
+  private final Map<String, Column> byLabel;
+  private int rows;
+
+  private ColumnarResult(Column[] columns) {
+    this.columns = columns;
+    byLabel = new HashMap<>();
+    for (Column column : columns) {
+      byLabel.putIfAbsent(column.label.toLowerCase(Locale.ROOT), column);
+    }
+  }
+
+  /** Create an empty result with columns suited to the metadata of the result set. */
+  static ColumnarResult forResultSet(ResultSet resultSet) throws SQLException {
+    ResultSetMetaData metaData = resultSet.getMetaData();
+    Column[] columns = new Column[metaData.getColumnCount()];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = column(metaData.getColumnType(i + 1), metaData.getColumnLabel(i + 1));
+    }
+    return new ColumnarResult(columns);
+  }
+
+  private static Column column(int sqlType, String label) {
+    switch (sqlType) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIT:
+      case Types.BOOLEAN:
+        return new IntColumn(label);
+      case Types.BIGINT:
+        return new LongColumn(label);
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        return new DoubleColumn(label);
+      default:
+        return new StringColumn(label);
+    }
+  }
+
+  /** Append all the remaining rows of the result set, which must have the same columns. */
+  void read(ResultSet resultSet) throws SQLException {
+    if (resultSet.getMetaData().getColumnCount() != columns.length) {
+      throw new IllegalStateException("Results have a different number of columns: " + columns.length);
+    }
+    while (resultSet.next()) {
+      for (int i = 0; i < columns.length; i++) {
+        columns[i].read(resultSet, i + 1, rows);
+      }
+      rows++;
+    }
+  }
+
+  /** Release the spare capacity of the buffers, and anything only needed while reading. */
+  ColumnarResult finish() {
+    for (Column column : columns) {
+      column.finish(rows);
+    }
+    return this;
+  }
+
+  /** The number of rows. */
+  public int rows() {
+    return rows;
+  }
+
+  /** The columns, in the order of the query. */
+  public List<Column> columns() {
+    return Collections.unmodifiableList(Arrays.asList(columns));
+  }
+
+  /**
+   * The column with the specified label, ignoring case.
+   *
+   * @throws IllegalArgumentException if there is no such column.
+   */
+  public Column column(String label) {
+    Column column = byLabel.get(label.toLowerCase(Locale.ROOT));
+    if (column == null) {
+      throw new IllegalArgumentException("No column labelled: " + label);
+    }
+    return column;
+  }
+
+  /** @throws IllegalArgumentException if the column does not hold ints. */
+  public IntColumn ints(String label) {
+    return typed(label, IntColumn.class);
+  }
+
+  /** @throws IllegalArgumentException if the column does not hold longs. */
+  public LongColumn longs(String label) {
+    return typed(label, LongColumn.class);
+  }
+
+  /** @throws IllegalArgumentException if the column does not hold doubles. */
+  public DoubleColumn doubles(String label) {
+    return typed(label, DoubleColumn.class);
+  }
+
+  /** @throws IllegalArgumentException if the column does not hold strings. */
+  public StringColumn strings(String label) {
+    return typed(label, StringColumn.class);
+  }
+
+  private <C extends Column> C typed(String label, Class<C> type) {
+    Column column = column(label);
+    if (!type.isInstance(column)) {
+      throw new IllegalArgumentException(
+            "Column " + label + " is a " + column.getClass().getSimpleName() + ", not a " + type.getSimpleName());
+    }
+    return type.cast(column);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("ColumnarResult(rows=").append(rows);
+    for (Column column : columns) {
+      builder.append(", ").append(column.label).append('=').append(column.getClass().getSimpleName());
+    }
+    return builder.append(')').toString();
+  }
+
+  /** The values of a single column. */
+  public abstract static class Column {
+    private final String label;
+    private BitSet nulls;
+    int size;
+
+    Column(String label) {
+      this.label = label;
+      nulls = new BitSet();
+    }
+
+    public String label() {
+      return label;
+    }
+
+    /** The number of rows. */
+    public int size() {
+      return size;
+    }
+
+    /** Whether the value of the specified row was SQL NULL. */
+    public boolean isNull(int row) {
+      checkIndex(row);
+      return nulls.get(row);
+    }
+
+    /** The value of the specified row, boxed, or null. */
+    public abstract Object get(int row);
+
+    abstract void read(ResultSet resultSet, int column, int row) throws SQLException;
+
+    void finish(int rows) {
+      size = rows;
+      if (nulls.isEmpty()) {
+        nulls = new BitSet(0);
+      }
+    }
+
+    void readNull(ResultSet resultSet, int row) throws SQLException {
+      if (resultSet.wasNull()) {
+        nulls.set(row);
+      }
+    }
+
+    void checkIndex(int row) {
+      if (row < 0 || row >= size) {
+        throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+      }
+    }
+
+    static int grow(int capacity, int row) {
+      return row < capacity ? capacity : Math.max(INITIAL_CAPACITY, capacity + (capacity >> 1));
+    }
+  }
+
+  public static final class IntColumn extends Column {
+    private int[] values;
+
+    IntColumn(String label) {
+      super(label);
+      values = new int[0];
+    }
+
+    /** The value of the specified row, where SQL NULL is zero. */
+    public int getInt(int row) {
+      checkIndex(row);
+      return values[row];
+    }
+
+    @Override
+    public Integer get(int row) {
+      return isNull(row) ? null : values[row];
+    }
+
+    /** A copy of all the values, where SQL NULL is zero. */
+    public int[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+
+    @Override
+    void read(ResultSet resultSet, int column, int row) throws SQLException {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, grow(values.length, row));
+      }
+      values[row] = resultSet.getInt(column);
+      readNull(resultSet, row);
+    }
+
+    @Override
+    void finish(int rows) {
+      super.finish(rows);
+      values = Arrays.copyOf(values, rows);
+    }
+  }
+
+  public static final class LongColumn extends Column {
+    private long[] values;
+
+    LongColumn(String label) {
+      super(label);
+      values = new long[0];
+    }
+
+    /** The value of the specified row, where SQL NULL is zero. */
+    public long getLong(int row) {
+      checkIndex(row);
+      return values[row];
+    }
+
+    @Override
+    public Long get(int row) {
+      return isNull(row) ? null : values[row];
+    }
+
+    /** A copy of all the values, where SQL NULL is zero. */
+    public long[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+
+    @Override
+    void read(ResultSet resultSet, int column, int row) throws SQLException {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, grow(values.length, row));
+      }
+      values[row] = resultSet.getLong(column);
+      readNull(resultSet, row);
+    }
+
+    @Override
+    void finish(int rows) {
+      super.finish(rows);
+      values = Arrays.copyOf(values, rows);
+    }
+  }
+
+  public static final class DoubleColumn extends Column {
+    private double[] values;
+
+    DoubleColumn(String label) {
+      super(label);
+      values = new double[0];
+    }
+
+    /** The value of the specified row, where SQL NULL is zero. */
+    public double getDouble(int row) {
+      checkIndex(row);
+      return values[row];
+    }
+
+    @Override
+    public Double get(int row) {
+      return isNull(row) ? null : values[row];
+    }
+
+    /** A copy of all the values, where SQL NULL is zero. */
+    public double[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+
+    @Override
+    void read(ResultSet resultSet, int column, int row) throws SQLException {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, grow(values.length, row));
+      }
+      values[row] = resultSet.getDouble(column);
+      readNull(resultSet, row);
+    }
+
+    @Override
+    void finish(int rows) {
+      super.finish(rows);
+      values = Arrays.copyOf(values, rows);
+    }
+  }
+
+  /**
+   * Strings held as a code for each row, indexing into a dictionary of the distinct values,
+   * where SQL NULL has the code -1.
+   */
+  public static final class StringColumn extends Column {
+    private int[] codes;
+    private Map<String, Integer> encoding;
+    private List<String> dictionary;
+
+    StringColumn(String label) {
+      super(label);
+      codes = new int[0];
+      encoding = new HashMap<>();
+      dictionary = new ArrayList<>();
+    }
+
+    @Override
+    public String get(int row) {
+      checkIndex(row);
+      int code = codes[row];
+      return code < 0 ? null : dictionary.get(code);
+    }
+
+    /** The dictionary code of the specified row, or -1 for SQL NULL. */
+    public int code(int row) {
+      checkIndex(row);
+      return codes[row];
+    }
+
+    /** The distinct values, in the order first read, indexed by their codes. */
+    public List<String> dictionary() {
+      return dictionary;
+    }
+
+    /** A copy of the codes of all the rows. */
+    public int[] codes() {
+      return Arrays.copyOf(codes, size);
+    }
+
+    @Override
+    void read(ResultSet resultSet, int column, int row) throws SQLException {
+      if (row == codes.length) {
+        codes = Arrays.copyOf(codes, grow(codes.length, row));
+      }
+      String value = resultSet.getString(column);
+      if (value == null) {
+        codes[row] = -1;
+        readNull(resultSet, row);
+        return;
+      }
+
+      Integer code = encoding.get(value);
+      if (code == null) {
+        code = dictionary.size();
+        encoding.put(value, code);
+        dictionary.add(value);
+      }
+      codes[row] = code;
+    }
+
+    @Override
+    void finish(int rows) {
+      super.finish(rows);
+      codes = Arrays.copyOf(codes, rows);
+      dictionary = Collections.unmodifiableList(Arrays.asList(dictionary.toArray(new String[0])));
+      encoding = null;
+    }
+  }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Rows of several queries executed one after another, where each query is only executed
+ * once the rows of the previous have been consumed, and closed before moving on.
+ * This class is not thread safe.
+ */
+class ConcatenatedRows<T> implements Iterator<T>, AutoCloseable {
+
+  private final Iterator<StagedQuery<T>> queries;
+  private Stream<T> current;
+  private Iterator<T> rows;
+
+  ConcatenatedRows(List<StagedQuery<T>> queries) {
+    this.queries = queries.iterator();
+    rows = Collections.emptyIterator();
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (!rows.hasNext()) {
+      close();
+      if (!queries.hasNext()) {
+        return false;
+      }
+      current = queries.next().execute();
+      rows = current.iterator();
+    }
+    return true;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return rows.next();
+  }
+
+  @Override
+  public void close() {
+    if (current != null) {
+      Stream<T> closing = current;
+      current = null;
+      rows = Collections.emptyIterator();
+      closing.close();
+    }
+  }
+
+  Stream<T> stream() {
+    Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED);
+    return StreamSupport.stream(spliterator, false).onClose(this::close);
+  }
+
+}
@@ -5,12 +5,21 @@ package org.softpres.donkeysql;
 
 import org.softpres.donkeysql.params.MismatchedParametersException;
 import org.softpres.donkeysql.params.ParamQuery;
+import org.softpres.donkeysql.params.Template;
+import org.softpres.donkeysql.params.TemplateCache;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.util.HashMap;
-import java.util.Map;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
 /**
  * Database DSL entry point.
@@ -19,10 +28,28 @@ public class DB {
 
   private final ConnectionFactory connectionFactory;
   private final boolean autoCloseConnection;
+  private final QueryOptions options;
+  private final Executor executor;
+  private final StatementCache statements;
+  private final boolean transaction;
+  private final QueryListener listener;
+
+  private DB(
+        ConnectionFactory connectionFactory,
+        boolean autoCloseConnection,
+        QueryOptions options,
+        Executor executor,
+        StatementCache statements,
+        boolean transaction,
+        QueryListener listener) {
 
-  private DB(ConnectionFactory connectionFactory, boolean autoCloseConnection) {
     this.connectionFactory = connectionFactory;
     this.autoCloseConnection = autoCloseConnection;
+    this.options = options;
+    this.executor = executor;
+    this.statements = statements;
+    this.transaction = transaction;
+    this.listener = listener;
   }
 
   /**
@@ -31,7 +58,7 @@ public class DB {
    * closed.
    */
   public static DB with(Connection connection) {
-    return new DB(() -> connection, false);
+    return new DB(() -> connection, false, QueryOptions.defaults(), QueryExecutors.blocking(), null, false, null);
   }
 
   /**
@@ -41,7 +68,266 @@ public class DB {
    * consumed.
    */
   public static DB with(DataSource dataSource) {
-    return new DB(dataSource::getConnection, true);
+    return new DB(dataSource::getConnection, true, QueryOptions.defaults(), QueryExecutors.blocking(), null, false, null);
+  }
+
+  /**
+   * Specify the options used by default for all queries created from the returned DB,
+   * such as the fetch size, which can be further refined on each {@link StagedQuery}.
+   */
+  public DB options(QueryOptions options) {
+    return new DB(connectionFactory, autoCloseConnection, options, executor, statements, transaction, listener);
+  }
+
+  /** The options used by default for queries. */
+  public QueryOptions options() {
+    return options;
+  }
+
+  /**
+   * Specify the executor used for asynchronous execution of queries created from the
+   * returned DB, including partitions and {@link #all(StagedQuery[])}, which by default
+   * is a shared pool of threads reserved for blocking on JDBC calls.
+   * <p/>
+   * Partitions and prefetching ({@link QueryOptions#prefetchRows(int)} and paginating with
+   * prefetch) run producers on the executor that block until their rows are consumed. Where
+   * those rows are themselves consumed on tasks of the same executor, it must not have a
+   * bounded number of threads, as the producers could then queue behind their consumers
+   * indefinitely.
+   */
+  public DB executor(Executor executor) {
+    return new DB(connectionFactory, autoCloseConnection, options, executor, statements, transaction, listener);
+  }
+
+  /** The executor used for asynchronous execution of queries. */
+  public Executor executor() {
+    return executor;
+  }
+
+  /** The executor for producers that block until their rows are consumed. */
+  Executor producers() {
+    return QueryExecutors.producers(executor);
+  }
+
+  /**
+   * Notify the listener of the timings of each query created from the returned DB, such as
+   * {@link QueryMetrics} to keep latency histograms for each SQL template.
+   */
+  public DB listener(QueryListener listener) {
+    return new DB(connectionFactory, autoCloseConnection, options, executor, statements, transaction, listener);
+  }
+
+  /**
+   * Cache up to the specified number of prepared statements for reuse by queries and updates
+   * created from the returned DB, which is only supported for an explicit {@link Connection},
+   * as pooled connections should rely on the statement cache of the pool or driver. Statements
+   * are keyed by their normalised SQL, so queries expanding iterable parameters are only
+   * reused for the same number of elements (see '@' parameters).
+   * <p/>
+   * The cache should be closed before the connection is, which closes the idle statements.
+   *
+   * @throws IllegalStateException if the DB was created from a DataSource.
+   * @see #statementCache()
+   */
+  public DB cacheStatements(int maxStatements) {
+    if (autoCloseConnection) {
+      throw new IllegalStateException("Statements can only be cached for an explicit Connection");
+    }
+    try {
+      StatementCache cache = new StatementCache(connectionFactory.create(), maxStatements);
+      return new DB(connectionFactory, autoCloseConnection, options, executor, cache, transaction, listener);
+    } catch (SQLException e) {
+      throw new UncheckedSQLException(e);
+    }
+  }
+
+  /**
+   * The prepared statement cache of this DB, which allows inspecting the hit, miss and
+   * eviction statistics, and closing the cached statements.
+   *
+   * @throws IllegalStateException if statements are not being cached.
+   * @see #cacheStatements(int)
+   */
+  public StatementCache statementCache() {
+    if (statements == null) {
+      throw new IllegalStateException("Statements are not being cached");
+    }
+    return statements;
+  }
+
+  /**
+   * Execute queries asynchronously on virtual threads when running on Java 21 or later,
+   * making it cheap to fan out many concurrent queries, which otherwise falls back to a
+   * bounded pool of platform threads. With the bounded pool, partitions and prefetching
+   * produce their rows on the default unbounded pool, so that they cannot be starved by the
+   * tasks consuming them. The number of queries actually running at once is still limited by
+   * the size of the connection pool.
+   */
+  public DB virtualThreads() {
+    return executor(QueryExecutors.virtualThreads());
+  }
+
+  /**
+   * Perform the supplied work in a transaction on a single connection from the data source,
+   * which is committed if the work completes, or rolled back if it throws. The {@link DB}
+   * passed to the work executes all queries and updates on that connection, avoiding a pool
+   * checkout and commit for each.
+   *
+   * @see #transaction(TransactionOptions, TransactionWork)
+   */
+  public static <R> R transaction(DataSource dataSource, TransactionWork<R> work) {
+    return with(dataSource).transaction(TransactionOptions.defaults(), work);
+  }
+
+  /**
+   * Perform the supplied work in a transaction with the specified isolation level or
+   * read-only hint.
+   *
+   * @see #transaction(TransactionOptions, TransactionWork)
+   */
+  public static <R> R transaction(DataSource dataSource, TransactionOptions options, TransactionWork<R> work) {
+    return with(dataSource).transaction(options, work);
+  }
+
+  /** @see #transaction(TransactionOptions, TransactionWork) */
+  public <R> R transaction(TransactionWork<R> work) {
+    return transaction(TransactionOptions.defaults(), work);
+  }
+
+  /**
+   * Perform the supplied work in a transaction, where auto-commit is disabled on the connection
+   * of this DB, and the transaction committed if the work completes, or rolled back if it
+   * throws. The previous settings of the connection are restored afterwards, and it is closed
+   * if it came from a DataSource. Calling this on the DB of a transaction joins it, rather
+   * than starting another, as does calling it with an explicit connection that already has
+   * auto-commit disabled, where the caller's transaction is neither committed nor rolled back,
+   * and the transaction options are not applied.
+   * <p/>
+   * The DB passed to the work inherits the options and executor of this one. The connection
+   * is only valid while the work is being performed, so any streams should be consumed within
+   * it, and queries should not be executed asynchronously, as a connection cannot safely be
+   * used by many threads at once.
+   *
+   * @return the result of the work.
+   * @throws UncheckedSQLException if the work, commit or rollback failed.
+   */
+  public <R> R transaction(TransactionOptions transactionOptions, TransactionWork<R> work) {
+    try {
+      return transaction
+            ? work.apply(this)
+            : transactionThrowing(transactionOptions, work);
+    } catch (SQLException e) {
+      throw new UncheckedSQLException(e);
+    }
+  }
+
+  private <R> R transactionThrowing(TransactionOptions transactionOptions, TransactionWork<R> work)
+        throws SQLException {
+
+    Connection connection = connectionFactory.create();
+    if (!autoCloseConnection && !connection.getAutoCommit()) {
+      return work.apply(pinned(connection));
+    }
+
+    try (QueryResource c = QueryResource.connection(connection, autoCloseConnection);
+         QueryResource restore = transactionOptions.begin(connection)) {
+
+      try {
+        R result = work.apply(pinned(connection));
+        connection.commit();
+        return result;
+      } catch (Throwable e) {
+        rollbackAfterFailure(connection, e);
+        throw e;
+      }
+    }
+  }
+
+  /** A DB performing all work on the connection of a transaction. */
+  private DB pinned(Connection connection) {
+    return new DB(() -> connection, false, options, executor, statements, true, listener);
+  }
+
+  private static void rollbackAfterFailure(Connection connection, Throwable failure) {
+    try {
+      connection.rollback();
+    } catch (SQLException | RuntimeException e) {
+      failure.addSuppressed(e);
+    }
+  }
+
+  /**
+   * Execute all the supplied queries concurrently, each on the executor of the {@link DB}
+   * it was created from, waiting for them all to complete. The results are returned in
+   * the same order as the queries. Queries sharing an explicit {@link Connection} should
+   * not be combined, as a connection cannot safely be used by many threads at once.
+   *
+   * @throws UncheckedSQLException if any of the queries failed, after all have completed.
+   */
+  @SafeVarargs
+  public static <T> List<List<T>> all(StagedQuery<? extends T>... queries) {
+    List<StagedQuery<? extends T>> list = new ArrayList<>(queries.length);
+    for (StagedQuery<? extends T> query : queries) {
+      list.add(query);
+    }
+    return all(list);
+  }
+
+  /** @see #all(StagedQuery[]) */
+  public static <T> List<List<T>> all(Collection<? extends StagedQuery<? extends T>> queries) {
+    List<CompletableFuture<? extends List<? extends T>>> futures = new ArrayList<>(queries.size());
+    for (StagedQuery<? extends T> query : queries) {
+      futures.add(query.executeAsync());
+    }
+
+    try {
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException)e.getCause();
+      }
+      throw e;
+    }
+
+    List<List<T>> results = new ArrayList<>(futures.size());
+    for (CompletableFuture<? extends List<? extends T>> future : futures) {
+      results.add(Collections.unmodifiableList(future.join()));
+    }
+    return results;
+  }
+
+  /**
+   * The cache of parsed SQL statements shared by all queries, which allows inspecting the
+   * hit, miss and eviction statistics, and adjusting the number of statements retained.
+   */
+  public static TemplateCache templateCache() {
+    return ParamQuery.templateCache();
+  }
+
+  Connection connection() throws SQLException {
+    return connectionFactory.create();
+  }
+
+  QueryTrace trace(String sql) {
+    return QueryTrace.start(listener, sql);
+  }
+
+  boolean autoCloseConnection() {
+    return autoCloseConnection;
+  }
+
+  /** Prepare a statement, or reuse one from the cache when statements are being cached. */
+  PreparedStatement prepare(Connection connection, String sql, QueryOptions options) throws SQLException {
+    return statements == null ?
+          options.prepare(connection, sql) :
+          statements.checkout(sql, options);
+  }
+
+  /** A resource that closes the statement, or returns it to the cache. */
+  QueryResource release(PreparedStatement statement) {
+    return statements == null ?
+          statement::close :
+          () -> statements.release(statement);
   }
 
   /**
@@ -53,6 +339,30 @@ public class DB {
     return new QueryBuilder(sql);
   }
 
+  /**
+   * Start an INSERT, UPDATE or DELETE statement, where the returned object allows
+   * specifying any required parameters before execution.
+   */
+  public StagedUpdate update(String sql) {
+    return new StagedUpdate(this, ParamQuery.template(sql));
+  }
+
+  /**
+   * Start an INSERT, UPDATE or DELETE statement to be executed for many sets of parameters
+   * using JDBC batching, which is significantly faster than individual updates for bulk loads.
+   */
+  public BatchUpdate batch(String sql) {
+    return new BatchUpdate(this, ParamQuery.template(sql));
+  }
+
+  /**
+   * Start a bulk load of rows into the specified columns of a table, which inserts many rows
+   * with each statement, and is faster again than batching for large loads.
+   */
+  public BulkInsert bulkInsert(String table, String... columns) {
+    return new BulkInsert(this, table, columns);
+  }
+
   /**
    * Signifies a class can construct a {@link StagedQuery} from a {@link RowMapper},
    * mainly used to allow code reuse at a call-site.
@@ -61,16 +371,53 @@ public class DB {
 
     /** Describe how a {@link ResultSet} can be transformed into the desired object. */
     <T> StagedQuery<T> map(RowMapper<T> mapper);
+
+    /** Map each row to an int, such as a single numeric column, returning an {@link IntStream}. */
+    StagedPrimitiveQuery<IntStream> mapToInt(IntRowMapper mapper);
+
+    /** Map each row to a long, returning a {@link LongStream}. */
+    StagedPrimitiveQuery<LongStream> mapToLong(LongRowMapper mapper);
+
+    /** Map each row to a double, returning a {@link DoubleStream}. */
+    StagedPrimitiveQuery<DoubleStream> mapToDouble(DoubleRowMapper mapper);
+  }
+
+  /** Stages queries with the parameters supplied to a builder, and the options of this DB. */
+  abstract class ParameterisedQuery implements MappableQuery {
+
+    abstract ParamQuery paramQuery();
+
+    @Override
+    public <T> StagedQuery<T> map(RowMapper<T> mapper) {
+      return new StagedQuery<>(DB.this, mapper, paramQuery(), options);
+    }
+
+    @Override
+    public StagedPrimitiveQuery<IntStream> mapToInt(IntRowMapper mapper) {
+      return StagedPrimitiveQuery.ofInt(DB.this, paramQuery(), options, mapper);
+    }
+
+    @Override
+    public StagedPrimitiveQuery<LongStream> mapToLong(LongRowMapper mapper) {
+      return StagedPrimitiveQuery.ofLong(DB.this, paramQuery(), options, mapper);
+    }
+
+    @Override
+    public StagedPrimitiveQuery<DoubleStream> mapToDouble(DoubleRowMapper mapper) {
+      return StagedPrimitiveQuery.ofDouble(DB.this, paramQuery(), options, mapper);
+    }
   }
 
   /**
    * Indicates the parameter-injection stage before a query can be executed.
    */
-  public class QueryBuilder implements MappableQuery {
+  public class QueryBuilder extends ParameterisedQuery {
     private final String sql;
+    private final Template template;
 
     QueryBuilder(String sql) {
       this.sql = sql;
+      template = ParamQuery.template(sql);
     }
 
     /** Convenience method to allow delegating the setting of named params. */
@@ -100,17 +447,23 @@ public class DB {
       return new IndexedQueryBuilder(this, params);
     }
 
+    /**
+     * Execute the query once for each of the supplied named parameter sets, such as
+     * key ranges, merging the results into a single stream.
+     *
+     * @see Partitions#range(String, String, long, long, int)
+     */
+    public PartitionedQueryBuilder partitions(Iterable<Map<String, Object>> partitions) {
+      return new PartitionedQueryBuilder(this, partitions);
+    }
+
     @Override
-    public <T> StagedQuery<T> map(RowMapper<T> mapper) {
-      return new StagedQuery<>(
-            connectionFactory,
-            autoCloseConnection,
-            mapper,
-            ParamQuery.none(sql));
+    ParamQuery paramQuery() {
+      return ParamQuery.none(sql);
     }
   }
 
-  public class IndexedQueryBuilder implements MappableQuery {
+  public class IndexedQueryBuilder extends ParameterisedQuery {
     private final QueryBuilder builder;
     private final Object[] params;
 
@@ -120,16 +473,12 @@ public class DB {
     }
 
     @Override
-    public <T> StagedQuery<T> map(RowMapper<T> mapper) {
-      return new StagedQuery<>(
-            connectionFactory,
-            autoCloseConnection,
-            mapper,
-            ParamQuery.indexed(builder.sql, params));
+    ParamQuery paramQuery() {
+      return ParamQuery.indexed(builder.template, params);
     }
   }
 
-  public class NamedQueryBuilder implements MappableQuery {
+  public class NamedQueryBuilder extends ParameterisedQuery {
     private final QueryBuilder builder;
     private final Map<String, Object> params;
 
@@ -149,12 +498,37 @@ public class DB {
     }
 
     @Override
-    public <T> StagedQuery<T> map(RowMapper<T> mapper) {
-      return new StagedQuery<>(
-            connectionFactory,
-            autoCloseConnection,
-            mapper,
-            ParamQuery.named(builder.sql, params));
+    ParamQuery paramQuery() {
+      return ParamQuery.named(builder.template, params);
+    }
+  }
+
+  public class PartitionedQueryBuilder {
+    private final QueryBuilder builder;
+    private final Iterable<Map<String, Object>> partitions;
+    private final Map<String, Object> params;
+
+    PartitionedQueryBuilder(QueryBuilder builder, Iterable<Map<String, Object>> partitions) {
+      this.builder = builder;
+      this.partitions = partitions;
+      params = new HashMap<>();
+    }
+
+    /** Provide a named parameter common to all partitions. */
+    public PartitionedQueryBuilder param(String name, Object value) {
+      params.put(name, value);
+      return this;
+    }
+
+    /** Describe how a {@link ResultSet} can be transformed into the desired object. */
+    public <T> PartitionedQuery<T> map(RowMapper<T> mapper) {
+      List<StagedQuery<T>> queries = new ArrayList<>();
+      for (Map<String, Object> partition : partitions) {
+        Map<String, Object> merged = new HashMap<>(params);
+        merged.putAll(partition);
+        queries.add(new StagedQuery<>(DB.this, mapper, ParamQuery.named(builder.template, merged), options));
+      }
+      return new PartitionedQuery<>(queries, autoCloseConnection, producers());
     }
   }
 
@@ -0,0 +1,17 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Used to convert each row from a result set into a primitive double, without boxing.
+ */
+@FunctionalInterface
+public interface DoubleRowMapper {
+
+  double apply(ResultSet resultSet) throws SQLException;
+
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+/**
+ * Text formats that query results can be written in directly from the {@link java.sql.ResultSet},
+ * using the column labels as the field names.
+ *
+ * @see StagedQuery#writeTo(java.io.Writer, ExportFormat)
+ */
+public enum ExportFormat {
+
+  /**
+   * Comma-separated values following RFC 4180, with a header row of the column labels.
+   * Fields containing commas, quotes or line breaks are quoted, as are empty strings, so
+   * that SQL NULL is the only value written as an empty field.
+   */
+  CSV,
+
+  /**
+   * Newline-delimited JSON, with an object per row. Numbers and booleans are written as
+   * JSON literals, binary columns as Base64 strings, and everything else as strings.
+   */
+  NDJSON
+
+}
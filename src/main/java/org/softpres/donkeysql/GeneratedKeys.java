@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.stream.LongStream;
+
+/**
+ * Reading of the keys generated by the database for inserted rows, which are returned by
+ * the driver along with the update, avoiding a further query to find them.
+ */
+final class GeneratedKeys {
+
+  private GeneratedKeys() {
+  }
+
+  /**
+   * Prepare a statement that returns the generated keys, being the specified columns,
+   * or those chosen by the driver when null.
+   */
+  static PreparedStatement prepare(Connection connection, String sql, String[] columns) throws SQLException {
+    return columns == null ?
+          connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) :
+          connection.prepareStatement(sql, columns);
+  }
+
+  /** Pass the keys generated by the last execution of the statement to the reader. */
+  static void read(Statement statement, Reader reader) throws SQLException {
+    try (ResultSet keys = statement.getGeneratedKeys()) {
+      reader.read(keys);
+    }
+  }
+
+  /** Reader mapping each row of keys into the list. */
+  static <K> Reader into(List<K> keys, RowMapper<K> mapper) {
+    return resultSet -> {
+      RowMapper<K> bound = RowMappers.forResultSet(mapper);
+      while (resultSet.next()) {
+        keys.add(bound.apply(resultSet));
+      }
+    };
+  }
+
+  /** Reader adding the first column of each row of keys, without boxing. */
+  static Reader into(LongStream.Builder keys) {
+    return resultSet -> {
+      while (resultSet.next()) {
+        keys.add(resultSet.getLong(1));
+      }
+    };
+  }
+
+  /** Reads all the rows of generated keys. */
+  @FunctionalInterface
+  interface Reader {
+    void read(ResultSet keys) throws SQLException;
+  }
+
+}
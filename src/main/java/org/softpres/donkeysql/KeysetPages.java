@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Rows of a query read a page at a time, where each page is read in full and its resources
+ * closed before any of its rows are returned, and the next page is only read once the rows of
+ * the previous have been consumed, unless prefetching, where it is read on an executor while
+ * the rows of the previous are being consumed. Reading stops at the first page that is not full.
+ * This class is not thread safe.
+ */
+class KeysetPages<T> implements Iterator<T>, AutoCloseable {
+
+  private final Reader<T> reader;
+  private final int pageSize;
+  private final Executor executor;
+  private CompletableFuture<Page<T>> next;
+  private volatile boolean closed;
+  private Iterator<T> rows;
+  private Object lastKey;
+  private boolean last;
+
+  /**
+   * @param reader   of the page after the specified key, where null is the first page.
+   * @param executor to prefetch the next page on, or null to read it only when required.
+   */
+  KeysetPages(Reader<T> reader, int pageSize, Executor executor) {
+    this.reader = reader;
+    this.pageSize = pageSize;
+    this.executor = executor;
+    rows = Collections.emptyIterator();
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (!rows.hasNext()) {
+      if (last) {
+        return false;
+      }
+      read(next == null ? reader.read(lastKey, () -> closed) : await(next));
+    }
+    return true;
+  }
+
+  private void read(Page<T> page) {
+    next = null;
+    rows = page.rows.iterator();
+    lastKey = page.lastKey;
+    last = page.rows.size() < pageSize;
+
+    if (executor != null && !last) {
+      Object after = lastKey;
+      next = CompletableFuture.supplyAsync(() -> reader.read(after, () -> closed), executor);
+    }
+  }
+
+  private static <T> T await(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException)e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return rows.next();
+  }
+
+  /**
+   * Stop reading pages, where a page already being prefetched stops reading rows
+   * and closes its resources, or is not read at all if it has yet to start.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    last = true;
+    rows = Collections.emptyIterator();
+    if (next != null) {
+      next.cancel(false);
+      next = null;
+    }
+  }
+
+  Stream<T> stream() {
+    Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED);
+    return StreamSupport.stream(spliterator, false).onClose(this::close);
+  }
+
+  /** Reads the page after the specified key, which should stop early once the pages are closed. */
+  interface Reader<T> {
+    Page<T> read(Object after, BooleanSupplier closed);
+  }
+
+  /** The mapped rows of a page, along with the key of the last row. */
+  static class Page<T> {
+    final List<T> rows;
+    final Object lastKey;
+
+    Page(List<T> rows, Object lastKey) {
+      this.rows = rows;
+      this.lastKey = lastKey;
+    }
+  }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.softpres.donkeysql.params.Humanise;
+import org.softpres.donkeysql.params.ParamQuery;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page of the rows of a query, ordered by a key column, and starting after the key of the
+ * last row of the previous page, such that each page is found by seeking through an index
+ * rather than skipping all the rows before it.
+ * <pre>
+ *   SELECT * FROM (query) paged WHERE key > ? ORDER BY key LIMIT size
+ * </pre>
+ */
+class KeysetQuery implements ParamQuery {
+
+  private final ParamQuery query;
+  private final String keyColumn;
+  private final int pageSize;
+  private final Object after;
+
+  /** @param after the key of the last row of the previous page, or null for the first page. */
+  KeysetQuery(ParamQuery query, String keyColumn, int pageSize, Object after) {
+    this.query = query;
+    this.keyColumn = keyColumn;
+    this.pageSize = pageSize;
+    this.after = after;
+  }
+
+  @Override
+  public String sql() {
+    return page(query.sql(), "?");
+  }
+
+  private String page(String sql, String afterValue) {
+    return "SELECT * FROM (" + sql + ") paged" +
+          (after == null ? "" : " WHERE " + keyColumn + " > " + afterValue) +
+          " ORDER BY " + keyColumn + " LIMIT " + pageSize;
+  }
+
+  @Override
+  public String templateSql() {
+    return query.templateSql();
+  }
+
+  @Override
+  public void bind(PreparedStatement statement) throws SQLException {
+    query.bind(statement);
+    if (after != null) {
+      statement.setObject(query.values().size() + 1, after);
+    }
+  }
+
+  @Override
+  public List<Object> values() {
+    List<Object> values = new ArrayList<>(query.values());
+    if (after != null) {
+      values.add(after);
+    }
+    return values;
+  }
+
+  @Override
+  public ParamQuery forConnection(Connection connection) throws SQLException {
+    ParamQuery resolved = query.forConnection(connection);
+    return resolved == query ? this : new KeysetQuery(resolved, keyColumn, pageSize, after);
+  }
+
+  @Override
+  public String toString() {
+    return page(query.toString(), Humanise.paramValue(after));
+  }
+
+}
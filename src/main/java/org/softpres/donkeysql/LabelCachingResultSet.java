@@ -0,0 +1,1017 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.*;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * View of a {@link ResultSet} passed to each {@link RowMapper}, which resolves column labels
+ * to indices only once, serving subsequent lookups from a map rather than the driver.
+ * Drivers typically search the columns for each label on every call, ignoring case,
+ * so this makes label-based mappers cheaper without any changes to them.
+ * <p/>
+ * Labels are cached exactly as given, so a label used with different case is resolved
+ * by the driver once for each variation. As per the JDBC specification, where several
+ * columns have the same label, the first is used.
+ */
+@SuppressWarnings("deprecation")
+class LabelCachingResultSet implements ResultSet {
+
+  private final ResultSet delegate;
+  private final Map<String, Integer> columns;
+
+  LabelCachingResultSet(ResultSet delegate) {
+    this.delegate = delegate;
+    columns = new HashMap<>();
+  }
+
+  @Override
+  public int findColumn(String columnLabel) throws SQLException {
+    Integer column = columns.get(columnLabel);
+    if (column == null) {
+      column = delegate.findColumn(columnLabel);
+      columns.put(columnLabel, column);
+    }
+    return column;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T unwrap(Class<T> type) throws SQLException {
+    return type.isInstance(delegate) ? (T)delegate : delegate.unwrap(type);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> type) throws SQLException {
+    return type.isInstance(delegate) || delegate.isWrapperFor(type);
+  }
+
+  @Override
+  public boolean next() throws SQLException {
+    return delegate.next();
+  }
+
+  @Override
+  public void close() throws SQLException {
+    delegate.close();
+  }
+
+  @Override
+  public boolean wasNull() throws SQLException {
+    return delegate.wasNull();
+  }
+
+  @Override
+  public String getString(int columnIndex) throws SQLException {
+    return delegate.getString(columnIndex);
+  }
+
+  @Override
+  public boolean getBoolean(int columnIndex) throws SQLException {
+    return delegate.getBoolean(columnIndex);
+  }
+
+  @Override
+  public byte getByte(int columnIndex) throws SQLException {
+    return delegate.getByte(columnIndex);
+  }
+
+  @Override
+  public short getShort(int columnIndex) throws SQLException {
+    return delegate.getShort(columnIndex);
+  }
+
+  @Override
+  public int getInt(int columnIndex) throws SQLException {
+    return delegate.getInt(columnIndex);
+  }
+
+  @Override
+  public long getLong(int columnIndex) throws SQLException {
+    return delegate.getLong(columnIndex);
+  }
+
+  @Override
+  public float getFloat(int columnIndex) throws SQLException {
+    return delegate.getFloat(columnIndex);
+  }
+
+  @Override
+  public double getDouble(int columnIndex) throws SQLException {
+    return delegate.getDouble(columnIndex);
+  }
+
+  @Override
+  public BigDecimal getBigDecimal(int columnIndex, int scale) throws SQLException {
+    return delegate.getBigDecimal(columnIndex, scale);
+  }
+
+  @Override
+  public byte[] getBytes(int columnIndex) throws SQLException {
+    return delegate.getBytes(columnIndex);
+  }
+
+  @Override
+  public Date getDate(int columnIndex) throws SQLException {
+    return delegate.getDate(columnIndex);
+  }
+
+  @Override
+  public Time getTime(int columnIndex) throws SQLException {
+    return delegate.getTime(columnIndex);
+  }
+
+  @Override
+  public Timestamp getTimestamp(int columnIndex) throws SQLException {
+    return delegate.getTimestamp(columnIndex);
+  }
+
+  @Override
+  public InputStream getAsciiStream(int columnIndex) throws SQLException {
+    return delegate.getAsciiStream(columnIndex);
+  }
+
+  @Override
+  public InputStream getUnicodeStream(int columnIndex) throws SQLException {
+    return delegate.getUnicodeStream(columnIndex);
+  }
+
+  @Override
+  public InputStream getBinaryStream(int columnIndex) throws SQLException {
+    return delegate.getBinaryStream(columnIndex);
+  }
+
+  @Override
+  public String getString(String columnLabel) throws SQLException {
+    return delegate.getString(findColumn(columnLabel));
+  }
+
+  @Override
+  public boolean getBoolean(String columnLabel) throws SQLException {
+    return delegate.getBoolean(findColumn(columnLabel));
+  }
+
+  @Override
+  public byte getByte(String columnLabel) throws SQLException {
+    return delegate.getByte(findColumn(columnLabel));
+  }
+
+  @Override
+  public short getShort(String columnLabel) throws SQLException {
+    return delegate.getShort(findColumn(columnLabel));
+  }
+
+  @Override
+  public int getInt(String columnLabel) throws SQLException {
+    return delegate.getInt(findColumn(columnLabel));
+  }
+
+  @Override
+  public long getLong(String columnLabel) throws SQLException {
+    return delegate.getLong(findColumn(columnLabel));
+  }
+
+  @Override
+  public float getFloat(String columnLabel) throws SQLException {
+    return delegate.getFloat(findColumn(columnLabel));
+  }
+
+  @Override
+  public double getDouble(String columnLabel) throws SQLException {
+    return delegate.getDouble(findColumn(columnLabel));
+  }
+
+  @Override
+  public BigDecimal getBigDecimal(String columnLabel, int scale) throws SQLException {
+    return delegate.getBigDecimal(findColumn(columnLabel), scale);
+  }
+
+  @Override
+  public byte[] getBytes(String columnLabel) throws SQLException {
+    return delegate.getBytes(findColumn(columnLabel));
+  }
+
+  @Override
+  public Date getDate(String columnLabel) throws SQLException {
+    return delegate.getDate(findColumn(columnLabel));
+  }
+
+  @Override
+  public Time getTime(String columnLabel) throws SQLException {
+    return delegate.getTime(findColumn(columnLabel));
+  }
+
+  @Override
+  public Timestamp getTimestamp(String columnLabel) throws SQLException {
+    return delegate.getTimestamp(findColumn(columnLabel));
+  }
+
+  @Override
+  public InputStream getAsciiStream(String columnLabel) throws SQLException {
+    return delegate.getAsciiStream(findColumn(columnLabel));
+  }
+
+  @Override
+  public InputStream getUnicodeStream(String columnLabel) throws SQLException {
+    return delegate.getUnicodeStream(findColumn(columnLabel));
+  }
+
+  @Override
+  public InputStream getBinaryStream(String columnLabel) throws SQLException {
+    return delegate.getBinaryStream(findColumn(columnLabel));
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    return delegate.getWarnings();
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    delegate.clearWarnings();
+  }
+
+  @Override
+  public String getCursorName() throws SQLException {
+    return delegate.getCursorName();
+  }
+
+  @Override
+  public ResultSetMetaData getMetaData() throws SQLException {
+    return delegate.getMetaData();
+  }
+
+  @Override
+  public Object getObject(int columnIndex) throws SQLException {
+    return delegate.getObject(columnIndex);
+  }
+
+  @Override
+  public Object getObject(String columnLabel) throws SQLException {
+    return delegate.getObject(findColumn(columnLabel));
+  }
+
+  @Override
+  public Reader getCharacterStream(int columnIndex) throws SQLException {
+    return delegate.getCharacterStream(columnIndex);
+  }
+
+  @Override
+  public Reader getCharacterStream(String columnLabel) throws SQLException {
+    return delegate.getCharacterStream(findColumn(columnLabel));
+  }
+
+  @Override
+  public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
+    return delegate.getBigDecimal(columnIndex);
+  }
+
+  @Override
+  public BigDecimal getBigDecimal(String columnLabel) throws SQLException {
+    return delegate.getBigDecimal(findColumn(columnLabel));
+  }
+
+  @Override
+  public boolean isBeforeFirst() throws SQLException {
+    return delegate.isBeforeFirst();
+  }
+
+  @Override
+  public boolean isAfterLast() throws SQLException {
+    return delegate.isAfterLast();
+  }
+
+  @Override
+  public boolean isFirst() throws SQLException {
+    return delegate.isFirst();
+  }
+
+  @Override
+  public boolean isLast() throws SQLException {
+    return delegate.isLast();
+  }
+
+  @Override
+  public void beforeFirst() throws SQLException {
+    delegate.beforeFirst();
+  }
+
+  @Override
+  public void afterLast() throws SQLException {
+    delegate.afterLast();
+  }
+
+  @Override
+  public boolean first() throws SQLException {
+    return delegate.first();
+  }
+
+  @Override
+  public boolean last() throws SQLException {
+    return delegate.last();
+  }
+
+  @Override
+  public int getRow() throws SQLException {
+    return delegate.getRow();
+  }
+
+  @Override
+  public boolean absolute(int row) throws SQLException {
+    return delegate.absolute(row);
+  }
+
+  @Override
+  public boolean relative(int rows) throws SQLException {
+    return delegate.relative(rows);
+  }
+
+  @Override
+  public boolean previous() throws SQLException {
+    return delegate.previous();
+  }
+
+  @Override
+  public void setFetchDirection(int direction) throws SQLException {
+    delegate.setFetchDirection(direction);
+  }
+
+  @Override
+  public int getFetchDirection() throws SQLException {
+    return delegate.getFetchDirection();
+  }
+
+  @Override
+  public void setFetchSize(int rows) throws SQLException {
+    delegate.setFetchSize(rows);
+  }
+
+  @Override
+  public int getFetchSize() throws SQLException {
+    return delegate.getFetchSize();
+  }
+
+  @Override
+  public int getType() throws SQLException {
+    return delegate.getType();
+  }
+
+  @Override
+  public int getConcurrency() throws SQLException {
+    return delegate.getConcurrency();
+  }
+
+  @Override
+  public boolean rowUpdated() throws SQLException {
+    return delegate.rowUpdated();
+  }
+
+  @Override
+  public boolean rowInserted() throws SQLException {
+    return delegate.rowInserted();
+  }
+
+  @Override
+  public boolean rowDeleted() throws SQLException {
+    return delegate.rowDeleted();
+  }
+
+  @Override
+  public void updateNull(int columnIndex) throws SQLException {
+    delegate.updateNull(columnIndex);
+  }
+
+  @Override
+  public void updateBoolean(int columnIndex, boolean x) throws SQLException {
+    delegate.updateBoolean(columnIndex, x);
+  }
+
+  @Override
+  public void updateByte(int columnIndex, byte x) throws SQLException {
+    delegate.updateByte(columnIndex, x);
+  }
+
+  @Override
+  public void updateShort(int columnIndex, short x) throws SQLException {
+    delegate.updateShort(columnIndex, x);
+  }
+
+  @Override
+  public void updateInt(int columnIndex, int x) throws SQLException {
+    delegate.updateInt(columnIndex, x);
+  }
+
+  @Override
+  public void updateLong(int columnIndex, long length) throws SQLException {
+    delegate.updateLong(columnIndex, length);
+  }
+
+  @Override
+  public void updateFloat(int columnIndex, float x) throws SQLException {
+    delegate.updateFloat(columnIndex, x);
+  }
+
+  @Override
+  public void updateDouble(int columnIndex, double x) throws SQLException {
+    delegate.updateDouble(columnIndex, x);
+  }
+
+  @Override
+  public void updateBigDecimal(int columnIndex, BigDecimal x) throws SQLException {
+    delegate.updateBigDecimal(columnIndex, x);
+  }
+
+  @Override
+  public void updateString(int columnIndex, String x) throws SQLException {
+    delegate.updateString(columnIndex, x);
+  }
+
+  @Override
+  public void updateBytes(int columnIndex, byte[] x) throws SQLException {
+    delegate.updateBytes(columnIndex, x);
+  }
+
+  @Override
+  public void updateDate(int columnIndex, Date x) throws SQLException {
+    delegate.updateDate(columnIndex, x);
+  }
+
+  @Override
+  public void updateTime(int columnIndex, Time x) throws SQLException {
+    delegate.updateTime(columnIndex, x);
+  }
+
+  @Override
+  public void updateTimestamp(int columnIndex, Timestamp x) throws SQLException {
+    delegate.updateTimestamp(columnIndex, x);
+  }
+
+  @Override
+  public void updateAsciiStream(int columnIndex, InputStream x, int length) throws SQLException {
+    delegate.updateAsciiStream(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateBinaryStream(int columnIndex, InputStream x, int length) throws SQLException {
+    delegate.updateBinaryStream(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateCharacterStream(int columnIndex, Reader x, int length) throws SQLException {
+    delegate.updateCharacterStream(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateObject(int columnIndex, Object x, int scaleOrLength) throws SQLException {
+    delegate.updateObject(columnIndex, x, scaleOrLength);
+  }
+
+  @Override
+  public void updateObject(int columnIndex, Object x) throws SQLException {
+    delegate.updateObject(columnIndex, x);
+  }
+
+  @Override
+  public void updateNull(String columnLabel) throws SQLException {
+    delegate.updateNull(findColumn(columnLabel));
+  }
+
+  @Override
+  public void updateBoolean(String columnLabel, boolean x) throws SQLException {
+    delegate.updateBoolean(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateByte(String columnLabel, byte x) throws SQLException {
+    delegate.updateByte(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateShort(String columnLabel, short x) throws SQLException {
+    delegate.updateShort(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateInt(String columnLabel, int x) throws SQLException {
+    delegate.updateInt(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateLong(String columnLabel, long length) throws SQLException {
+    delegate.updateLong(findColumn(columnLabel), length);
+  }
+
+  @Override
+  public void updateFloat(String columnLabel, float x) throws SQLException {
+    delegate.updateFloat(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateDouble(String columnLabel, double x) throws SQLException {
+    delegate.updateDouble(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateBigDecimal(String columnLabel, BigDecimal x) throws SQLException {
+    delegate.updateBigDecimal(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateString(String columnLabel, String x) throws SQLException {
+    delegate.updateString(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateBytes(String columnLabel, byte[] x) throws SQLException {
+    delegate.updateBytes(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateDate(String columnLabel, Date x) throws SQLException {
+    delegate.updateDate(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateTime(String columnLabel, Time x) throws SQLException {
+    delegate.updateTime(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateTimestamp(String columnLabel, Timestamp x) throws SQLException {
+    delegate.updateTimestamp(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateAsciiStream(String columnLabel, InputStream x, int length) throws SQLException {
+    delegate.updateAsciiStream(findColumn(columnLabel), x, length);
+  }
+
+  @Override
+  public void updateBinaryStream(String columnLabel, InputStream x, int length) throws SQLException {
+    delegate.updateBinaryStream(findColumn(columnLabel), x, length);
+  }
+
+  @Override
+  public void updateCharacterStream(String columnLabel, Reader x, int length) throws SQLException {
+    delegate.updateCharacterStream(findColumn(columnLabel), x, length);
+  }
+
+  @Override
+  public void updateObject(String columnLabel, Object x, int scaleOrLength) throws SQLException {
+    delegate.updateObject(findColumn(columnLabel), x, scaleOrLength);
+  }
+
+  @Override
+  public void updateObject(String columnLabel, Object x) throws SQLException {
+    delegate.updateObject(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void insertRow() throws SQLException {
+    delegate.insertRow();
+  }
+
+  @Override
+  public void updateRow() throws SQLException {
+    delegate.updateRow();
+  }
+
+  @Override
+  public void deleteRow() throws SQLException {
+    delegate.deleteRow();
+  }
+
+  @Override
+  public void refreshRow() throws SQLException {
+    delegate.refreshRow();
+  }
+
+  @Override
+  public void cancelRowUpdates() throws SQLException {
+    delegate.cancelRowUpdates();
+  }
+
+  @Override
+  public void moveToInsertRow() throws SQLException {
+    delegate.moveToInsertRow();
+  }
+
+  @Override
+  public void moveToCurrentRow() throws SQLException {
+    delegate.moveToCurrentRow();
+  }
+
+  @Override
+  public Statement getStatement() throws SQLException {
+    return delegate.getStatement();
+  }
+
+  @Override
+  public Object getObject(int columnIndex, Map<String, Class<?>> map) throws SQLException {
+    return delegate.getObject(columnIndex, map);
+  }
+
+  @Override
+  public Ref getRef(int columnIndex) throws SQLException {
+    return delegate.getRef(columnIndex);
+  }
+
+  @Override
+  public Blob getBlob(int columnIndex) throws SQLException {
+    return delegate.getBlob(columnIndex);
+  }
+
+  @Override
+  public Clob getClob(int columnIndex) throws SQLException {
+    return delegate.getClob(columnIndex);
+  }
+
+  @Override
+  public Array getArray(int columnIndex) throws SQLException {
+    return delegate.getArray(columnIndex);
+  }
+
+  @Override
+  public Object getObject(String columnLabel, Map<String, Class<?>> map) throws SQLException {
+    return delegate.getObject(findColumn(columnLabel), map);
+  }
+
+  @Override
+  public Ref getRef(String columnLabel) throws SQLException {
+    return delegate.getRef(findColumn(columnLabel));
+  }
+
+  @Override
+  public Blob getBlob(String columnLabel) throws SQLException {
+    return delegate.getBlob(findColumn(columnLabel));
+  }
+
+  @Override
+  public Clob getClob(String columnLabel) throws SQLException {
+    return delegate.getClob(findColumn(columnLabel));
+  }
+
+  @Override
+  public Array getArray(String columnLabel) throws SQLException {
+    return delegate.getArray(findColumn(columnLabel));
+  }
+
+  @Override
+  public Date getDate(int columnIndex, Calendar cal) throws SQLException {
+    return delegate.getDate(columnIndex, cal);
+  }
+
+  @Override
+  public Date getDate(String columnLabel, Calendar cal) throws SQLException {
+    return delegate.getDate(findColumn(columnLabel), cal);
+  }
+
+  @Override
+  public Time getTime(int columnIndex, Calendar cal) throws SQLException {
+    return delegate.getTime(columnIndex, cal);
+  }
+
+  @Override
+  public Time getTime(String columnLabel, Calendar cal) throws SQLException {
+    return delegate.getTime(findColumn(columnLabel), cal);
+  }
+
+  @Override
+  public Timestamp getTimestamp(int columnIndex, Calendar cal) throws SQLException {
+    return delegate.getTimestamp(columnIndex, cal);
+  }
+
+  @Override
+  public Timestamp getTimestamp(String columnLabel, Calendar cal) throws SQLException {
+    return delegate.getTimestamp(findColumn(columnLabel), cal);
+  }
+
+  @Override
+  public URL getURL(int columnIndex) throws SQLException {
+    return delegate.getURL(columnIndex);
+  }
+
+  @Override
+  public URL getURL(String columnLabel) throws SQLException {
+    return delegate.getURL(findColumn(columnLabel));
+  }
+
+  @Override
+  public void updateRef(int columnIndex, Ref x) throws SQLException {
+    delegate.updateRef(columnIndex, x);
+  }
+
+  @Override
+  public void updateRef(String columnLabel, Ref x) throws SQLException {
+    delegate.updateRef(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateBlob(int columnIndex, Blob x) throws SQLException {
+    delegate.updateBlob(columnIndex, x);
+  }
+
+  @Override
+  public void updateBlob(String columnLabel, Blob x) throws SQLException {
+    delegate.updateBlob(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateClob(int columnIndex, Clob x) throws SQLException {
+    delegate.updateClob(columnIndex, x);
+  }
+
+  @Override
+  public void updateClob(String columnLabel, Clob x) throws SQLException {
+    delegate.updateClob(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateArray(int columnIndex, Array x) throws SQLException {
+    delegate.updateArray(columnIndex, x);
+  }
+
+  @Override
+  public void updateArray(String columnLabel, Array x) throws SQLException {
+    delegate.updateArray(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public RowId getRowId(int columnIndex) throws SQLException {
+    return delegate.getRowId(columnIndex);
+  }
+
+  @Override
+  public RowId getRowId(String columnLabel) throws SQLException {
+    return delegate.getRowId(findColumn(columnLabel));
+  }
+
+  @Override
+  public void updateRowId(int columnIndex, RowId x) throws SQLException {
+    delegate.updateRowId(columnIndex, x);
+  }
+
+  @Override
+  public void updateRowId(String columnLabel, RowId x) throws SQLException {
+    delegate.updateRowId(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public int getHoldability() throws SQLException {
+    return delegate.getHoldability();
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return delegate.isClosed();
+  }
+
+  @Override
+  public void updateNString(int columnIndex, String x) throws SQLException {
+    delegate.updateNString(columnIndex, x);
+  }
+
+  @Override
+  public void updateNString(String columnLabel, String x) throws SQLException {
+    delegate.updateNString(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateNClob(int columnIndex, NClob x) throws SQLException {
+    delegate.updateNClob(columnIndex, x);
+  }
+
+  @Override
+  public void updateNClob(String columnLabel, NClob x) throws SQLException {
+    delegate.updateNClob(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public NClob getNClob(int columnIndex) throws SQLException {
+    return delegate.getNClob(columnIndex);
+  }
+
+  @Override
+  public NClob getNClob(String columnLabel) throws SQLException {
+    return delegate.getNClob(findColumn(columnLabel));
+  }
+
+  @Override
+  public SQLXML getSQLXML(int columnIndex) throws SQLException {
+    return delegate.getSQLXML(columnIndex);
+  }
+
+  @Override
+  public SQLXML getSQLXML(String columnLabel) throws SQLException {
+    return delegate.getSQLXML(findColumn(columnLabel));
+  }
+
+  @Override
+  public void updateSQLXML(int columnIndex, SQLXML x) throws SQLException {
+    delegate.updateSQLXML(columnIndex, x);
+  }
+
+  @Override
+  public void updateSQLXML(String columnLabel, SQLXML x) throws SQLException {
+    delegate.updateSQLXML(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public String getNString(int columnIndex) throws SQLException {
+    return delegate.getNString(columnIndex);
+  }
+
+  @Override
+  public String getNString(String columnLabel) throws SQLException {
+    return delegate.getNString(findColumn(columnLabel));
+  }
+
+  @Override
+  public Reader getNCharacterStream(int columnIndex) throws SQLException {
+    return delegate.getNCharacterStream(columnIndex);
+  }
+
+  @Override
+  public Reader getNCharacterStream(String columnLabel) throws SQLException {
+    return delegate.getNCharacterStream(findColumn(columnLabel));
+  }
+
+  @Override
+  public void updateNCharacterStream(int columnIndex, Reader x, long length) throws SQLException {
+    delegate.updateNCharacterStream(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateNCharacterStream(String columnLabel, Reader x, long length) throws SQLException {
+    delegate.updateNCharacterStream(findColumn(columnLabel), x, length);
+  }
+
+  @Override
+  public void updateAsciiStream(int columnIndex, InputStream x, long length) throws SQLException {
+    delegate.updateAsciiStream(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateBinaryStream(int columnIndex, InputStream x, long length) throws SQLException {
+    delegate.updateBinaryStream(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateCharacterStream(int columnIndex, Reader x, long length) throws SQLException {
+    delegate.updateCharacterStream(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateAsciiStream(String columnLabel, InputStream x, long length) throws SQLException {
+    delegate.updateAsciiStream(findColumn(columnLabel), x, length);
+  }
+
+  @Override
+  public void updateBinaryStream(String columnLabel, InputStream x, long length) throws SQLException {
+    delegate.updateBinaryStream(findColumn(columnLabel), x, length);
+  }
+
+  @Override
+  public void updateCharacterStream(String columnLabel, Reader x, long length) throws SQLException {
+    delegate.updateCharacterStream(findColumn(columnLabel), x, length);
+  }
+
+  @Override
+  public void updateBlob(int columnIndex, InputStream x, long length) throws SQLException {
+    delegate.updateBlob(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateBlob(String columnLabel, InputStream x, long length) throws SQLException {
+    delegate.updateBlob(findColumn(columnLabel), x, length);
+  }
+
+  @Override
+  public void updateClob(int columnIndex, Reader x, long length) throws SQLException {
+    delegate.updateClob(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateClob(String columnLabel, Reader x, long length) throws SQLException {
+    delegate.updateClob(findColumn(columnLabel), x, length);
+  }
+
+  @Override
+  public void updateNClob(int columnIndex, Reader x, long length) throws SQLException {
+    delegate.updateNClob(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateNClob(String columnLabel, Reader x, long length) throws SQLException {
+    delegate.updateNClob(findColumn(columnLabel), x, length);
+  }
+
+  @Override
+  public void updateNCharacterStream(int columnIndex, Reader x) throws SQLException {
+    delegate.updateNCharacterStream(columnIndex, x);
+  }
+
+  @Override
+  public void updateNCharacterStream(String columnLabel, Reader x) throws SQLException {
+    delegate.updateNCharacterStream(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateAsciiStream(int columnIndex, InputStream x) throws SQLException {
+    delegate.updateAsciiStream(columnIndex, x);
+  }
+
+  @Override
+  public void updateBinaryStream(int columnIndex, InputStream x) throws SQLException {
+    delegate.updateBinaryStream(columnIndex, x);
+  }
+
+  @Override
+  public void updateCharacterStream(int columnIndex, Reader x) throws SQLException {
+    delegate.updateCharacterStream(columnIndex, x);
+  }
+
+  @Override
+  public void updateAsciiStream(String columnLabel, InputStream x) throws SQLException {
+    delegate.updateAsciiStream(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateBinaryStream(String columnLabel, InputStream x) throws SQLException {
+    delegate.updateBinaryStream(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateCharacterStream(String columnLabel, Reader x) throws SQLException {
+    delegate.updateCharacterStream(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateBlob(int columnIndex, InputStream x) throws SQLException {
+    delegate.updateBlob(columnIndex, x);
+  }
+
+  @Override
+  public void updateBlob(String columnLabel, InputStream x) throws SQLException {
+    delegate.updateBlob(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateClob(int columnIndex, Reader x) throws SQLException {
+    delegate.updateClob(columnIndex, x);
+  }
+
+  @Override
+  public void updateClob(String columnLabel, Reader x) throws SQLException {
+    delegate.updateClob(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public void updateNClob(int columnIndex, Reader x) throws SQLException {
+    delegate.updateNClob(columnIndex, x);
+  }
+
+  @Override
+  public void updateNClob(String columnLabel, Reader x) throws SQLException {
+    delegate.updateNClob(findColumn(columnLabel), x);
+  }
+
+  @Override
+  public <T> T getObject(int columnIndex, Class<T> type) throws SQLException {
+    return delegate.getObject(columnIndex, type);
+  }
+
+  @Override
+  public <T> T getObject(String columnLabel, Class<T> type) throws SQLException {
+    return delegate.getObject(findColumn(columnLabel), type);
+  }
+
+  @Override
+  public void updateObject(int columnIndex, Object x, SQLType targetSqlType, int scaleOrLength) throws SQLException {
+    delegate.updateObject(columnIndex, x, targetSqlType, scaleOrLength);
+  }
+
+  @Override
+  public void updateObject(String columnLabel, Object x, SQLType targetSqlType, int scaleOrLength) throws SQLException {
+    delegate.updateObject(findColumn(columnLabel), x, targetSqlType, scaleOrLength);
+  }
+
+  @Override
+  public void updateObject(int columnIndex, Object x, SQLType targetSqlType) throws SQLException {
+    delegate.updateObject(columnIndex, x, targetSqlType);
+  }
+
+  @Override
+  public void updateObject(String columnLabel, Object x, SQLType targetSqlType) throws SQLException {
+    delegate.updateObject(findColumn(columnLabel), x, targetSqlType);
+  }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of durations in the style of HdrHistogram, with buckets spaced
+ * logarithmically by powers of two, each divided into 16 linear sub-buckets, so percentiles
+ * are accurate to within about 6% from nanoseconds up to several hours (longer durations are
+ * counted in the highest bucket). Recording is lock-free and allocation-free, so it is safe to
+ * record from many threads, though a snapshot taken while recording may not be consistent.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 44;
+  private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts;
+  private final AtomicLong count;
+  private final AtomicLong sum;
+  private final AtomicLong max;
+
+  public LatencyHistogram() {
+    counts = new AtomicLongArray(BUCKETS);
+    count = new AtomicLong();
+    sum = new AtomicLong();
+    max = new AtomicLong();
+  }
+
+  /** Record a duration in nanoseconds, where negative values are treated as zero. */
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(index(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    max.accumulateAndGet(value, Math::max);
+  }
+
+  static int index(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int)value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    if (exponent > MAX_EXPONENT) {
+      return BUCKETS - 1;
+    }
+    int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /** The highest value counted in the bucket. */
+  static long upperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long subBucket = index % SUB_BUCKETS;
+    long lower = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+
+  /** The number of durations recorded. */
+  public long count() {
+    return count.get();
+  }
+
+  /** The longest duration recorded, in nanoseconds. */
+  public long max() {
+    return max.get();
+  }
+
+  /** The mean duration, in nanoseconds. */
+  public double mean() {
+    long n = count.get();
+    return n == 0 ? 0 : (double)sum.get() / n;
+  }
+
+  /**
+   * The duration, in nanoseconds, at or below which the specified percentage of the
+   * durations fall, which is the upper bound of its bucket, and no more than the maximum.
+   */
+  public long percentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+    }
+    long total = count.get();
+    if (total == 0) {
+      return 0;
+    }
+
+    long target = Math.max(1, (long)Math.ceil(total * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return Math.min(upperBound(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  @Override
+  public String toString() {
+    return "LatencyHistogram(count=" + count() +
+          ", mean=" + micros((long)mean()) + "us" +
+          ", p50=" + micros(percentile(50)) + "us" +
+          ", p99=" + micros(percentile(99)) + "us" +
+          ", max=" + micros(max()) + "us)";
+  }
+
+  private static long micros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+}
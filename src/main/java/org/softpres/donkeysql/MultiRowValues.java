@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Inserts rows a group at a time with a single INSERT of several rows of VALUES, which the
+ * database parses once for the group, rather than once per row as with JDBC batching.
+ * The values of the current group are buffered, so that the last, partial group can be
+ * bound to a statement of its own.
+ */
+class MultiRowValues implements BulkWriter {
+
+  private final int rowsPerStatement;
+  private final QueryOptions options;
+
+  /** @param options applied to each statement, such as the query timeout. */
+  MultiRowValues(int rowsPerStatement, QueryOptions options) {
+    if (rowsPerStatement < 1) {
+      throw new IllegalArgumentException("Rows per statement must be positive: " + rowsPerStatement);
+    }
+    this.rowsPerStatement = rowsPerStatement;
+    this.options = options;
+  }
+
+  @Override
+  public <T> long write(Connection connection, String table, List<String> columns, Iterator<T> items,
+                        ColumnBinder<? super T> binder) throws SQLException {
+
+    int width = columns.size();
+    Object[] row = new Object[width];
+    Object[] group = new Object[rowsPerStatement * width];
+    int rows = 0;
+    long written = 0;
+
+    try (Statements statements = new Statements(connection, table, columns, options)) {
+      while (items.hasNext()) {
+        Arrays.fill(row, null);
+        binder.bind(items.next(), row);
+        System.arraycopy(row, 0, group, rows * width, width);
+        if (++rows == rowsPerStatement) {
+          written += insert(statements.full(rowsPerStatement), group, rows * width);
+          rows = 0;
+        }
+      }
+      if (rows > 0) {
+        written += insert(statements.partial(rows), group, rows * width);
+      }
+    }
+    return written;
+  }
+
+  private static int insert(PreparedStatement statement, Object[] values, int count) throws SQLException {
+    for (int i = 0; i < count; i++) {
+      statement.setObject(i + 1, values[i]);
+    }
+    return statement.executeUpdate();
+  }
+
+  static String sql(String table, List<String> columns, int rows) {
+    StringBuilder row = new StringBuilder("(");
+    for (int i = 0; i < columns.size(); i++) {
+      row.append(i == 0 ? "?" : ", ?");
+    }
+    row.append(')');
+
+    StringBuilder sql = new StringBuilder("INSERT INTO ").append(table)
+          .append(" (").append(String.join(", ", columns)).append(") VALUES ");
+    for (int i = 0; i < rows; i++) {
+      sql.append(i == 0 ? "" : ", ").append(row);
+    }
+    return sql.toString();
+  }
+
+  /** The statement for full groups, prepared on first use, and for the final partial group. */
+  private static class Statements implements QueryResource {
+    private final Connection connection;
+    private final String table;
+    private final List<String> columns;
+    private final QueryOptions options;
+    private PreparedStatement full;
+    private PreparedStatement partial;
+
+    Statements(Connection connection, String table, List<String> columns, QueryOptions options) {
+      this.connection = connection;
+      this.table = table;
+      this.columns = columns;
+      this.options = options;
+    }
+
+    PreparedStatement full(int rows) throws SQLException {
+      if (full == null) {
+        full = options.prepare(connection, sql(table, columns, rows));
+      }
+      return full;
+    }
+
+    PreparedStatement partial(int rows) throws SQLException {
+      partial = options.prepare(connection, sql(table, columns, rows));
+      return partial;
+    }
+
+    @Override
+    public void close() throws SQLException {
+      try (PreparedStatement f = full; PreparedStatement p = partial) {
+        // Used to close resources
+      }
+    }
+  }
+
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A query executed once for each of a number of parameter sets (partitions), such as
+ * key ranges, where each partition is executed on its own connection with a bounded
+ * number running concurrently. The rows from all partitions are merged into a single
+ * {@link Stream}, which when ordered splits by partition for parallel processing.
+ * <p/>
+ * When created from an explicit {@link java.sql.Connection}, the partitions are executed
+ * one at a time, as a connection cannot safely be shared between threads.
+ * <p/>
+ * As with {@link StagedQuery#execute()}, if the Stream is not consumed entirely, it should
+ * be closed to release the underlying resources.
+ */
+public class PartitionedQuery<T> {
+
+  static final int DEFAULT_BUFFER_SIZE = 1024;
+
+  private final List<StagedQuery<T>> partitions;
+  private final boolean concurrent;
+  private int parallelism;
+  private boolean ordered;
+  private int bufferSize;
+  private Executor executor;
+
+  PartitionedQuery(List<StagedQuery<T>> partitions, boolean concurrent, Executor executor) {
+    this.partitions = partitions;
+    this.concurrent = concurrent;
+    this.executor = executor;
+    parallelism = Runtime.getRuntime().availableProcessors();
+    ordered = true;
+    bufferSize = DEFAULT_BUFFER_SIZE;
+  }
+
+  /** The maximum number of partitions (and therefore connections) to execute at once. */
+  public PartitionedQuery<T> parallelism(int partitions) {
+    if (partitions < 1) {
+      throw new IllegalArgumentException("Parallelism must be positive: " + partitions);
+    }
+    parallelism = partitions;
+    return this;
+  }
+
+  /**
+   * Whether rows should be returned in partition order (the default), or as soon as they
+   * are available from any partition. Rows from within a partition are always in order.
+   */
+  public PartitionedQuery<T> ordered(boolean ordered) {
+    this.ordered = ordered;
+    return this;
+  }
+
+  /** The number of rows to buffer for each partition before waiting for them to be consumed. */
+  public PartitionedQuery<T> bufferSize(int rows) {
+    if (rows < 1) {
+      throw new IllegalArgumentException("Buffer size must be positive: " + rows);
+    }
+    bufferSize = rows;
+    return this;
+  }
+
+  /**
+   * The executor used to run the partitions, which by default is that of the {@link DB}.
+   * As each partition blocks until its rows are consumed, this must not be a bounded pool
+   * whose threads may be waiting to consume them.
+   *
+   * @see DB#executor(Executor)
+   */
+  public PartitionedQuery<T> executor(Executor executor) {
+    this.executor = executor;
+    return this;
+  }
+
+  /**
+   * Execute all the partitions, where those up to the configured parallelism start executing
+   * immediately, and the rest as earlier partitions complete.
+   */
+  public Stream<T> execute() {
+    int workers = concurrent ? Math.min(parallelism, partitions.size()) : 1;
+    MergedRows<T> rows = new MergedRows<>(partitions, ordered, bufferSize, workers);
+    rows.start(executor);
+
+    Spliterator<T> spliterator = ordered ? rows.partitions() : Spliterators.spliteratorUnknownSize(rows, 0);
+    return StreamSupport.stream(spliterator, false).onClose(rows::close);
+  }
+
+  /**
+   * Iterator over the rows of all partitions, which are produced by workers taking
+   * each partition in turn and handing the rows over through a {@link RowBuffer}.
+   * When ordered, each partition has its own buffer, so the rows can instead be read
+   * through a {@link Spliterator} that splits by partition.
+   */
+  private static class MergedRows<T> implements Iterator<T>, AutoCloseable {
+    private final List<StagedQuery<T>> partitions;
+    private final List<RowBuffer<T>> buffers;
+    private final AtomicInteger nextPartition;
+    private final AtomicInteger drained;
+    private final CountDownLatch finished;
+    private final int workers;
+    private volatile boolean closed;
+    private int consuming;
+    private int ended;
+    private Boolean hasNext;
+
+    MergedRows(List<StagedQuery<T>> partitions, boolean ordered, int bufferSize, int workers) {
+      this.partitions = partitions;
+      this.workers = workers;
+      nextPartition = new AtomicInteger();
+      drained = new AtomicInteger();
+      finished = new CountDownLatch(workers);
+
+      int count = ordered ? partitions.size() : Math.min(1, partitions.size());
+      buffers = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        buffers.add(new RowBuffer<>(bufferSize, () -> closed));
+      }
+    }
+
+    void start(Executor executor) {
+      for (int i = 0; i < workers; i++) {
+        try {
+          executor.execute(this::work);
+        } catch (RuntimeException e) {
+          for (int unstarted = i; unstarted < workers; unstarted++) {
+            finished.countDown();
+          }
+          close();
+          throw e;
+        }
+      }
+    }
+
+    private void work() {
+      try {
+        int index;
+        while (!closed && (index = nextPartition.getAndIncrement()) < partitions.size()) {
+          produce(partitions.get(index), buffer(index));
+        }
+      } finally {
+        finished.countDown();
+      }
+    }
+
+    private void produce(StagedQuery<T> partition, RowBuffer<T> buffer) {
+      try (Stream<T> rows = partition.execute()) {
+        Iterator<T> iterator = rows.iterator();
+        while (!closed && iterator.hasNext()) {
+          buffer.put(iterator.next());
+        }
+      } catch (Throwable e) {
+        buffer.fail(e);
+      }
+      buffer.end();
+    }
+
+    private RowBuffer<T> buffer(int partition) {
+      return buffers.size() == 1 ? buffers.get(0) : buffers.get(partition);
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (hasNext == null) {
+        try {
+          hasNext = advance();
+        } catch (RuntimeException | Error e) {
+          close();
+          throw e;
+        }
+        if (!hasNext) {
+          close();
+        }
+      }
+      return hasNext;
+    }
+
+    /** Move to the next available row, moving through partitions as each ends. */
+    private boolean advance() {
+      while (!closed && ended < partitions.size()) {
+        RowBuffer<T> buffer = buffer(consuming);
+        if (buffer.next()) {
+          return true;
+        }
+        ended++;
+        if (buffers.size() > 1) {
+          consuming++;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public T next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      hasNext = null;
+      return buffer(consuming).current();
+    }
+
+    /** Spliterator over all partitions, for when each has its own buffer. */
+    Spliterator<T> partitions() {
+      return new Partitions(0, partitions.size());
+    }
+
+    /** Signal the workers to stop, waiting for them to release their resources. */
+    @Override
+    public void close() {
+      closed = true;
+      try {
+        finished.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  
+    /**
+     * Reads the rows of a range of partitions in order, splitting off the earlier half of
+     * the remaining partitions, each of which is then read by only one spliterator.
+     */
+    private class Partitions implements Spliterator<T> {
+      private final int end;
+      private int partition;
+
+      Partitions(int partition, int end) {
+        this.partition = partition;
+        this.end = end;
+      }
+
+      @Override
+      public boolean tryAdvance(Consumer<? super T> action) {
+        RowBuffer<T> buffer;
+        try {
+          buffer = advance();
+        } catch (RuntimeException | Error e) {
+          MergedRows.this.close();
+          throw e;
+        }
+        if (buffer == null) {
+          return false;
+        }
+        action.accept(buffer.current());
+        return true;
+      }
+
+      /** Move to the buffer holding the next row, or null once the range is exhausted. */
+      private RowBuffer<T> advance() {
+        while (!closed && partition < end) {
+          RowBuffer<T> buffer = buffers.get(partition);
+          if (buffer.next()) {
+            return buffer;
+          }
+          partition++;
+          if (drained.incrementAndGet() == partitions.size()) {
+            MergedRows.this.close();
+          }
+        }
+        return null;
+      }
+
+      @Override
+      public Spliterator<T> trySplit() {
+        int remaining = end - partition;
+        if (remaining < 2) {
+          return null;
+        }
+        int split = partition + remaining / 2;
+        Partitions prefix = new Partitions(partition, split);
+        partition = split;
+        return prefix;
+      }
+
+      @Override
+      public long estimateSize() {
+        return Long.MAX_VALUE;
+      }
+
+      @Override
+      public int characteristics() {
+        return ORDERED;
+      }
+    }
+  }
+
+}
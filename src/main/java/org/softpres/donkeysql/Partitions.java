@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Factory methods for the parameter sets used to partition a query.
+ *
+ * @see DB.QueryBuilder#partitions(Iterable)
+ */
+public class Partitions {
+
+  private Partitions() { }
+
+  /**
+   * Split the inclusive key range into the specified number of contiguous ranges (or fewer
+   * should the range be smaller), each of which specifies the named low and high parameters,
+   * for use with a clause such as {@code id BETWEEN :lo AND :hi}.
+   */
+  public static List<Map<String, Object>> range(String low, String high, long min, long max, int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException("Partition count must be positive: " + count);
+    }
+    if (max < min) {
+      throw new IllegalArgumentException("Range is empty: " + min + " to " + max);
+    }
+
+    long span = max - min + 1;
+    long size = Math.max(1, span / count + (span % count == 0 ? 0 : 1));
+    List<Map<String, Object>> partitions = new ArrayList<>(count);
+
+    for (long start = min; start <= max && start >= min; start += size) {
+      long end = Math.min(max, start + size - 1);
+      Map<String, Object> params = new HashMap<>();
+      params.put(low, start);
+      params.put(high, end);
+      partitions.add(params);
+    }
+    return partitions;
+  }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Rows of a query read and mapped ahead of the consumer by a producer on another thread,
+ * which hands them over through a {@link RowBuffer}, waiting while it is full. The producer
+ * closes the underlying {@link ResultSetIterator}, and therefore its resources, once the rows
+ * are exhausted, the query fails, or the consumer closes these rows.
+ * This class is not thread safe.
+ *
+ * @see QueryOptions#prefetchRows(int)
+ */
+class PrefetchedRows<T> implements Iterator<T>, AutoCloseable {
+
+  private final ResultSetIterator<T> rows;
+  private final RowBuffer<T> buffer;
+  private final CountDownLatch finished;
+  private volatile boolean closed;
+  private Boolean hasNext;
+
+  PrefetchedRows(ResultSetIterator<T> rows, int bufferSize) {
+    this.rows = rows;
+    buffer = new RowBuffer<>(bufferSize, () -> closed);
+    finished = new CountDownLatch(1);
+  }
+
+  PrefetchedRows<T> start(Executor executor) {
+    try {
+      executor.execute(this::produce);
+    } catch (RuntimeException e) {
+      finished.countDown();
+      close();
+      rows.stream().close();
+      throw e;
+    }
+    return this;
+  }
+
+  private void produce() {
+    try (Stream<T> closing = rows.stream()) {
+      while (!closed && rows.hasNext()) {
+        buffer.put(rows.next());
+      }
+    } catch (Throwable e) {
+      buffer.fail(e);
+    } finally {
+      buffer.end();
+      finished.countDown();
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (hasNext == null) {
+      try {
+        hasNext = !closed && buffer.next();
+      } catch (RuntimeException | Error e) {
+        close();
+        throw e;
+      }
+      if (!hasNext) {
+        close();
+      }
+    }
+    return hasNext;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    hasNext = null;
+    return buffer.current();
+  }
+
+  /** Signal the producer to stop, waiting for it to release the resources. */
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      finished.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  Stream<T> stream() {
+    Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(this, 0);
+    return StreamSupport.stream(spliterator, false).onClose(this::close);
+  }
+
+}
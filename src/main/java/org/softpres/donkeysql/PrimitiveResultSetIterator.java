@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterators over the results of a query mapped to primitive values, which unlike
+ * {@link ResultSetIterator} do not box each value. The resources are closed once all
+ * the rows have been read, or on failure.
+ * This class is not thread safe.
+ */
+abstract class PrimitiveResultSetIterator implements AutoCloseable {
+
+  private static final int CHARACTERISTICS = Spliterator.ORDERED | Spliterator.NONNULL;
+
+  private final ResultSet resultSet;
+  final ResultSet row;
+  private QueryResource onClose;
+  private boolean found;
+  private boolean finished;
+
+  PrimitiveResultSetIterator(ResultSet resultSet) {
+    this.resultSet = resultSet;
+    row = resultSet instanceof LabelCachingResultSet ? resultSet : new LabelCachingResultSet(resultSet);
+    onClose = () -> { };
+  }
+
+  void onClose(QueryResource onClose) {
+    this.onClose = onClose;
+  }
+
+  public boolean hasNext() {
+    try {
+      if (!found && !finished) {
+        found = resultSet.next();
+        if (!found) {
+          close();
+        }
+      }
+      return found;
+    } catch (SQLException e) {
+      throw failed(new UncheckedSQLException(e));
+    } catch (RuntimeException e) {
+      throw failed(e);
+    }
+  }
+
+  /** Move to the next row, failing if there is none. */
+  void advance() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    found = false;
+  }
+
+  RuntimeException failed(RuntimeException e) {
+    QueryTrace.failed(resultSet, e);
+    closeQuietly();
+    return e;
+  }
+
+  void closeQuietly() {
+    try {
+      close();
+    } catch (Exception ignore) {
+    }
+  }
+
+  @Override
+  public void close() throws SQLException {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    found = false;
+
+    try (ResultSet rs = resultSet; QueryResource other = onClose) {
+      // Used to close resources
+    }
+  }
+
+  static class OfInt extends PrimitiveResultSetIterator implements PrimitiveIterator.OfInt {
+    private final IntRowMapper mapper;
+
+    OfInt(ResultSet resultSet, IntRowMapper mapper) {
+      super(resultSet);
+      this.mapper = mapper;
+    }
+
+    @Override
+    public int nextInt() {
+      advance();
+      try {
+        return mapper.apply(row);
+      } catch (SQLException e) {
+        throw failed(new UncheckedSQLException(e));
+      } catch (RuntimeException e) {
+        throw failed(e);
+      }
+    }
+
+    IntStream stream() {
+      Spliterator.OfInt spliterator = Spliterators.spliteratorUnknownSize(this, CHARACTERISTICS);
+      return StreamSupport.intStream(spliterator, false).onClose(this::closeQuietly);
+    }
+  }
+
+  static class OfLong extends PrimitiveResultSetIterator implements PrimitiveIterator.OfLong {
+    private final LongRowMapper mapper;
+
+    OfLong(ResultSet resultSet, LongRowMapper mapper) {
+      super(resultSet);
+      this.mapper = mapper;
+    }
+
+    @Override
+    public long nextLong() {
+      advance();
+      try {
+        return mapper.apply(row);
+      } catch (SQLException e) {
+        throw failed(new UncheckedSQLException(e));
+      } catch (RuntimeException e) {
+        throw failed(e);
+      }
+    }
+
+    LongStream stream() {
+      Spliterator.OfLong spliterator = Spliterators.spliteratorUnknownSize(this, CHARACTERISTICS);
+      return StreamSupport.longStream(spliterator, false).onClose(this::closeQuietly);
+    }
+  }
+
+  static class OfDouble extends PrimitiveResultSetIterator implements PrimitiveIterator.OfDouble {
+    private final DoubleRowMapper mapper;
+
+    OfDouble(ResultSet resultSet, DoubleRowMapper mapper) {
+      super(resultSet);
+      this.mapper = mapper;
+    }
+
+    @Override
+    public double nextDouble() {
+      advance();
+      try {
+        return mapper.apply(row);
+      } catch (SQLException e) {
+        throw failed(new UncheckedSQLException(e));
+      } catch (RuntimeException e) {
+        throw failed(e);
+      }
+    }
+
+    DoubleStream stream() {
+      Spliterator.OfDouble spliterator = Spliterators.spliteratorUnknownSize(this, CHARACTERISTICS);
+      return StreamSupport.doubleStream(spliterator, false).onClose(this::closeQuietly);
+    }
+  }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The timings of a single execution of a query, broken down by {@link Phase}, along with the
+ * number of rows read and why the query ended.
+ *
+ * @see QueryListener
+ */
+public final class QueryEvent {
+
+  /** The phases of a query, in the order they happen. */
+  public enum Phase {
+    /** Obtaining the connection, such as from a pool. */
+    CONNECTION,
+    /** Preparing the statement, or taking it from the statement cache. */
+    PREPARE,
+    /** Binding the parameters and executing the statement. */
+    EXECUTE,
+    /** From execution until the first row was read (or the result found to be empty). */
+    FIRST_ROW,
+    /** From the first row until the query ended, including the time spent by the caller. */
+    ITERATION
+  }
+
+  /** Why the query ended. */
+  public enum CloseReason {
+    /** All the rows were read. */
+    EXHAUSTED,
+    /** The results were closed before all the rows were read. */
+    CLOSED,
+    /** The query, or reading or mapping a row, failed. */
+    FAILED
+  }
+
+  private final String sql;
+  private final long[] phaseNanos;
+  private final long totalNanos;
+  private final long rows;
+  private final CloseReason closeReason;
+  private final Throwable failure;
+
+  QueryEvent(String sql, long[] phaseNanos, long totalNanos, long rows, CloseReason closeReason, Throwable failure) {
+    this.sql = sql;
+    this.phaseNanos = phaseNanos;
+    this.totalNanos = totalNanos;
+    this.rows = rows;
+    this.closeReason = closeReason;
+    this.failure = failure;
+  }
+
+  /** The SQL as written, before any iterable parameters were expanded. */
+  public String sql() {
+    return sql;
+  }
+
+  /** The time spent in the phase, which is zero for phases that were not reached. */
+  public long nanos(Phase phase) {
+    return phaseNanos[phase.ordinal()];
+  }
+
+  /** The time from requesting the connection until the resources were closed. */
+  public long totalNanos() {
+    return totalNanos;
+  }
+
+  /** The number of rows read. */
+  public long rows() {
+    return rows;
+  }
+
+  public CloseReason closeReason() {
+    return closeReason;
+  }
+
+  /** The cause of a {@link CloseReason#FAILED} query, otherwise null. */
+  public Throwable failure() {
+    return failure;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("QueryEvent(sql=").append(sql);
+    for (Phase phase : Phase.values()) {
+      builder.append(", ").append(phase).append('=').append(micros(nanos(phase))).append("us");
+    }
+    return builder
+          .append(", total=").append(micros(totalNanos)).append("us")
+          .append(", rows=").append(rows)
+          .append(", closeReason=").append(closeReason)
+          .append(')')
+          .toString();
+  }
+
+  private static long micros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+}
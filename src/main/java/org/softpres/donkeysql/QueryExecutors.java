@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Default executors for running queries away from the calling thread. As JDBC calls block,
+ * these should not be run on a pool shared with CPU-bound work, such as the common
+ * fork-join pool.
+ */
+class QueryExecutors {
+
+  private static final ExecutorService BLOCKING = Executors.newCachedThreadPool(new DaemonThreads());
+  private static final int BOUNDED_THREADS = Math.max(16, Runtime.getRuntime().availableProcessors() * 8);
+
+  private QueryExecutors() { }
+
+  /** An unbounded pool of daemon threads, which are reused when idle. */
+  static ExecutorService blocking() {
+    return BLOCKING;
+  }
+
+  /**
+   * An executor starting a virtual thread per task where the runtime supports them (Java 21+),
+   * which is looked up reflectively to remain compatible with Java 8. Otherwise a bounded pool
+   * of daemon threads is used, so that high fan-out cannot exhaust platform threads.
+   *
+   * @see #producers(Executor)
+   */
+  static ExecutorService virtualThreads() {
+    return VirtualThreads.EXECUTOR;
+  }
+
+  /** Lazily created, to avoid starting an executor that is not used. */
+  private static class VirtualThreads {
+    private static final ExecutorService EXECUTOR = create();
+
+    private static ExecutorService create() {
+      try {
+        Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        return (ExecutorService)factory.invoke(null);
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        return bounded(BOUNDED_THREADS);
+      }
+    }
+  }
+
+  static ExecutorService bounded(int threads) {
+    return new BoundedPool(threads);
+  }
+
+  /**
+   * The executor for producers that block until their rows are consumed, such as partitions
+   * and prefetching, which is the supplied executor unless it is a bounded pool from here.
+   * Queued behind the threads of a bounded pool that are waiting to consume their rows, such
+   * producers would never run, so the unbounded pool is used for them instead.
+   */
+  static Executor producers(Executor executor) {
+    return executor instanceof BoundedPool ? BLOCKING : executor;
+  }
+
+  /** Fixed number of threads, with tasks queued while they are all busy. */
+  private static class BoundedPool extends ThreadPoolExecutor {
+    BoundedPool(int threads) {
+      super(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new DaemonThreads());
+      allowCoreThreadTimeOut(true);
+    }
+  }
+
+  private static class DaemonThreads implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "donkeysql-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+}
@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+/**
+ * Receives the timings of each query executed from a {@link DB}, such as to record metrics
+ * or log slow queries. The event is delivered once the resources of the query have been
+ * closed, on the thread closing them, so implementations should be quick and thread safe.
+ * Any exception thrown by the listener is ignored, so that it cannot affect the query.
+ *
+ * @see DB#listener(QueryListener)
+ * @see QueryMetrics
+ */
+@FunctionalInterface
+public interface QueryListener {
+
+  void queryEnded(QueryEvent event);
+
+}
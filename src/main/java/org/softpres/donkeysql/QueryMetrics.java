@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.softpres.donkeysql.QueryEvent.CloseReason;
+import org.softpres.donkeysql.QueryEvent.Phase;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * A {@link QueryListener} keeping latency histograms in memory for each SQL template, such
+ * that slow queries can be found without a profiler. Templates are the SQL as written, so
+ * executions with different parameter values are combined.
+ * <pre>
+ *   QueryMetrics metrics = new QueryMetrics();
+ *   DB db = DB.with(dataSource).listener(metrics);
+ *   ...
+ *   metrics.slowest(10, 99).forEach(System.out::println);
+ * </pre>
+ */
+public class QueryMetrics implements QueryListener {
+
+  private final Map<String, TemplateMetrics> templates;
+
+  public QueryMetrics() {
+    templates = new ConcurrentHashMap<>();
+  }
+
+  @Override
+  public void queryEnded(QueryEvent event) {
+    templates.computeIfAbsent(event.sql(), TemplateMetrics::new).record(event);
+  }
+
+  /** The metrics of each template executed so far, keyed by the SQL. */
+  public Map<String, TemplateMetrics> templates() {
+    return Collections.unmodifiableMap(templates);
+  }
+
+  /** The metrics of the template, or null if it has not been executed. */
+  public TemplateMetrics template(String sql) {
+    return templates.get(sql);
+  }
+
+  /**
+   * The templates with the longest total duration at the specified percentile, such as 99,
+   * slowest first.
+   */
+  public List<TemplateMetrics> slowest(int limit, double percentile) {
+    return templates.values().stream()
+          .sorted(Comparator.comparingLong((TemplateMetrics t) -> t.total().percentile(percentile)).reversed())
+          .limit(limit)
+          .collect(toList());
+  }
+
+  /** Discard all the metrics recorded so far. */
+  public void reset() {
+    templates.clear();
+  }
+
+  /** The timings of all the executions of a single SQL template. */
+  public static final class TemplateMetrics {
+    private final String sql;
+    private final LatencyHistogram total;
+    private final LatencyHistogram[] phases;
+    private final AtomicLong rows;
+    private final AtomicLongArray closeReasons;
+
+    TemplateMetrics(String sql) {
+      this.sql = sql;
+      total = new LatencyHistogram();
+      phases = new LatencyHistogram[Phase.values().length];
+      for (int i = 0; i < phases.length; i++) {
+        phases[i] = new LatencyHistogram();
+      }
+      rows = new AtomicLong();
+      closeReasons = new AtomicLongArray(CloseReason.values().length);
+    }
+
+    void record(QueryEvent event) {
+      total.record(event.totalNanos());
+      for (Phase phase : Phase.values()) {
+        phases[phase.ordinal()].record(event.nanos(phase));
+      }
+      rows.addAndGet(event.rows());
+      closeReasons.incrementAndGet(event.closeReason().ordinal());
+    }
+
+    public String sql() {
+      return sql;
+    }
+
+    /** The number of executions. */
+    public long count() {
+      return total.count();
+    }
+
+    /** The durations of whole executions, from requesting the connection until closed. */
+    public LatencyHistogram total() {
+      return total;
+    }
+
+    /** The durations of the phase across all executions. */
+    public LatencyHistogram phase(Phase phase) {
+      return phases[phase.ordinal()];
+    }
+
+    /** The total number of rows read across all executions. */
+    public long rows() {
+      return rows.get();
+    }
+
+    /** The number of executions that ended for the reason. */
+    public long closed(CloseReason reason) {
+      return closeReasons.get(reason.ordinal());
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder("TemplateMetrics(sql=").append(sql)
+            .append(", count=").append(count())
+            .append(", rows=").append(rows())
+            .append(", total=").append(total);
+      for (Phase phase : Phase.values()) {
+        builder.append(", ").append(phase).append('=').append(phase(phase));
+      }
+      for (CloseReason reason : CloseReason.values()) {
+        builder.append(", ").append(reason).append('=').append(closed(reason));
+      }
+      return builder.append(')').toString();
+    }
+  }
+
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.function.Consumer;
+
+/**
+ * Tuning hints applied to the JDBC statement when executing a query, which are
+ * immutable so that they can be shared as defaults between queries.
+ * <p/>
+ * Note that some drivers (e.g. PostgreSQL) will read the entire result into memory before
+ * returning the first row unless a fetch size is specified, so this should be set when
+ * streaming large results.
+ */
+public final class QueryOptions {
+
+  private static final QueryOptions DEFAULTS = new QueryOptions(new Builder());
+
+  private final int fetchSize;
+  private final int maxRows;
+  private final Duration queryTimeout;
+  private final boolean forwardOnly;
+  private final boolean readOnly;
+  private final int chunkSize;
+  private final int chunkParallelism;
+  private final int prefetchRows;
+
+  private QueryOptions(Builder builder) {
+    fetchSize = builder.fetchSize;
+    maxRows = builder.maxRows;
+    queryTimeout = builder.queryTimeout;
+    forwardOnly = builder.forwardOnly;
+    readOnly = builder.readOnly;
+    chunkSize = builder.chunkSize;
+    chunkParallelism = builder.chunkParallelism;
+    prefetchRows = builder.prefetchRows;
+  }
+
+  /** A copy of these options with the supplied change applied. */
+  private QueryOptions with(Consumer<Builder> change) {
+    Builder builder = new Builder(this);
+    change.accept(builder);
+    return new QueryOptions(builder);
+  }
+
+  /** Options where everything is left to the driver defaults. */
+  public static QueryOptions defaults() {
+    return DEFAULTS;
+  }
+
+  /**
+   * The number of rows the driver should fetch from the database at a time,
+   * where zero leaves the choice to the driver.
+   *
+   * @see java.sql.Statement#setFetchSize(int)
+   */
+  public QueryOptions fetchSize(int rows) {
+    if (rows < 0) {
+      throw new IllegalArgumentException("Fetch size cannot be negative: " + rows);
+    }
+    return with(b -> b.fetchSize = rows);
+  }
+
+  /**
+   * The maximum number of rows the query should return, where zero means no limit.
+   *
+   * @see java.sql.Statement#setMaxRows(int)
+   */
+  public QueryOptions maxRows(int rows) {
+    if (rows < 0) {
+      throw new IllegalArgumentException("Max rows cannot be negative: " + rows);
+    }
+    return with(b -> b.maxRows = rows);
+  }
+
+  /**
+   * The time the driver should wait for the query to execute, which is rounded up to
+   * the nearest second, where zero means no limit.
+   *
+   * @see java.sql.Statement#setQueryTimeout(int)
+   */
+  public QueryOptions queryTimeout(Duration timeout) {
+    if (timeout.isNegative()) {
+      throw new IllegalArgumentException("Query timeout cannot be negative: " + timeout);
+    }
+    return with(b -> b.queryTimeout = timeout);
+  }
+
+  /**
+   * Explicitly request a forward-only, read-only result set that is fetched in the forward
+   * direction, allowing drivers to avoid retaining rows that have already been consumed.
+   */
+  public QueryOptions forwardOnly() {
+    return with(b -> b.forwardOnly = true);
+  }
+
+  /**
+   * Hint to the driver that the connection will only be used for reading, which it may use
+   * to enable optimisations. This is only applied to connections obtained from a DataSource,
+   * and restored before the connection is closed, as explicit connections are managed by the
+   * caller.
+   *
+   * @see Connection#setReadOnly(boolean)
+   */
+  public QueryOptions readOnly() {
+    return with(b -> b.readOnly = true);
+  }
+
+  /**
+   * The maximum number of elements of an iterable named parameter to expand into a single
+   * statement, where zero (the default) means no limit. Larger iterables are split into
+   * chunks, with the query executed for each and the rows concatenated, which keeps within
+   * database limits on bind parameters (e.g. 2100 on SQL Server) or IN-list items (1000 on
+   * Oracle). When several parameters exceed the size, every combination of their chunks
+   * is executed.
+   * <p/>
+   * For '@' parameters the chunk size is rounded down to a power of two, so that padding
+   * each chunk never exceeds the limit. As each chunk is a separate query, this is only
+   * correct where the parameter is used with IN in a condition that must hold for every
+   * row, and ordering, limits and aggregation only apply within each chunk.
+   */
+  public QueryOptions chunkSize(int elements) {
+    if (elements < 0) {
+      throw new IllegalArgumentException("Chunk size cannot be negative: " + elements);
+    }
+    return with(b -> b.chunkSize = elements);
+  }
+
+  /**
+   * The number of chunks to execute at once, each on their own connection, where the default
+   * of one executes chunks in turn. Rows are still returned in chunk order.
+   *
+   * @see #chunkSize(int)
+   */
+  public QueryOptions chunkParallelism(int chunks) {
+    if (chunks < 1) {
+      throw new IllegalArgumentException("Chunk parallelism must be positive: " + chunks);
+    }
+    return with(b -> b.chunkParallelism = chunks);
+  }
+
+  /**
+   * The number of rows to read and map ahead of the consumer on the executor of the
+   * {@link DB}, where zero (the default) reads each row only when requested. Reading ahead
+   * overlaps fetching rows from the database and mapping them with the processing of earlier
+   * rows, which helps where both are expensive, at the cost of a thread per query.
+   * Reading is paused while the rows are full, until the consumer catches up. This only
+   * applies to the stream of mapped rows from {@link StagedQuery#execute()}.
+   * <p/>
+   * With an explicit connection, it should not be used for anything else until the rows have
+   * been consumed or the stream closed, as it is read from another thread.
+   */
+  public QueryOptions prefetchRows(int rows) {
+    if (rows < 0) {
+      throw new IllegalArgumentException("Prefetch rows cannot be negative: " + rows);
+    }
+    return with(b -> b.prefetchRows = rows);
+  }
+
+  boolean isForwardOnly() {
+    return forwardOnly;
+  }
+
+  int chunkSize() {
+    return chunkSize;
+  }
+
+  int chunkParallelism() {
+    return chunkParallelism;
+  }
+
+  int prefetchRows() {
+    return prefetchRows;
+  }
+
+  /**
+   * Prepare the connection for use, returning a resource to restore it when done.
+   */
+  QueryResource configure(Connection connection, boolean managedConnection) throws SQLException {
+    if (readOnly && managedConnection && !connection.isReadOnly()) {
+      connection.setReadOnly(true);
+      return () -> connection.setReadOnly(false);
+    }
+    return () -> { };
+  }
+
+  PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+    PreparedStatement statement = forwardOnly ?
+          connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY) :
+          connection.prepareStatement(sql);
+
+    try {
+      apply(statement, false);
+    } catch (SQLException | RuntimeException e) {
+      statement.close();
+      throw e;
+    }
+    return statement;
+  }
+
+  /**
+   * Apply the options to the statement, where reset also applies default values, so that
+   * options of a previous use of a reused statement do not carry over.
+   */
+  void apply(PreparedStatement statement, boolean reset) throws SQLException {
+    if (fetchSize > 0 || reset) {
+      statement.setFetchSize(fetchSize);
+    }
+    if (maxRows > 0 || reset) {
+      statement.setMaxRows(maxRows);
+    }
+    if (!queryTimeout.isZero() || reset) {
+      statement.setQueryTimeout(timeoutSeconds());
+    }
+    if (forwardOnly) {
+      statement.setFetchDirection(ResultSet.FETCH_FORWARD);
+    }
+  }
+
+  private int timeoutSeconds() {
+    long seconds = queryTimeout.getSeconds() + (queryTimeout.getNano() > 0 ? 1 : 0);
+    return (int)Math.min(Integer.MAX_VALUE, seconds);
+  }
+
+  @Override
+  public String toString() {
+    return "QueryOptions(fetchSize=" + fetchSize + ", maxRows=" + maxRows +
+          ", queryTimeout=" + queryTimeout + ", forwardOnly=" + forwardOnly +
+          ", readOnly=" + readOnly + ", chunkSize=" + chunkSize +
+          ", chunkParallelism=" + chunkParallelism + ", prefetchRows=" + prefetchRows + ')';
+  }
+
+  /** Mutable copy of the options, used only while deriving new options. */
+  private static class Builder {
+    int fetchSize;
+    int maxRows;
+    Duration queryTimeout;
+    boolean forwardOnly;
+    boolean readOnly;
+    int chunkSize;
+    int chunkParallelism;
+    int prefetchRows;
+
+    Builder() {
+      queryTimeout = Duration.ZERO;
+      chunkParallelism = 1;
+    }
+
+    Builder(QueryOptions options) {
+      fetchSize = options.fetchSize;
+      maxRows = options.maxRows;
+      queryTimeout = options.queryTimeout;
+      forwardOnly = options.forwardOnly;
+      readOnly = options.readOnly;
+      chunkSize = options.chunkSize;
+      chunkParallelism = options.chunkParallelism;
+      prefetchRows = options.prefetchRows;
+    }
+  }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Publishes the rows of a query, where the query is executed and rows pulled from the
+ * {@link ResultSetIterator} on the supplied executor, only in response to demand.
+ */
+class QueryPublisher<T> implements RowPublisher<T> {
+
+  private final Supplier<Stream<T>> query;
+  private final Executor executor;
+
+  QueryPublisher(Supplier<Stream<T>> query, Executor executor) {
+    this.query = query;
+    this.executor = executor;
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super T> subscriber) {
+    QuerySubscription<T> subscription = new QuerySubscription<>(query, executor, subscriber);
+    subscriber.onSubscribe(subscription);
+  }
+
+  /**
+   * Delivers rows to a single subscriber. Signals are serialised by only allowing one
+   * drain to run at a time, where requests or cancellation arriving during a drain
+   * cause it to loop rather than schedule another.
+   */
+  private static class QuerySubscription<T> implements Subscription {
+    private final Supplier<Stream<T>> query;
+    private final Executor executor;
+    private final Subscriber<? super T> subscriber;
+    private final AtomicLong demand;
+    private final AtomicInteger work;
+    private volatile boolean cancelled;
+    private volatile Throwable invalidRequest;
+    private Stream<T> stream;
+    private Iterator<T> rows;
+    private boolean done;
+
+    QuerySubscription(Supplier<Stream<T>> query, Executor executor, Subscriber<? super T> subscriber) {
+      this.query = query;
+      this.executor = executor;
+      this.subscriber = subscriber;
+      demand = new AtomicLong();
+      work = new AtomicInteger();
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        invalidRequest = new IllegalArgumentException("Requested rows must be positive: " + n);
+      } else {
+        demand.accumulateAndGet(n, QuerySubscription::addCapped);
+      }
+      schedule();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      schedule();
+    }
+
+    private void schedule() {
+      if (work.getAndIncrement() == 0) {
+        try {
+          executor.execute(this::drain);
+        } catch (RuntimeException e) {
+          cancelled = true;
+          subscriber.onError(e);
+        }
+      }
+    }
+
+    private void drain() {
+      int missed = 1;
+      do {
+        if (!done) {
+          drainDemand();
+        }
+        missed = work.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void drainDemand() {
+      try {
+        if (cancelled) {
+          finish();
+        } else if (invalidRequest != null) {
+          finish();
+          subscriber.onError(invalidRequest);
+        } else {
+          deliver();
+        }
+      } catch (Throwable e) {
+        finish();
+        if (!cancelled) {
+          subscriber.onError(e);
+        }
+      }
+    }
+
+    private void deliver() {
+      if (rows == null) {
+        stream = query.get();
+        rows = stream.iterator();
+      }
+
+      long requested = demand.get();
+      long delivered = 0;
+      while (delivered != requested && !cancelled) {
+        if (!rows.hasNext()) {
+          break;
+        }
+        subscriber.onNext(rows.next());
+        delivered++;
+      }
+      demand.addAndGet(-delivered);
+
+      // Checking for a further row after an exact delivery only moves the cursor, without
+      // mapping or delivering a row, so that completion and closing are not left waiting
+      if (!cancelled && (delivered != requested || !rows.hasNext())) {
+        finish();
+        subscriber.onComplete();
+      } else if (cancelled) {
+        finish();
+      }
+    }
+
+    /** Close the query resources, after which no further signals are sent. */
+    private void finish() {
+      done = true;
+      if (stream != null) {
+        stream.close();
+      }
+    }
+
+    private static long addCapped(long a, long b) {
+      long sum = a + b;
+      return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+  }
+
+}
@@ -3,6 +3,7 @@
  */
 package org.softpres.donkeysql;
 
+import java.sql.Connection;
 import java.sql.SQLException;
 
 /**
@@ -13,4 +14,18 @@ interface QueryResource extends AutoCloseable {
 
   void close() throws SQLException;
 
+  /** Close this resource followed by the next, even if closing this one fails. */
+  default QueryResource andThen(QueryResource next) {
+    return () -> {
+      try (QueryResource other = next) {
+        close();
+      }
+    };
+  }
+
+  /** Close the connection only when it was created on behalf of the caller. */
+  static QueryResource connection(Connection connection, boolean close) {
+    return close ? connection::close : () -> { };
+  }
+
 }
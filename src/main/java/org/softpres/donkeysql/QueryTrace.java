@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.softpres.donkeysql.QueryEvent.CloseReason;
+import org.softpres.donkeysql.QueryEvent.Phase;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Records when each phase of a query ends, delivering a {@link QueryEvent} to the listener
+ * once its resources are closed. Queries without a listener share {@link #NONE}, which
+ * records nothing, so tracing costs nothing unless enabled.
+ */
+class QueryTrace {
+
+  static final QueryTrace NONE = new QueryTrace(null, null);
+
+  private static final int PHASES = Phase.values().length;
+  private static final long NOT_REACHED = Long.MIN_VALUE;
+
+  private final QueryListener listener;
+  private final String sql;
+  private final long start;
+  private final long[] ends;
+  private long rows;
+  private boolean exhausted;
+  private Throwable failure;
+  private boolean ended;
+
+  private QueryTrace(QueryListener listener, String sql) {
+    this.listener = listener;
+    this.sql = sql;
+    start = listener == null ? 0 : System.nanoTime();
+    ends = new long[listener == null ? 0 : PHASES];
+    Arrays.fill(ends, NOT_REACHED);
+  }
+
+  static QueryTrace start(QueryListener listener, String sql) {
+    return listener == null ? NONE : new QueryTrace(listener, sql);
+  }
+
+  /** Record that the phase has just ended. */
+  void mark(Phase phase) {
+    if (listener != null) {
+      ends[phase.ordinal()] = System.nanoTime();
+    }
+  }
+
+  /** A view of the result set counting rows and the time to the first of them. */
+  ResultSet resultSet(ResultSet resultSet) {
+    return listener == null ? resultSet : new TracedResultSet(resultSet, this);
+  }
+
+  /** Resources that end the trace once they have been closed. */
+  QueryResource onClose(QueryResource resources) {
+    if (listener == null) {
+      return resources;
+    }
+    return () -> {
+      try {
+        resources.close();
+      } finally {
+        end();
+      }
+    };
+  }
+
+  void failed(Throwable e) {
+    if (listener != null && failure == null) {
+      failure = e;
+    }
+  }
+
+  void next(boolean found) {
+    if (ends[Phase.FIRST_ROW.ordinal()] == NOT_REACHED) {
+      mark(Phase.FIRST_ROW);
+    }
+    if (found) {
+      rows++;
+    } else {
+      exhausted = true;
+    }
+  }
+
+  /** Deliver the event, if not already done. */
+  void end() {
+    if (listener == null || ended) {
+      return;
+    }
+    ended = true;
+    long end = System.nanoTime();
+
+    long connected = ends[Phase.CONNECTION.ordinal()];
+    long prepared = ends[Phase.PREPARE.ordinal()];
+    long executed = ends[Phase.EXECUTE.ordinal()];
+    long firstRow = ends[Phase.FIRST_ROW.ordinal()];
+    long[] nanos = new long[PHASES];
+    nanos[Phase.CONNECTION.ordinal()] = between(start, connected);
+    nanos[Phase.PREPARE.ordinal()] = between(connected, prepared);
+    nanos[Phase.EXECUTE.ordinal()] = between(prepared, executed);
+    nanos[Phase.FIRST_ROW.ordinal()] = between(executed, firstRow);
+    nanos[Phase.ITERATION.ordinal()] = between(firstRow, end);
+
+    CloseReason reason = failure != null ? CloseReason.FAILED :
+          exhausted ? CloseReason.EXHAUSTED :
+          CloseReason.CLOSED;
+    try {
+      listener.queryEnded(new QueryEvent(sql, nanos, end - start, rows, reason, failure));
+    } catch (RuntimeException ignore) {
+    }
+  }
+
+  private static long between(long from, long to) {
+    return from == NOT_REACHED || to == NOT_REACHED ? 0 : to - from;
+  }
+
+  /** Notifies the trace of each row, and of failures reading rows. */
+  static class TracedResultSet extends LabelCachingResultSet {
+    private final QueryTrace trace;
+
+    TracedResultSet(ResultSet delegate, QueryTrace trace) {
+      super(delegate);
+      this.trace = trace;
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+      boolean found;
+      try {
+        found = super.next();
+      } catch (SQLException | RuntimeException e) {
+        trace.failed(e);
+        throw e;
+      }
+      trace.next(found);
+      return found;
+    }
+  }
+
+  /** Record the failure against the trace of the result set, if it is being traced. */
+  static void failed(ResultSet resultSet, Throwable e) {
+    if (resultSet instanceof TracedResultSet) {
+      ((TracedResultSet)resultSet).trace.failed(e);
+    }
+  }
+
+}
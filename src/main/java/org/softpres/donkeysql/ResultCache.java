@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.softpres.donkeysql.params.ParamQuery;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Read-through cache of the mapped rows of queries, keyed by the SQL and the parameter values
+ * bound to it, for lookups of reference data that are executed far more often than it changes.
+ * Concurrent misses for the same key only execute the query once, with the other callers
+ * waiting for its rows. Failures are not cached.
+ * <p/>
+ * Entries expire after the time-to-live, and the least recently used entries are evicted to
+ * keep within the maximum number of entries and maximum total weight, where the weight of an
+ * entry is by default its number of rows.
+ * <p/>
+ * As the rows are shared between callers, they should be immutable. A cache should only be
+ * used with queries mapping rows in the same way, as the mapper is not part of the key, and
+ * nor are options such as the maximum number of rows.
+ *
+ * @see StagedQuery#cache(ResultCache)
+ */
+public class ResultCache<T> {
+
+  static final int DEFAULT_MAX_ENTRIES = 1024;
+
+  private final Map<Key, Entry<T>> entries;
+  private final LongAdder hits;
+  private final LongAdder misses;
+  private final LongAdder evictions;
+  private final LongAdder expirations;
+  private final LongSupplier clock;
+  private long ttlNanos;
+  private int maxEntries;
+  private long maxWeight;
+  private ToLongFunction<? super List<T>> weigher;
+  private long weight;
+
+  public ResultCache() {
+    this(System::nanoTime);
+  }
+
+  /** @param clock the current time in nanoseconds, against which entries expire. */
+  ResultCache(LongSupplier clock) {
+    this.clock = clock;
+    entries = new LinkedHashMap<>(16, 0.75f, true);
+    hits = new LongAdder();
+    misses = new LongAdder();
+    evictions = new LongAdder();
+    expirations = new LongAdder();
+    maxEntries = DEFAULT_MAX_ENTRIES;
+    maxWeight = Long.MAX_VALUE;
+    weigher = List::size;
+  }
+
+  /** How long rows are cached after being read, where zero (the default) means forever. */
+  public synchronized ResultCache<T> ttl(Duration ttl) {
+    if (ttl.isNegative()) {
+      throw new IllegalArgumentException("Time-to-live cannot be negative: " + ttl);
+    }
+    ttlNanos = ttl.toNanos();
+    return this;
+  }
+
+  /** The maximum number of queries to cache the rows of, evicting any excess immediately. */
+  public synchronized ResultCache<T> maxEntries(int maxEntries) {
+    if (maxEntries < 0) {
+      throw new IllegalArgumentException("Max entries cannot be negative: " + maxEntries);
+    }
+    this.maxEntries = maxEntries;
+    evictExcess();
+    return this;
+  }
+
+  /** The maximum total weight of the cached entries, evicting any excess immediately. */
+  public synchronized ResultCache<T> maxWeight(long maxWeight) {
+    if (maxWeight < 0) {
+      throw new IllegalArgumentException("Max weight cannot be negative: " + maxWeight);
+    }
+    this.maxWeight = maxWeight;
+    evictExcess();
+    return this;
+  }
+
+  /**
+   * How to weigh the rows of each entry, such as an estimate of their size in bytes, which
+   * only applies to entries cached afterwards.
+   */
+  public synchronized ResultCache<T> weigher(ToLongFunction<? super List<T>> weigher) {
+    this.weigher = weigher;
+    return this;
+  }
+
+  /**
+   * The cached rows of the query, otherwise loaded with the supplied function, which is only
+   * called once for concurrent misses of the same query.
+   */
+  List<T> get(ParamQuery query, Supplier<List<T>> loader) {
+    Key key = new Key(query.templateSql(), query.sql(), query.values());
+    Entry<T> entry;
+    boolean load = false;
+
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry != null && entry.expired(clock.getAsLong())) {
+        remove(key, entry);
+        expirations.increment();
+        entry = null;
+      }
+      if (entry == null) {
+        misses.increment();
+        entry = new Entry<>(key.template);
+        entries.put(key, entry);
+        load = true;
+      } else {
+        hits.increment();
+      }
+    }
+
+    return load ? load(key, entry, loader) : await(entry);
+  }
+
+  private List<T> load(Key key, Entry<T> entry, Supplier<List<T>> loader) {
+    List<T> rows;
+    try {
+      rows = Collections.unmodifiableList(loader.get());
+    } catch (RuntimeException | Error e) {
+      synchronized (this) {
+        entries.remove(key, entry);
+      }
+      entry.rows.completeExceptionally(e);
+      throw e;
+    }
+
+    synchronized (this) {
+      if (entries.get(key) == entry) {
+        entry.loaded(weigher.applyAsLong(rows), clock.getAsLong() + ttlNanos, ttlNanos > 0);
+        weight += entry.weight;
+        evictExcess();
+      }
+    }
+    entry.rows.complete(rows);
+    return rows;
+  }
+
+  private static <T> List<T> await(Entry<T> entry) {
+    try {
+      return entry.rows.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException)e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error)e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private void evictExcess() {
+    Iterator<Map.Entry<Key, Entry<T>>> eldest = entries.entrySet().iterator();
+    while ((entries.size() > maxEntries || weight > maxWeight) && eldest.hasNext()) {
+      Entry<T> entry = eldest.next().getValue();
+      eldest.remove();
+      weight -= entry.weight;
+      evictions.increment();
+    }
+  }
+
+  private void remove(Key key, Entry<T> entry) {
+    if (entries.remove(key, entry)) {
+      weight -= entry.weight;
+    }
+  }
+
+  /** Remove the cached rows of all queries of the template, being the SQL as written. */
+  public synchronized void invalidate(String templateSql) {
+    entries.entrySet().removeIf(e -> {
+      if (e.getValue().template.equals(templateSql)) {
+        weight -= e.getValue().weight;
+        return true;
+      }
+      return false;
+    });
+  }
+
+  /** Remove the cached rows of all queries. */
+  public synchronized void invalidateAll() {
+    entries.clear();
+    weight = 0;
+  }
+
+  /** The number of queries currently cached, including any being loaded. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** The total weight of the cached entries. */
+  public synchronized long weight() {
+    return weight;
+  }
+
+  /** The number of executions served from the cache, or by waiting for another to load. */
+  public long hits() {
+    return hits.sum();
+  }
+
+  /** The number of executions that required the query to be executed. */
+  public long misses() {
+    return misses.sum();
+  }
+
+  /** The number of entries removed to keep within the size or weight limits. */
+  public long evictions() {
+    return evictions.sum();
+  }
+
+  /** The number of entries removed as they had outlived the time-to-live. */
+  public long expirations() {
+    return expirations.sum();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "ResultCache(size=" + entries.size() + ", weight=" + weight +
+          ", hits=" + hits() + ", misses=" + misses() +
+          ", evictions=" + evictions() + ", expirations=" + expirations() + ')';
+  }
+
+  private static class Entry<T> {
+    final String template;
+    final CompletableFuture<List<T>> rows;
+    long weight;
+    long expires;
+    boolean expiring;
+
+    Entry(String template) {
+      this.template = template;
+      rows = new CompletableFuture<>();
+    }
+
+    void loaded(long weight, long expires, boolean expiring) {
+      this.weight = weight;
+      this.expires = expires;
+      this.expiring = expiring;
+    }
+
+    /** Entries still being loaded never expire. */
+    boolean expired(long now) {
+      return expiring && now - expires >= 0;
+    }
+  }
+
+  /** Parameter values are compared deeply, so that array values such as byte[] match. */
+  private static class Key {
+    final String template;
+    private final String sql;
+    private final Object[] values;
+    private final int hash;
+
+    Key(String template, String sql, List<Object> values) {
+      this.template = template;
+      this.sql = sql;
+      this.values = values.toArray();
+      hash = 31 * sql.hashCode() + Arrays.deepHashCode(this.values);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key)other;
+      return hash == key.hash && sql.equals(key.sql) && Arrays.deepEquals(values, key.values);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+}
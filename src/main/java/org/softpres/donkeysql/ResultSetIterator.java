@@ -18,13 +18,16 @@ import static org.softpres.donkeysql.ResultSetIterator.Next.*;
 public class ResultSetIterator<T> implements Iterator<T>, AutoCloseable {
 
   private final ResultSet resultSet;
+  private final ResultSet row;
   private final RowMapper<T> mapper;
   private Next next;
   private QueryResource onClose;
+  private boolean closed;
 
   ResultSetIterator(ResultSet resultSet, RowMapper<T> mapper) {
     this.resultSet = resultSet;
-    this.mapper = mapper;
+    this.mapper = RowMappers.forResultSet(mapper);
+    row = resultSet instanceof LabelCachingResultSet ? resultSet : new LabelCachingResultSet(resultSet);
     next = UNKNOWN;
     onClose = () -> { };
   }
@@ -40,10 +43,10 @@ public class ResultSetIterator<T> implements Iterator<T>, AutoCloseable {
       updateNext();
       return next == FOUND;
     } catch (SQLException e) {
-      closeQuietly();
+      closeAfterFailure(e);
       throw new UncheckedSQLException(e);
     } catch (Exception e) {
-      closeQuietly();
+      closeAfterFailure(e);
       throw e;
     }
   }
@@ -61,13 +64,13 @@ public class ResultSetIterator<T> implements Iterator<T>, AutoCloseable {
   public T next() {
     try {
       if (hasNext()) {
-        return mapper.apply(resultSet);
+        return mapper.apply(row);
       }
     } catch (SQLException e) {
-      closeQuietly();
+      closeAfterFailure(e);
       throw new UncheckedSQLException(e);
     } catch (Exception e) {
-      closeQuietly();
+      closeAfterFailure(e);
       throw e;
     } finally {
       next = UNKNOWN;
@@ -75,6 +78,11 @@ public class ResultSetIterator<T> implements Iterator<T>, AutoCloseable {
     throw new NoSuchElementException();
   }
 
+  private void closeAfterFailure(Exception e) {
+    QueryTrace.failed(resultSet, e);
+    closeQuietly();
+  }
+
   private void closeQuietly() {
     try {
       close();
@@ -85,6 +93,10 @@ public class ResultSetIterator<T> implements Iterator<T>, AutoCloseable {
   @Override
   public void close() throws SQLException {
     next = FINISHED;
+    if (closed) {
+      return;
+    }
+    closed = true;
 
     try (ResultSet rs = resultSet; QueryResource other = onClose) {
       // Used to close resources
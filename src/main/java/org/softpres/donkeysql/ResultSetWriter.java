@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Base64;
+
+/**
+ * Writes rows straight from the column getters of a {@link ResultSet} in an {@link ExportFormat},
+ * without mapping each row to an object first. Integral columns are formatted into a reused
+ * buffer, and the field names of each column are escaped once per result set rather than for
+ * each row. The header is only written for the first result set, so that the rows of many
+ * chunks can be written as one.
+ */
+class ResultSetWriter {
+
+  private static final int INTEGRAL = 0;
+  private static final int DECIMAL = 1;
+  private static final int FLOATING = 2;
+  private static final int BOOLEAN = 3;
+  private static final int BINARY = 4;
+  private static final int TEXT = 5;
+  private static final int REAL = 6;
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final Writer out;
+  private final ExportFormat format;
+  private final int flushRows;
+  private final char[] digits;
+  private boolean headerWritten;
+  private long rows;
+
+  ResultSetWriter(Writer out, ExportFormat format, int flushRows) {
+    this.out = out;
+    this.format = format;
+    this.flushRows = flushRows;
+    digits = new char[20];
+  }
+
+  /** Write all the remaining rows of the result set, returning the number written. */
+  long write(ResultSet resultSet) throws SQLException, IOException {
+    ResultSetMetaData metaData = resultSet.getMetaData();
+    int columns = metaData.getColumnCount();
+    int[] kinds = new int[columns + 1];
+    String[] labels = new String[columns + 1];
+    for (int column = 1; column <= columns; column++) {
+      kinds[column] = kind(metaData.getColumnType(column));
+      labels[column] = metaData.getColumnLabel(column);
+    }
+
+    String[] fields = format == ExportFormat.NDJSON ? jsonFields(labels) : null;
+    if (format == ExportFormat.CSV && !headerWritten) {
+      writeCsvHeader(labels);
+    }
+    headerWritten = true;
+
+    long written = 0;
+    while (resultSet.next()) {
+      if (format == ExportFormat.CSV) {
+        writeCsvRow(resultSet, kinds);
+      } else {
+        writeJsonRow(resultSet, kinds, fields);
+      }
+      written++;
+      if (flushRows > 0 && ++rows % flushRows == 0) {
+        out.flush();
+      }
+    }
+    return written;
+  }
+
+  private static int kind(int sqlType) {
+    switch (sqlType) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+        return INTEGRAL;
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        return DECIMAL;
+      case Types.REAL:
+        return REAL;
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return FLOATING;
+      case Types.BIT:
+      case Types.BOOLEAN:
+        return BOOLEAN;
+      case Types.BINARY:
+      case Types.VARBINARY:
+      case Types.LONGVARBINARY:
+      case Types.BLOB:
+        return BINARY;
+      default:
+        return TEXT;
+    }
+  }
+
+  private void writeCsvHeader(String[] labels) throws IOException {
+    for (int column = 1; column < labels.length; column++) {
+      if (column > 1) {
+        out.write(',');
+      }
+      writeCsvText(labels[column]);
+    }
+    out.write("\r\n");
+  }
+
+  private void writeCsvRow(ResultSet resultSet, int[] kinds) throws SQLException, IOException {
+    for (int column = 1; column < kinds.length; column++) {
+      if (column > 1) {
+        out.write(',');
+      }
+      switch (kinds[column]) {
+        case INTEGRAL:
+          long integral = resultSet.getLong(column);
+          if (!resultSet.wasNull()) {
+            writeLong(integral);
+          }
+          break;
+        case BINARY:
+          byte[] bytes = resultSet.getBytes(column);
+          if (bytes != null) {
+            writeCsvText(Base64.getEncoder().encodeToString(bytes));
+          }
+          break;
+        default:
+          String value = text(resultSet, column, kinds[column]);
+          if (value != null) {
+            writeCsvText(value);
+          }
+      }
+    }
+    out.write("\r\n");
+  }
+
+  private void writeJsonRow(ResultSet resultSet, int[] kinds, String[] fields) throws SQLException, IOException {
+    if (kinds.length == 1) {
+      out.write('{');
+    }
+    for (int column = 1; column < kinds.length; column++) {
+      out.write(fields[column]);
+      switch (kinds[column]) {
+        case INTEGRAL:
+          long integral = resultSet.getLong(column);
+          if (resultSet.wasNull()) {
+            out.write("null");
+          } else {
+            writeLong(integral);
+          }
+          break;
+        case BINARY:
+          byte[] bytes = resultSet.getBytes(column);
+          if (bytes == null) {
+            out.write("null");
+          } else {
+            out.write('"');
+            out.write(Base64.getEncoder().encodeToString(bytes));
+            out.write('"');
+          }
+          break;
+        case TEXT:
+          String text = resultSet.getString(column);
+          if (text == null) {
+            out.write("null");
+          } else {
+            writeJsonString(text);
+          }
+          break;
+        default:
+          String literal = text(resultSet, column, kinds[column]);
+          out.write(literal == null ? "null" : literal);
+      }
+    }
+    out.write("}\n");
+  }
+
+  /**
+   * The value of a non-integral column as text, which for floating point columns is null
+   * when not finite, as there is no JSON literal for them.
+   */
+  private static String text(ResultSet resultSet, int column, int kind) throws SQLException {
+    switch (kind) {
+      case DECIMAL:
+        BigDecimal decimal = resultSet.getBigDecimal(column);
+        return decimal == null ? null : decimal.toPlainString();
+      case FLOATING:
+        double floating = resultSet.getDouble(column);
+        return resultSet.wasNull() || Double.isNaN(floating) || Double.isInfinite(floating) ?
+              null : Double.toString(floating);
+      case REAL:
+        float real = resultSet.getFloat(column);
+        return resultSet.wasNull() || Float.isNaN(real) || Float.isInfinite(real) ?
+              null : Float.toString(real);
+      case BOOLEAN:
+        boolean bool = resultSet.getBoolean(column);
+        return resultSet.wasNull() ? null : bool ? "true" : "false";
+      default:
+        return resultSet.getString(column);
+    }
+  }
+
+  /** Field names with their separators, escaped once for all rows. */
+  private static String[] jsonFields(String[] labels) {
+    String[] fields = new String[labels.length];
+    for (int column = 1; column < labels.length; column++) {
+      StringBuilder field = new StringBuilder(column == 1 ? "{" : ",");
+      appendJsonString(field, labels[column]);
+      fields[column] = field.append(':').toString();
+    }
+    return fields;
+  }
+
+  private void writeLong(long value) throws IOException {
+    if (value == Long.MIN_VALUE) {
+      out.write(Long.toString(value));
+      return;
+    }
+    long remaining = Math.abs(value);
+    int position = digits.length;
+    do {
+      digits[--position] = (char)('0' + remaining % 10);
+      remaining /= 10;
+    } while (remaining != 0);
+    if (value < 0) {
+      digits[--position] = '-';
+    }
+    out.write(digits, position, digits.length - position);
+  }
+
+  private void writeCsvText(String value) throws IOException {
+    if (!needsQuotes(value)) {
+      out.write(value);
+      return;
+    }
+
+    out.write('"');
+    int start = 0;
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) == '"') {
+        out.write(value, start, i + 1 - start);
+        start = i;
+      }
+    }
+    out.write(value, start, value.length() - start);
+    out.write('"');
+  }
+
+  /** Empty strings are quoted, so that only SQL NULL is written as an empty field. */
+  private static boolean needsQuotes(String value) {
+    if (value.isEmpty()) {
+      return true;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void writeJsonString(String value) throws IOException {
+    out.write('"');
+    int start = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x20 || c == '"' || c == '\\') {
+        out.write(value, start, i - start);
+        writeJsonEscape(c);
+        start = i + 1;
+      }
+    }
+    out.write(value, start, value.length() - start);
+    out.write('"');
+  }
+
+  private void writeJsonEscape(char c) throws IOException {
+    switch (c) {
+      case '"': out.write("\\\""); break;
+      case '\\': out.write("\\\\"); break;
+      case '\n': out.write("\\n"); break;
+      case '\r': out.write("\\r"); break;
+      case '\t': out.write("\\t"); break;
+      case '\b': out.write("\\b"); break;
+      case '\f': out.write("\\f"); break;
+      default:
+        out.write("\\u00");
+        out.write(HEX[c >> 4]);
+        out.write(HEX[c & 0xF]);
+    }
+  }
+
+  private static void appendJsonString(StringBuilder builder, String value) {
+    builder.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        builder.append('\\').append(c);
+      } else if (c < 0x20) {
+        builder.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+      } else {
+        builder.append(c);
+      }
+    }
+    builder.append('"');
+  }
+
+}
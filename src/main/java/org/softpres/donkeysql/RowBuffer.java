@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Bounded hand-off of rows from a producing thread to a consuming thread, allowing the
+ * producer to signal the end of the rows or a failure. Producers block when the buffer
+ * is full, providing back-pressure, until space is available or the consumer has
+ * indicated it is no longer interested.
+ */
+class RowBuffer<T> {
+
+  private static final Object END = new Object();
+  private static final Object NULL = new Object();
+  private static final long POLL_MILLIS = 50;
+
+  private final BlockingQueue<Object> queue;
+  private final BooleanSupplier cancelled;
+  private T current;
+
+  RowBuffer(int capacity, BooleanSupplier cancelled) {
+    queue = new LinkedBlockingQueue<>(capacity);
+    this.cancelled = cancelled;
+  }
+
+  /** Offer a row, returning false without adding it if the consumer has cancelled. */
+  boolean put(T row) {
+    return offer(row == null ? NULL : row);
+  }
+
+  /** Indicate that no further rows will be supplied. */
+  void end() {
+    offer(END);
+  }
+
+  /** Indicate that the producer failed, which is thrown to the consumer. */
+  void fail(Throwable failure) {
+    offer(new Failure(failure));
+  }
+
+  private boolean offer(Object item) {
+    try {
+      while (!cancelled.getAsBoolean()) {
+        if (queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+          return true;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return false;
+  }
+
+  /**
+   * Wait for the next row to become available as {@link #current()}, returning false
+   * when the producer has ended or the consumer has cancelled. A producer failure is
+   * rethrown here.
+   */
+  boolean next() {
+    Object item = take();
+    if (item == END) {
+      return false;
+    } else if (item instanceof Failure) {
+      throw ((Failure)item).propagate();
+    }
+    current = unmask(item);
+    return true;
+  }
+
+  T current() {
+    return current;
+  }
+
+  private Object take() {
+    Taker taker = new Taker();
+    try {
+      ForkJoinPool.managedBlock(taker);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new UncheckedSQLException("Interrupted while waiting for rows");
+    }
+    return taker.item;
+  }
+
+  @SuppressWarnings("unchecked")
+  private T unmask(Object item) {
+    return item == NULL ? null : (T)item;
+  }
+
+  /**
+   * Waits for the next item, treating cancellation as the end of the rows. When consumed
+   * from a fork-join pool, such as by a parallel stream, this allows the pool to run other
+   * tasks while blocked, which may be those consuming the rows a producer is waiting on.
+   */
+  private class Taker implements ForkJoinPool.ManagedBlocker {
+    private Object item;
+
+    @Override
+    public boolean block() throws InterruptedException {
+      item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+      return isReleasable();
+    }
+
+    @Override
+    public boolean isReleasable() {
+      if (item == null) {
+        item = queue.poll();
+      }
+      if (item == null && cancelled.getAsBoolean()) {
+        item = END;
+      }
+      return item != null;
+    }
+  }
+
+  /** Wraps a failure of the producer, so it can be passed through the queue. */
+  private static class Failure {
+    private final Throwable cause;
+
+    Failure(Throwable cause) {
+      this.cause = cause;
+    }
+
+    RuntimeException propagate() {
+      if (cause instanceof RuntimeException) {
+        return (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+        throw (Error)cause;
+      } else {
+        return new IllegalStateException(cause);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.*;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Common {@link RowMapper} implementations.
+ */
+public final class RowMappers {
+
+  private static final ClassValue<Target<?>> TARGETS = new ClassValue<Target<?>>() {
+    @Override
+    protected Target<?> computeValue(Class<?> type) {
+      return Target.of(type);
+    }
+  };
+
+  private RowMappers() { }
+
+  /**
+   * Map each row to an instance of the specified class, by matching column labels to the
+   * names of its properties, ignoring case and underscores (so {@code LEG_COUNT} matches
+   * {@code legCount}). The class must be one of:
+   * <ul>
+   *   <li>a record, which is constructed from its components (Java 16+);</li>
+   *   <li>a class with a no-arg constructor, where matching setters or fields are set,
+   *       and columns without a matching property are ignored;</li>
+   *   <li>a class with a single constructor, matched by parameter name when compiled with
+   *       {@code -parameters}, otherwise by position.</li>
+   * </ul>
+   * The columns are resolved from the {@link ResultSetMetaData} once for each result set,
+   * after which rows are read by index using typed getters, with the object created through
+   * method handles rather than reflection. The resolved plan is cached for each class and
+   * set of column labels, against the class itself so that it does not prevent the class
+   * from being unloaded.
+   *
+   * @throws IllegalArgumentException if the class cannot be constructed as described.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> RowMapper<T> of(Class<T> type) {
+    return new ClassMapper<>((Target<T>)TARGETS.get(type));
+  }
+
+  /**
+   * The mapper to use for the rows of a single result set, which for mappers from here
+   * resolves the plan once on the first row, however many result sets the mapper is
+   * otherwise shared between.
+   */
+  static <T> RowMapper<T> forResultSet(RowMapper<T> mapper) {
+    return mapper instanceof ClassMapper ? new SingleResultSetMapper<>(((ClassMapper<T>)mapper).target) : mapper;
+  }
+
+  /** Number of cached column combinations for the class. */
+  static int cachedPlans(Class<?> type) {
+    return TARGETS.get(type).plans.size();
+  }
+
+  /** Resolves the plan for each result set it is applied to, retaining the last. */
+  private static class ClassMapper<T> implements RowMapper<T> {
+    private final Target<T> target;
+    private volatile Bound<T> bound;
+
+    ClassMapper(Target<T> target) {
+      this.target = target;
+    }
+
+    @Override
+    public T apply(ResultSet resultSet) throws SQLException {
+      Bound<T> current = bound;
+      if (current == null || current.resultSet != resultSet) {
+        current = new Bound<>(resultSet, target.plan(resultSet.getMetaData()));
+        bound = current;
+      }
+      return current.plan.map(resultSet);
+    }
+  }
+
+  /** Resolves the plan on the first row, where every row is from the same result set. */
+  private static class SingleResultSetMapper<T> implements RowMapper<T> {
+    private final Target<T> target;
+    private Plan<T> plan;
+
+    SingleResultSetMapper(Target<T> target) {
+      this.target = target;
+    }
+
+    @Override
+    public T apply(ResultSet resultSet) throws SQLException {
+      if (plan == null) {
+        plan = target.plan(resultSet.getMetaData());
+      }
+      return plan.map(resultSet);
+    }
+  }
+
+  private static class Bound<T> {
+    final ResultSet resultSet;
+    final Plan<T> plan;
+
+    Bound(ResultSet resultSet, Plan<T> plan) {
+      this.resultSet = resultSet;
+      this.plan = plan;
+    }
+  }
+
+  private static String normalise(String name) {
+    return name.replace("_", "").toLowerCase(Locale.ROOT);
+  }
+
+  private static int indexOf(String[] labels, String name) {
+    String normalised = normalise(name);
+    for (int i = 0; i < labels.length; i++) {
+      if (labels[i].equals(normalised)) {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  @FunctionalInterface
+  private interface Plan<T> {
+    T map(ResultSet resultSet) throws SQLException;
+  }
+
+  /** How instances of a class are created, from which a plan is made for each column shape. */
+  private static abstract class Target<T> {
+    final Class<T> type;
+    final ConcurrentMap<List<String>, Plan<T>> plans;
+
+    Target(Class<T> type) {
+      this.type = type;
+      plans = new ConcurrentHashMap<>();
+    }
+
+    /** The plan for the normalised column labels, cached for each set of labels. */
+    Plan<T> plan(ResultSetMetaData metaData) throws SQLException {
+      String[] labels = new String[metaData.getColumnCount()];
+      for (int i = 0; i < labels.length; i++) {
+        labels[i] = normalise(metaData.getColumnLabel(i + 1));
+      }
+
+      List<String> shape = Arrays.asList(labels);
+      Plan<T> plan = plans.get(shape);
+      if (plan == null) {
+        plan = plan(labels);
+        plans.putIfAbsent(shape, plan);
+      }
+      return plan;
+    }
+
+    abstract Plan<T> plan(String[] labels) throws SQLException;
+
+    static <T> Target<T> of(Class<T> type) {
+      try {
+        if (Records.isRecord(type)) {
+          return new ConstructorTarget<>(type, Records.constructor(type), Records.componentNames(type));
+        }
+        Constructor<T> noArgs = noArgsConstructor(type);
+        if (noArgs != null) {
+          return new PropertyTarget<>(type, noArgs);
+        }
+        Constructor<?>[] constructors = type.getDeclaredConstructors();
+        if (constructors.length == 1) {
+          return new ConstructorTarget<>(type, constructors[0], parameterNames(constructors[0]));
+        }
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalArgumentException("Cannot map rows to " + type.getName(), e);
+      }
+      throw new IllegalArgumentException("Cannot map rows to " + type.getName() +
+            ", which requires a record, a no-arg constructor, or a single constructor");
+    }
+
+    private static <T> Constructor<T> noArgsConstructor(Class<T> type) {
+      try {
+        return type.getDeclaredConstructor();
+      } catch (NoSuchMethodException e) {
+        return null;
+      }
+    }
+
+    /** The parameter names, or null if they were not compiled into the class. */
+    private static String[] parameterNames(Constructor<?> constructor) {
+      Parameter[] parameters = constructor.getParameters();
+      String[] names = new String[parameters.length];
+      for (int i = 0; i < parameters.length; i++) {
+        if (!parameters[i].isNamePresent()) {
+          return null;
+        }
+        names[i] = parameters[i].getName();
+      }
+      return names;
+    }
+  }
+
+  /** Constructs each row with the column values as arguments. */
+  private static class ConstructorTarget<T> extends Target<T> {
+    private final MethodHandle constructor;
+    private final Class<?>[] types;
+    private final String[] names;
+
+    ConstructorTarget(Class<T> type, Constructor<?> constructor, String[] names) throws IllegalAccessException {
+      super(type);
+      types = constructor.getParameterTypes();
+      this.names = names;
+      this.constructor = unreflect(constructor)
+            .asSpreader(Object[].class, types.length)
+            .asType(MethodType.methodType(Object.class, Object[].class));
+    }
+
+    @Override
+    Plan<T> plan(String[] labels) throws SQLException {
+      int[] columns = new int[types.length];
+      if (names == null) {
+        if (labels.length != types.length) {
+          throw new SQLException("Expected " + types.length + " columns to construct " +
+                type.getName() + " by position, but found " + labels.length);
+        }
+        for (int i = 0; i < columns.length; i++) {
+          columns[i] = i + 1;
+        }
+      } else {
+        for (int i = 0; i < columns.length; i++) {
+          columns[i] = indexOf(labels, names[i]);
+          if (columns[i] < 0) {
+            throw new SQLException("No column found for '" + names[i] + "' of " + type.getName());
+          }
+        }
+      }
+
+      ColumnReader[] readers = readers(types);
+      return resultSet -> {
+        Object[] args = new Object[readers.length];
+        for (int i = 0; i < readers.length; i++) {
+          args[i] = readers[i].read(resultSet, columns[i]);
+        }
+        return create(args);
+      };
+    }
+
+    @SuppressWarnings("unchecked")
+    private T create(Object[] args) throws SQLException {
+      try {
+        return (T)(Object)constructor.invokeExact(args);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new SQLException("Failed to create " + type.getName(), e);
+      }
+    }
+  }
+
+  /** Creates each row with a no-arg constructor, then sets the properties matching columns. */
+  private static class PropertyTarget<T> extends Target<T> {
+    private final MethodHandle constructor;
+    private final Map<String, Property> properties;
+
+    PropertyTarget(Class<T> type, Constructor<T> constructor) throws IllegalAccessException {
+      super(type);
+      this.constructor = unreflect(constructor).asType(MethodType.methodType(Object.class));
+      properties = properties(type);
+    }
+
+    @Override
+    Plan<T> plan(String[] labels) {
+      List<Property> matched = new ArrayList<>();
+      List<Integer> columns = new ArrayList<>();
+      for (int i = 0; i < labels.length; i++) {
+        Property property = properties.get(labels[i]);
+        if (property != null) {
+          matched.add(property);
+          columns.add(i + 1);
+        }
+      }
+
+      int[] indexes = columns.stream().mapToInt(Integer::intValue).toArray();
+      MethodHandle[] setters = matched.stream().map(property -> property.setter).toArray(MethodHandle[]::new);
+      ColumnReader[] readers = readers(matched.stream().map(property -> property.type).toArray(Class<?>[]::new));
+      return resultSet -> create(resultSet, indexes, setters, readers);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T create(ResultSet resultSet, int[] columns, MethodHandle[] setters, ColumnReader[] readers)
+          throws SQLException {
+      try {
+        Object instance = constructor.invokeExact();
+        for (int i = 0; i < setters.length; i++) {
+          setters[i].invokeExact(instance, readers[i].read(resultSet, columns[i]));
+        }
+        return (T)instance;
+      } catch (SQLException | RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new SQLException("Failed to create " + type.getName(), e);
+      }
+    }
+
+    /** Setters take precedence over fields, and subclass members over those inherited. */
+    private static Map<String, Property> properties(Class<?> type) throws IllegalAccessException {
+      Map<String, Property> properties = new HashMap<>();
+      for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+        for (Field field : current.getDeclaredFields()) {
+          int modifiers = field.getModifiers();
+          if (!Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers) && !field.isSynthetic()) {
+            properties.putIfAbsent(normalise(field.getName()), new Property(field.getType(), unreflectSetter(field)));
+          }
+        }
+      }
+      for (Method method : type.getMethods()) {
+        String name = method.getName();
+        if (name.length() > 3 && name.startsWith("set") && method.getParameterCount() == 1 &&
+              !Modifier.isStatic(method.getModifiers())) {
+          Property property = new Property(method.getParameterTypes()[0], unreflect(method));
+          properties.put(normalise(name.substring(3)), property);
+        }
+      }
+      return properties;
+    }
+  }
+
+  private static class Property {
+    final Class<?> type;
+    final MethodHandle setter;
+
+    Property(Class<?> type, MethodHandle setter) {
+      this.type = type;
+      this.setter = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+    }
+  }
+
+  private static MethodHandle unreflect(Constructor<?> constructor) throws IllegalAccessException {
+    makeAccessible(constructor);
+    return MethodHandles.lookup().unreflectConstructor(constructor);
+  }
+
+  private static MethodHandle unreflect(Method method) throws IllegalAccessException {
+    makeAccessible(method);
+    return MethodHandles.lookup().unreflect(method);
+  }
+
+  private static MethodHandle unreflectSetter(Field field) throws IllegalAccessException {
+    makeAccessible(field);
+    return MethodHandles.lookup().unreflectSetter(field);
+  }
+
+  /** Allow non-public classes and members, where permitted by the runtime. */
+  private static void makeAccessible(AccessibleObject member) {
+    try {
+      member.setAccessible(true);
+    } catch (RuntimeException ignore) {
+      // Fall back to normal access checks
+    }
+  }
+
+  /** Reads a column by index, using the getter most suited to the target type. */
+  @FunctionalInterface
+  private interface ColumnReader {
+    Object read(ResultSet resultSet, int column) throws SQLException;
+  }
+
+  private static ColumnReader[] readers(Class<?>[] types) {
+    ColumnReader[] readers = new ColumnReader[types.length];
+    for (int i = 0; i < types.length; i++) {
+      readers[i] = reader(types[i]);
+    }
+    return readers;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static ColumnReader reader(Class<?> type) {
+    if (type == int.class) {
+      return ResultSet::getInt;
+    } else if (type == long.class) {
+      return ResultSet::getLong;
+    } else if (type == double.class) {
+      return ResultSet::getDouble;
+    } else if (type == boolean.class) {
+      return ResultSet::getBoolean;
+    } else if (type == float.class) {
+      return ResultSet::getFloat;
+    } else if (type == short.class) {
+      return ResultSet::getShort;
+    } else if (type == byte.class) {
+      return ResultSet::getByte;
+    } else if (type == Integer.class) {
+      return nullable(ResultSet::getInt);
+    } else if (type == Long.class) {
+      return nullable(ResultSet::getLong);
+    } else if (type == Double.class) {
+      return nullable(ResultSet::getDouble);
+    } else if (type == Boolean.class) {
+      return nullable(ResultSet::getBoolean);
+    } else if (type == String.class) {
+      return ResultSet::getString;
+    } else if (type == BigDecimal.class) {
+      return ResultSet::getBigDecimal;
+    } else if (type == byte[].class) {
+      return ResultSet::getBytes;
+    } else if (type == Object.class) {
+      return ResultSet::getObject;
+    } else if (type.isEnum()) {
+      return (resultSet, column) -> {
+        String name = resultSet.getString(column);
+        return name == null ? null : Enum.valueOf((Class<Enum>)type, name);
+      };
+    }
+    return (resultSet, column) -> resultSet.getObject(column, type);
+  }
+
+  /** Primitive getters return zero for NULL, so check to allow boxed types to be null. */
+  private static ColumnReader nullable(ColumnReader reader) {
+    return (resultSet, column) -> {
+      Object value = reader.read(resultSet, column);
+      return resultSet.wasNull() ? null : value;
+    };
+  }
+
+  /** Reflective access to records, which are not available in the Java version targeted. */
+  private static class Records {
+
+    static boolean isRecord(Class<?> type) {
+      try {
+        return (Boolean)Class.class.getMethod("isRecord").invoke(type);
+      } catch (ReflectiveOperationException e) {
+        return false;
+      }
+    }
+
+    /** The canonical constructor, which takes the components in order. */
+    static <T> Constructor<T> constructor(Class<T> type) throws ReflectiveOperationException {
+      Object[] components = components(type);
+      Class<?>[] types = new Class<?>[components.length];
+      for (int i = 0; i < components.length; i++) {
+        types[i] = (Class<?>)component(components[i], "getType");
+      }
+      return type.getDeclaredConstructor(types);
+    }
+
+    static String[] componentNames(Class<?> type) throws ReflectiveOperationException {
+      Object[] components = components(type);
+      String[] names = new String[components.length];
+      for (int i = 0; i < components.length; i++) {
+        names[i] = (String)component(components[i], "getName");
+      }
+      return names;
+    }
+
+    private static Object[] components(Class<?> type) throws ReflectiveOperationException {
+      return (Object[])Class.class.getMethod("getRecordComponents").invoke(type);
+    }
+
+    /** Looked up on the public RecordComponent class, as its implementation may not be accessible. */
+    private static Object component(Object component, String accessor) throws ReflectiveOperationException {
+      return Class.forName("java.lang.reflect.RecordComponent").getMethod(accessor).invoke(component);
+    }
+  }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+/**
+ * Publishes the rows of a query to subscribers as they request them, allowing a database
+ * cursor to be consumed without blocking the subscribing thread, and without reading
+ * rows faster than the subscriber can handle them.
+ * <p/>
+ * This is an adaptation of {@code java.util.concurrent.Flow.Publisher} for Java 8, which
+ * keeps Donkey SQL free of dependencies. It follows the same contract, so users of Reactive
+ * Streams or {@code Flow} should adapt it to those interfaces with a simple delegate, rather
+ * than consume it directly.
+ */
+@FunctionalInterface
+public interface RowPublisher<T> {
+
+  /**
+   * Add a subscriber, which will be passed a {@link Subscription} to request rows.
+   * The query is executed separately for each subscriber, once rows are first requested.
+   */
+  void subscribe(Subscriber<? super T> subscriber);
+
+  /** Receives rows only in response to {@link Subscription#request(long)}. */
+  interface Subscriber<T> {
+
+    void onSubscribe(Subscription subscription);
+
+    void onNext(T row);
+
+    /** Called at most once, after which no further methods are called. */
+    void onError(Throwable throwable);
+
+    /** Called at most once when all rows have been published. */
+    void onComplete();
+  }
+
+  /** Link between a subscriber and the query, allowing demand to be signalled. */
+  interface Subscription {
+
+    /** Request up to the specified number of rows, adding to any outstanding demand. */
+    void request(long n);
+
+    /** Stop receiving rows, closing the underlying query resources. */
+    void cancel();
+  }
+
+}
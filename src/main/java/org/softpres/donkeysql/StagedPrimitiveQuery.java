@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.softpres.donkeysql.params.ParamQuery;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.*;
+
+/**
+ * Holder for all the information that a query mapping each row to a primitive value needs
+ * to be performed, which is immutable as with {@link StagedQuery}. The results are returned
+ * as an {@link IntStream}, {@link LongStream} or {@link DoubleStream} without boxing each value.
+ *
+ * @see DB.MappableQuery#mapToInt(IntRowMapper)
+ */
+public class StagedPrimitiveQuery<S extends BaseStream<?, S>> {
+
+  private final StagedQuery<?> query;
+  private final StagedQuery.Results<S> results;
+  private final Function<Stream<S>, S> flatten;
+
+  private StagedPrimitiveQuery(
+        StagedQuery<?> query,
+        StagedQuery.Results<S> results,
+        Function<Stream<S>, S> flatten) {
+
+    this.query = query;
+    this.results = results;
+    this.flatten = flatten;
+  }
+
+  static StagedPrimitiveQuery<IntStream> ofInt(DB db, ParamQuery query, QueryOptions options, IntRowMapper mapper) {
+    return new StagedPrimitiveQuery<>(
+          staged(db, query, options),
+          (resultSet, resources) -> {
+            PrimitiveResultSetIterator.OfInt rows = new PrimitiveResultSetIterator.OfInt(resultSet, mapper);
+            rows.onClose(resources);
+            return rows.stream();
+          },
+          streams -> streams.flatMapToInt(Function.identity()));
+  }
+
+  static StagedPrimitiveQuery<LongStream> ofLong(DB db, ParamQuery query, QueryOptions options, LongRowMapper mapper) {
+    return new StagedPrimitiveQuery<>(
+          staged(db, query, options),
+          (resultSet, resources) -> {
+            PrimitiveResultSetIterator.OfLong rows = new PrimitiveResultSetIterator.OfLong(resultSet, mapper);
+            rows.onClose(resources);
+            return rows.stream();
+          },
+          streams -> streams.flatMapToLong(Function.identity()));
+  }
+
+  static StagedPrimitiveQuery<DoubleStream> ofDouble(DB db, ParamQuery query, QueryOptions options, DoubleRowMapper mapper) {
+    return new StagedPrimitiveQuery<>(
+          staged(db, query, options),
+          (resultSet, resources) -> {
+            PrimitiveResultSetIterator.OfDouble rows = new PrimitiveResultSetIterator.OfDouble(resultSet, mapper);
+            rows.onClose(resources);
+            return rows.stream();
+          },
+          streams -> streams.flatMapToDouble(Function.identity()));
+  }
+
+  /** The query executed for the results, where each row is read as a primitive rather than mapped. */
+  private static StagedQuery<Void> staged(DB db, ParamQuery query, QueryOptions options) {
+    RowMapper<Void> unmapped = resultSet -> {
+      throw new IllegalStateException("Rows are only read as primitives");
+    };
+    return new StagedQuery<>(db, unmapped, query, options);
+  }
+
+  private StagedPrimitiveQuery<S> with(StagedQuery<?> query) {
+    return new StagedPrimitiveQuery<>(query, results, flatten);
+  }
+
+  /** @see QueryOptions#fetchSize(int) */
+  public StagedPrimitiveQuery<S> fetchSize(int rows) {
+    return with(query.fetchSize(rows));
+  }
+
+  /** @see QueryOptions#maxRows(int) */
+  public StagedPrimitiveQuery<S> maxRows(int rows) {
+    return with(query.maxRows(rows));
+  }
+
+  /** @see QueryOptions#queryTimeout(Duration) */
+  public StagedPrimitiveQuery<S> queryTimeout(Duration timeout) {
+    return with(query.queryTimeout(timeout));
+  }
+
+  /** @see QueryOptions#forwardOnly() */
+  public StagedPrimitiveQuery<S> forwardOnly() {
+    return with(query.forwardOnly());
+  }
+
+  /** @see QueryOptions#readOnly() */
+  public StagedPrimitiveQuery<S> readOnly() {
+    return with(query.readOnly());
+  }
+
+  /**
+   * Chunks are always executed in turn, as the chunk parallelism is not supported for
+   * primitive results.
+   *
+   * @see QueryOptions#chunkSize(int)
+   */
+  public StagedPrimitiveQuery<S> chunkSize(int elements) {
+    return with(query.chunkSize(elements));
+  }
+
+  /** @see StagedQuery#options(QueryOptions) */
+  public StagedPrimitiveQuery<S> options(QueryOptions options) {
+    return with(query.options(options));
+  }
+
+  /** @see StagedQuery#peek(Consumer) */
+  public StagedPrimitiveQuery<S> peek(Consumer<String> sql) {
+    query.peek(sql);
+    return this;
+  }
+
+  /**
+   * Execute the query, where the resources are closed once the stream has been consumed,
+   * or when it is explicitly closed.
+   *
+   * @see StagedQuery#execute()
+   */
+  public S execute() {
+    return query.execute(results, flatten);
+  }
+
+}
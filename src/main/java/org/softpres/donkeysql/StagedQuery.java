@@ -3,35 +3,120 @@
  */
 package org.softpres.donkeysql;
 
+import org.softpres.donkeysql.QueryEvent.Phase;
 import org.softpres.donkeysql.params.ParamQuery;
 
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.BaseStream;
 import java.util.stream.Stream;
 
+import static java.util.stream.Collectors.toList;
+
 /**
- * Holder for all the information that a query needs to be performed.
+ * Holder for all the information that a query needs to be performed, which is immutable,
+ * such that each option returns a new query, and a query can be shared and reused.
  */
 public class StagedQuery<T> {
 
-  private final ConnectionFactory connectionFactory;
-  private final boolean closeConnection;
+  private final DB db;
   private final RowMapper<T> mapper;
   private final ParamQuery query;
+  private final QueryOptions options;
+  private final ResultCache<T> cache;
 
-  StagedQuery(
-        ConnectionFactory connectionFactory,
-        boolean closeConnection,
-        RowMapper<T> mapper,
-        ParamQuery query) {
+  StagedQuery(DB db, RowMapper<T> mapper, ParamQuery query, QueryOptions options) {
+    this(db, mapper, query, options, null);
+  }
 
-    this.connectionFactory = connectionFactory;
-    this.closeConnection = closeConnection;
+  private StagedQuery(DB db, RowMapper<T> mapper, ParamQuery query, QueryOptions options, ResultCache<T> cache) {
+    this.db = db;
     this.mapper = mapper;
     this.query = query;
+    this.options = options;
+    this.cache = cache;
+  }
+
+  /**
+   * The number of rows the driver should fetch from the database at a time, which should
+   * be specified to stream large results with bounded memory on some drivers.
+   *
+   * @see QueryOptions#fetchSize(int)
+   */
+  public StagedQuery<T> fetchSize(int rows) {
+    return options(options.fetchSize(rows));
+  }
+
+  /**
+   * The maximum number of rows the query should return, where zero means no limit.
+   *
+   * @see QueryOptions#maxRows(int)
+   */
+  public StagedQuery<T> maxRows(int rows) {
+    return options(options.maxRows(rows));
+  }
+
+  /**
+   * The time the driver should wait for the query to execute.
+   *
+   * @see QueryOptions#queryTimeout(Duration)
+   */
+  public StagedQuery<T> queryTimeout(Duration timeout) {
+    return options(options.queryTimeout(timeout));
+  }
+
+  /** @see QueryOptions#forwardOnly() */
+  public StagedQuery<T> forwardOnly() {
+    return options(options.forwardOnly());
+  }
+
+  /** @see QueryOptions#readOnly() */
+  public StagedQuery<T> readOnly() {
+    return options(options.readOnly());
+  }
+
+  /** @see QueryOptions#chunkSize(int) */
+  public StagedQuery<T> chunkSize(int elements) {
+    return options(options.chunkSize(elements));
+  }
+
+  /** @see QueryOptions#chunkParallelism(int) */
+  public StagedQuery<T> chunkParallelism(int chunks) {
+    return options(options.chunkParallelism(chunks));
+  }
+
+  /** @see QueryOptions#prefetchRows(int) */
+  public StagedQuery<T> prefetchRows(int rows) {
+    return options(options.prefetchRows(rows));
+  }
+
+  /** Replace all the options for this query, which are initially the defaults of {@link DB}. */
+  public StagedQuery<T> options(QueryOptions options) {
+    return new StagedQuery<>(db, mapper, query, options, cache);
+  }
+
+  /**
+   * Serve the rows from the supplied cache when the same SQL has been executed with the same
+   * parameter values, otherwise executing the query and reading all its rows into the cache
+   * before returning them. The stream returned by {@link #execute()} then holds no resources.
+   *
+   * @see ResultCache
+   */
+  public StagedQuery<T> cache(ResultCache<T> cache) {
+    return new StagedQuery<>(db, mapper, query, options, cache);
   }
 
   /**
@@ -58,6 +143,24 @@ public class StagedQuery<T> {
    * </pre>
    */
   public Stream<T> execute() {
+    if (cache != null) {
+      return cache.get(query, this::load).stream();
+    }
+    return executeUncached();
+  }
+
+  private List<T> load() {
+    try (Stream<T> results = executeUncached()) {
+      return results.collect(toList());
+    }
+  }
+
+  private Stream<T> executeUncached() {
+    List<ParamQuery> chunks = query.chunks(options.chunkSize());
+    if (chunks.size() > 1) {
+      return executeChunks(chunks);
+    }
+
     try {
       return executeThrowing();
     } catch (SQLException e) {
@@ -65,25 +168,327 @@ public class StagedQuery<T> {
     }
   }
 
-  private Stream<T> executeThrowing() throws SQLException {
-    Connection connection = connectionFactory.create();
-    PreparedStatement statement = query.createStatement(connection);
-    ResultSet resultSet = statement.executeQuery();
-    return new ResultSetIterator<>(resultSet, mapper)
-          .onClose(asSQLResource(statement, connection))
-          .stream();
-  }
-
-  private QueryResource asSQLResource(PreparedStatement statement, Connection connection) {
-    return () -> {
-      if (closeConnection) {
-        try (PreparedStatement s = statement; Connection c = connection) {
-          // Used to close resources
-        }
-      } else {
-        statement.close();
+  /**
+   * Execute the query on the supplied executor, collecting all the results into a list.
+   * The underlying resources are closed before the future completes.
+   */
+  public CompletableFuture<List<T>> executeAsync(Executor executor) {
+    return CompletableFuture.supplyAsync(this::collect, executor);
+  }
+
+  /**
+   * Execute the query on the executor of the {@link DB}, which by default is a shared pool
+   * of threads reserved for blocking on JDBC calls.
+   *
+   * @see #executeAsync(Executor)
+   * @see DB#executor(Executor)
+   */
+  public CompletableFuture<List<T>> executeAsync() {
+    return executeAsync(db.executor());
+  }
+
+  private List<T> collect() {
+    try (Stream<T> results = execute()) {
+      return results.collect(toList());
+    }
+  }
+
+  /**
+   * Publish the results to subscribers as they request them, where the query is executed,
+   * and rows read from the underlying {@link ResultSet}, on the supplied executor only when
+   * there is outstanding demand. The resources are closed when the end of the rows is
+   * reached, on failure, or when the subscription is cancelled.
+   */
+  public RowPublisher<T> publish(Executor executor) {
+    return new QueryPublisher<>(this::execute, executor);
+  }
+
+  /**
+   * Publish the results using the executor of the {@link DB}.
+   *
+   * @see #publish(Executor)
+   * @see DB#executor(Executor)
+   */
+  public RowPublisher<T> publish() {
+    return publish(db.executor());
+  }
+
+  /**
+   * Read the rows of the query a page at a time, ordered by the specified key column, where
+   * each page is a separate query on its own connection, such that no connection or cursor is
+   * held while the rows are being consumed, and the next page is only read once the rows of
+   * the previous have been. Each page is found by seeking past the key of the last row of the
+   * previous, rather than by an offset, which would have to skip all the rows before it.
+   * <pre>
+   *   SELECT * FROM (query) paged WHERE keyColumn > ? ORDER BY keyColumn LIMIT pageSize
+   * </pre>
+   * The key column must be selected by the query, be unique and not null, and is written into
+   * the statement as given. The database must support LIMIT, as H2, PostgreSQL and MySQL do.
+   *
+   * @throws IllegalStateException if the query would be split into chunks.
+   */
+  public Stream<T> paginate(String keyColumn, int pageSize) {
+    return paginate(keyColumn, pageSize, false);
+  }
+
+  /**
+   * Read the rows of the query a page at a time, optionally prefetching the next page on the
+   * executor of the {@link DB} while the rows of the previous are being consumed. Prefetching
+   * only applies where each query has its own connection from a {@link javax.sql.DataSource},
+   * as a single connection is not shared between threads.
+   *
+   * @see #paginate(String, int)
+   */
+  public Stream<T> paginate(String keyColumn, int pageSize, boolean prefetch) {
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+    }
+    if (query.chunks(options.chunkSize()).size() > 1) {
+      throw new IllegalStateException("Paginated queries cannot be split into chunks");
+    }
+
+    Executor executor = prefetch && db.autoCloseConnection() ? db.producers() : null;
+    return new KeysetPages<>(
+          (after, closed) -> page(new KeysetQuery(query, keyColumn, pageSize, after), keyColumn, closed),
+          pageSize,
+          executor
+    ).stream();
+  }
+
+  private KeysetPages.Page<T> page(KeysetQuery page, String keyColumn, BooleanSupplier closed) {
+    if (closed.getAsBoolean()) {
+      throw new CancellationException("Pages closed");
+    }
+    Object[] lastKey = new Object[1];
+    RowMapper<T> pageMapper = RowMappers.forResultSet(mapper);
+    RowMapper<T> keyed = row -> {
+      if (closed.getAsBoolean()) {
+        throw new CancellationException("Pages closed");
+      }
+      T value = pageMapper.apply(row);
+      lastKey[0] = row.getObject(keyColumn);
+      if (lastKey[0] == null) {
+        throw new IllegalStateException("Null value in key column: " + keyColumn);
       }
+      return value;
     };
+
+    try (Stream<T> rows = new StagedQuery<>(db, keyed, page, options.chunkSize(0)).executeThrowing()) {
+      return new KeysetPages.Page<>(rows.collect(toList()), lastKey[0]);
+    } catch (SQLException e) {
+      throw new UncheckedSQLException(e);
+    }
+  }
+
+  /**
+   * Write all the rows of the query in the specified format, reading each column directly
+   * from the {@link ResultSet}, such that no object is mapped for each row. The mapper of
+   * this query is not used. Output is buffered and flushed when complete, without closing
+   * the writer, as are the underlying resources.
+   *
+   * @return the number of rows written.
+   * @throws UncheckedIOException if writing failed.
+   */
+  public long writeTo(Writer writer, ExportFormat format) {
+    return writeTo(writer, format, 0);
+  }
+
+  /**
+   * Write all the rows of the query, flushing the writer after every so many rows, such
+   * that a consumer can process them while the query is still being read. Zero only flushes
+   * when complete.
+   *
+   * @see #writeTo(Writer, ExportFormat)
+   */
+  public long writeTo(Writer writer, ExportFormat format, int flushRows) {
+    if (flushRows < 0) {
+      throw new IllegalArgumentException("Flush interval cannot be negative: " + flushRows);
+    }
+    BufferedWriter buffered = new BufferedWriter(writer, 1 << 16);
+    ResultSetWriter rows = new ResultSetWriter(buffered, format, flushRows);
+    List<ParamQuery> chunks = query.chunks(options.chunkSize());
+    QueryOptions chunkOptions = chunks.size() > 1 ? options.chunkSize(0) : options;
+
+    try {
+      long written = 0;
+      for (ParamQuery chunk : chunks) {
+        written += new StagedQuery<>(db, mapper, chunk, chunkOptions).writeThrowing(rows);
+      }
+      buffered.flush();
+      return written;
+    } catch (SQLException e) {
+      throw new UncheckedSQLException(e);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Write all the rows of the query as UTF-8 text.
+   *
+   * @see #writeTo(Writer, ExportFormat)
+   */
+  public long writeTo(OutputStream stream, ExportFormat format) {
+    return writeTo(new OutputStreamWriter(stream, StandardCharsets.UTF_8), format, 0);
+  }
+
+  /** @see #writeTo(Writer, ExportFormat, int) */
+  public long writeTo(OutputStream stream, ExportFormat format, int flushRows) {
+    return writeTo(new OutputStreamWriter(stream, StandardCharsets.UTF_8), format, flushRows);
+  }
+
+  private long writeThrowing(ResultSetWriter rows) throws SQLException {
+    return executeThrowing((resultSet, resources) -> consume(resultSet, resources, results -> {
+      try {
+        return rows.write(results);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }));
+  }
+
+  /**
+   * Read all the rows of the query into primitive arrays column by column, using the types
+   * reported by the {@link java.sql.ResultSetMetaData}, which is far more compact than mapping
+   * each row to an object. The mapper of this query is not used. The underlying resources are
+   * closed before returning.
+   *
+   * @see ColumnarResult
+   */
+  public ColumnarResult fetchColumns() {
+    List<ParamQuery> chunks = query.chunks(options.chunkSize());
+    QueryOptions chunkOptions = chunks.size() > 1 ? options.chunkSize(0) : options;
+    ColumnarResult result = null;
+
+    try {
+      for (ParamQuery chunk : chunks) {
+        ColumnarResult previous = result;
+        result = new StagedQuery<>(db, mapper, chunk, chunkOptions).executeThrowing((resultSet, resources) ->
+              consume(resultSet, resources, rows -> {
+                ColumnarResult columns = previous != null ? previous : ColumnarResult.forResultSet(rows);
+                columns.read(rows);
+                return columns;
+              }));
+      }
+    } catch (SQLException e) {
+      throw new UncheckedSQLException(e);
+    }
+    return result.finish();
+  }
+
+  /**
+   * Execute the query for each chunk of an oversized iterable parameter, concatenating the rows.
+   *
+   * @see QueryOptions#chunkSize(int)
+   */
+  private Stream<T> executeChunks(List<ParamQuery> chunks) {
+    QueryOptions chunkOptions = options.chunkSize(0);
+    List<StagedQuery<T>> queries = new ArrayList<>(chunks.size());
+    for (ParamQuery chunk : chunks) {
+      queries.add(new StagedQuery<>(db, mapper, chunk, chunkOptions));
+    }
+
+    if (options.chunkParallelism() > 1) {
+      return new PartitionedQuery<>(queries, db.autoCloseConnection(), db.producers())
+            .parallelism(options.chunkParallelism())
+            .execute();
+    }
+    return new ConcatenatedRows<>(queries).stream();
+  }
+
+  /**
+   * Execute the query, where the results are read with the supplied function, and the
+   * streams of any chunks flattened into one, with each chunk executed as it is reached.
+   */
+  <S extends BaseStream<?, S>> S execute(Results<S> results, Function<Stream<S>, S> flatten) {
+    List<ParamQuery> chunks = query.chunks(options.chunkSize());
+    if (chunks.size() > 1) {
+      QueryOptions chunkOptions = options.chunkSize(0);
+      return flatten.apply(chunks.stream()
+            .map(chunk -> new StagedQuery<>(db, mapper, chunk, chunkOptions).execute(results, flatten)));
+    }
+
+    try {
+      return executeThrowing(results);
+    } catch (SQLException e) {
+      throw new UncheckedSQLException(e);
+    }
+  }
+
+  private Stream<T> executeThrowing() throws SQLException {
+    return executeThrowing((resultSet, resources) -> {
+      ResultSetIterator<T> rows = new ResultSetIterator<>(resultSet, mapper).onClose(resources);
+      if (options.prefetchRows() > 0) {
+        return new PrefetchedRows<>(rows, options.prefetchRows()).start(db.producers()).stream();
+      }
+      return rows.stream();
+    });
+  }
+
+  /**
+   * Execute the statement, passing the result set to the supplied function, which
+   * becomes responsible for closing it and the other resources.
+   */
+  private <R> R executeThrowing(Results<R> results) throws SQLException {
+    QueryTrace trace = db.trace(query.templateSql());
+    Connection connection;
+    try {
+      connection = db.connection();
+    } catch (SQLException | RuntimeException e) {
+      trace.failed(e);
+      trace.end();
+      throw e;
+    }
+    trace.mark(Phase.CONNECTION);
+    QueryResource resources = trace.onClose(QueryResource.connection(connection, db.autoCloseConnection()));
+    ResultSet resultSet;
+
+    try {
+      resources = options.configure(connection, db.autoCloseConnection()).andThen(resources);
+      ParamQuery resolved = query.forConnection(connection);
+      PreparedStatement statement = db.prepare(connection, resolved.sql(), options);
+      resources = db.release(statement).andThen(resources);
+      trace.mark(Phase.PREPARE);
+      resolved.bind(statement);
+      resultSet = trace.resultSet(statement.executeQuery());
+      trace.mark(Phase.EXECUTE);
+    } catch (SQLException | RuntimeException e) {
+      trace.failed(e);
+      closeAfterFailure(resources, e);
+      throw e;
+    }
+    return results.apply(resultSet, resources);
+  }
+
+  /** Read the result set with the supplied function, closing it and the resources afterwards. */
+  private static <R> R consume(ResultSet resultSet, QueryResource resources, ResultSetReader<R> reader)
+        throws SQLException {
+
+    try (QueryResource closeResources = resources; ResultSet closeResultSet = resultSet) {
+      try {
+        return reader.read(resultSet);
+      } catch (SQLException | RuntimeException e) {
+        QueryTrace.failed(resultSet, e);
+        throw e;
+      }
+    }
+  }
+
+  private static void closeAfterFailure(QueryResource resources, Exception failure) {
+    try {
+      resources.close();
+    } catch (SQLException | RuntimeException e) {
+      failure.addSuppressed(e);
+    }
+  }
+
+  private interface ResultSetReader<R> {
+    R read(ResultSet resultSet) throws SQLException;
+  }
+
+  /** Reads the result set of an executed statement, becoming responsible for closing it. */
+  interface Results<R> {
+    R apply(ResultSet resultSet, QueryResource resources) throws SQLException;
   }
 
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.softpres.donkeysql.params.MismatchedParametersException;
+import org.softpres.donkeysql.params.ParamQuery;
+import org.softpres.donkeysql.params.Template;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Holder for all the information that an INSERT, UPDATE or DELETE statement needs to
+ * be performed, allowing either named or indexed parameters to be supplied. The statement
+ * is prepared with the {@link QueryOptions} of the {@link DB}, such as the query timeout.
+ */
+public class StagedUpdate {
+
+  private final DB db;
+  private final Template template;
+  private final Map<String, Object> named;
+  private Object[] indexed;
+  private String[] keyColumns;
+
+  StagedUpdate(DB db, Template template) {
+    this.db = db;
+    this.template = template;
+    named = new HashMap<>();
+  }
+
+  /**
+   * Allow providing successive named parameters for the configured SQL.
+   * An {@link UncheckedSQLException} will be thrown on execution in response to
+   * JDBC reporting a parameter is missing.
+   *
+   * @throws IllegalStateException if indexed parameters have already been supplied.
+   */
+  public StagedUpdate param(String name, Object value) {
+    if (indexed != null) {
+      throw new IllegalStateException("Named parameters cannot be mixed with indexed parameters");
+    }
+    named.put(name, value);
+    return this;
+  }
+
+  /**
+   * Supply all the parameters required to satisfy the '?' placeholders specified
+   * in the supplied SQL.
+   *
+   * @throws MismatchedParametersException on execution if the required param count was
+   * not the same as those supplied.
+   * @throws IllegalStateException if named parameters have already been supplied.
+   */
+  public StagedUpdate params(Object... params) {
+    if (!named.isEmpty()) {
+      throw new IllegalStateException("Indexed parameters cannot be mixed with named parameters");
+    }
+    indexed = params;
+    return this;
+  }
+
+  /**
+   * The columns of the generated keys to return, which some drivers require, such as
+   * Oracle, and which others otherwise return all the columns of, such as PostgreSQL.
+   * By default, the driver chooses the columns.
+   */
+  public StagedUpdate keyColumns(String... columns) {
+    keyColumns = columns;
+    return this;
+  }
+
+  /**
+   * Fluent mechanism for peeking at the resulting (logical) SQL statement,
+   * where any parameters are replaced with their respective values.
+   */
+  public StagedUpdate peek(Consumer<String> sql) {
+    sql.accept(query().toString());
+    return this;
+  }
+
+  /** Execute the statement, returning the number of rows affected. */
+  public int execute() {
+    try {
+      return executeThrowing();
+    } catch (SQLException e) {
+      throw new UncheckedSQLException(e);
+    }
+  }
+
+  /**
+   * Execute the statement, such as an INSERT, returning the keys generated by the database
+   * for the affected rows, which are read with the supplied mapper. The statement is always
+   * prepared afresh, rather than taken from the statement cache.
+   *
+   * @see #keyColumns(String...)
+   */
+  public <K> Stream<K> executeForKeys(RowMapper<K> mapper) {
+    List<K> keys = new ArrayList<>();
+    execute(GeneratedKeys.into(keys, mapper));
+    return keys.stream();
+  }
+
+  /**
+   * Execute the statement, returning the first column of the generated keys, such as an
+   * identity column, as longs.
+   *
+   * @see #executeForKeys(RowMapper)
+   */
+  public LongStream executeForLongKeys() {
+    LongStream.Builder keys = LongStream.builder();
+    execute(GeneratedKeys.into(keys));
+    return keys.build();
+  }
+
+  private void execute(GeneratedKeys.Reader keys) {
+    try {
+      Connection connection = db.connection();
+      try (QueryResource c = QueryResource.connection(connection, db.autoCloseConnection())) {
+        ParamQuery query = query().forConnection(connection);
+        try (PreparedStatement statement = GeneratedKeys.prepare(connection, query.sql(), keyColumns)) {
+          db.options().apply(statement, false);
+          query.bind(statement);
+          statement.executeUpdate();
+          GeneratedKeys.read(statement, keys);
+        }
+      }
+    } catch (SQLException e) {
+      throw new UncheckedSQLException(e);
+    }
+  }
+
+  private int executeThrowing() throws SQLException {
+    Connection connection = db.connection();
+    try (QueryResource c = QueryResource.connection(connection, db.autoCloseConnection())) {
+      ParamQuery query = query().forConnection(connection);
+      PreparedStatement statement = db.prepare(connection, query.sql(), db.options());
+      try (QueryResource s = db.release(statement)) {
+        query.bind(statement);
+        return statement.executeUpdate();
+      }
+    }
+  }
+
+  private ParamQuery query() {
+    if (indexed != null) {
+      return ParamQuery.indexed(template, indexed);
+    } else if (!named.isEmpty()) {
+      return ParamQuery.named(template, named);
+    } else {
+      return ParamQuery.none(template.sql());
+    }
+  }
+
+}
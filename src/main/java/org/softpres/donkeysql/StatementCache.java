@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Least-recently-used cache of {@link PreparedStatement}s for a single long-lived
+ * {@link Connection}, keyed by the normalised SQL, which avoids preparing the same statement
+ * on each execution for drivers that do not cache statements themselves.
+ * <p/>
+ * Statements are checked out for the duration of a query, so a statement already in use
+ * (such as by a stream that is still open) is never shared, with a further statement prepared
+ * instead. When returned, the parameters are cleared and the statement kept for reuse unless
+ * an equivalent statement is already cached. Statements evicted to stay within the maximum
+ * size are closed.
+ *
+ * @see DB#cacheStatements(int)
+ */
+public class StatementCache implements AutoCloseable {
+
+  private final Connection connection;
+  private final int maxSize;
+  private final Map<Key, PreparedStatement> idle;
+  private final Set<PreparedStatement> idleStatements;
+  private final Map<PreparedStatement, Key> checkedOut;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  StatementCache(Connection connection, int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Statement cache size must be positive: " + maxSize);
+    }
+    this.connection = connection;
+    this.maxSize = maxSize;
+    idle = new LinkedHashMap<>(16, 0.75f, true);
+    idleStatements = Collections.newSetFromMap(new IdentityHashMap<>());
+    checkedOut = new IdentityHashMap<>();
+  }
+
+  synchronized PreparedStatement checkout(String sql, QueryOptions options) throws SQLException {
+    Key key = new Key(sql, options.isForwardOnly());
+    PreparedStatement statement = idle.remove(key);
+    if (statement != null) {
+      idleStatements.remove(statement);
+      hits++;
+      options.apply(statement, true);
+    } else {
+      misses++;
+      statement = options.prepare(connection, sql);
+    }
+    checkedOut.put(statement, key);
+    return statement;
+  }
+
+  /**
+   * Return a statement for reuse, or close it if it cannot be reused. Statements that have
+   * already been returned are ignored.
+   */
+  synchronized void release(PreparedStatement statement) throws SQLException {
+    Key key = checkedOut.remove(statement);
+    if (key == null && idleStatements.contains(statement)) {
+      return;
+    }
+    if (key == null || idle.containsKey(key) || statement.isClosed()) {
+      statement.close();
+      return;
+    }
+
+    try {
+      statement.clearParameters();
+    } catch (SQLException | RuntimeException e) {
+      statement.close();
+      throw e;
+    }
+    idle.put(key, statement);
+    idleStatements.add(statement);
+    if (idle.size() > maxSize) {
+      evictEldest();
+    }
+  }
+
+  private void evictEldest() throws SQLException {
+    Iterator<PreparedStatement> eldest = idle.values().iterator();
+    PreparedStatement statement = eldest.next();
+    eldest.remove();
+    idleStatements.remove(statement);
+    evictions++;
+    statement.close();
+  }
+
+  /** The maximum number of idle statements retained. */
+  public int maxSize() {
+    return maxSize;
+  }
+
+  /** The number of idle statements currently cached. */
+  public synchronized int size() {
+    return idle.size();
+  }
+
+  /** The number of times a cached statement was reused. */
+  public synchronized long hits() {
+    return hits;
+  }
+
+  /** The number of times a statement had to be prepared. */
+  public synchronized long misses() {
+    return misses;
+  }
+
+  /** The number of statements closed to stay within the maximum size. */
+  public synchronized long evictions() {
+    return evictions;
+  }
+
+  /** Close all the idle statements, which does not close the connection. */
+  @Override
+  public synchronized void close() throws SQLException {
+    SQLException failure = null;
+    for (PreparedStatement statement : idle.values()) {
+      try {
+        statement.close();
+      } catch (SQLException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    idle.clear();
+    idleStatements.clear();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "StatementCache(size=" + idle.size() + ", maxSize=" + maxSize + ", hits=" + hits +
+          ", misses=" + misses + ", evictions=" + evictions + ')';
+  }
+
+  /** Statements differ by their result set type as well as the SQL. */
+  private static class Key {
+    private final String sql;
+    private final boolean forwardOnly;
+
+    Key(String sql, boolean forwardOnly) {
+      this.sql = sql;
+      this.forwardOnly = forwardOnly;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key)other;
+      return forwardOnly == key.forwardOnly && sql.equals(key.sql);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * sql.hashCode() + (forwardOnly ? 1 : 0);
+    }
+  }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Settings applied to the connection for the duration of a transaction, which are
+ * immutable so that they can be shared between transactions. The previous settings of the
+ * connection are restored when the transaction ends.
+ *
+ * @see DB#transaction(TransactionOptions, TransactionWork)
+ */
+public final class TransactionOptions {
+
+  private static final int DRIVER_DEFAULT = -1;
+  private static final TransactionOptions DEFAULTS = new TransactionOptions(DRIVER_DEFAULT, false);
+
+  private final int isolation;
+  private final boolean readOnly;
+
+  private TransactionOptions(int isolation, boolean readOnly) {
+    this.isolation = isolation;
+    this.readOnly = readOnly;
+  }
+
+  /** Options where the isolation level is left as configured for the connection. */
+  public static TransactionOptions defaults() {
+    return DEFAULTS;
+  }
+
+  /**
+   * The transaction isolation level, being one of the {@link Connection} constants
+   * such as {@link Connection#TRANSACTION_READ_COMMITTED}.
+   *
+   * @see Connection#setTransactionIsolation(int)
+   */
+  public TransactionOptions isolation(int level) {
+    switch (level) {
+      case Connection.TRANSACTION_READ_UNCOMMITTED:
+      case Connection.TRANSACTION_READ_COMMITTED:
+      case Connection.TRANSACTION_REPEATABLE_READ:
+      case Connection.TRANSACTION_SERIALIZABLE:
+        return new TransactionOptions(level, readOnly);
+      default:
+        throw new IllegalArgumentException("Unknown transaction isolation level: " + level);
+    }
+  }
+
+  /**
+   * Hint to the driver that the transaction will only read, which it may use to enable
+   * optimisations, or to reject updates.
+   *
+   * @see Connection#setReadOnly(boolean)
+   */
+  public TransactionOptions readOnly() {
+    return new TransactionOptions(isolation, true);
+  }
+
+  /**
+   * Begin the transaction on the connection, returning a resource to restore its previous
+   * settings, in reverse order, when done.
+   */
+  QueryResource begin(Connection connection) throws SQLException {
+    QueryResource restore = () -> { };
+    QueryResource undo;
+
+    try {
+      if (isolation != DRIVER_DEFAULT && connection.getTransactionIsolation() != isolation) {
+        int previous = connection.getTransactionIsolation();
+        connection.setTransactionIsolation(isolation);
+        undo = () -> connection.setTransactionIsolation(previous);
+        restore = undo.andThen(restore);
+      }
+      if (readOnly && !connection.isReadOnly()) {
+        connection.setReadOnly(true);
+        undo = () -> connection.setReadOnly(false);
+        restore = undo.andThen(restore);
+      }
+      if (connection.getAutoCommit()) {
+        connection.setAutoCommit(false);
+        undo = () -> connection.setAutoCommit(true);
+        restore = undo.andThen(restore);
+      }
+    } catch (SQLException | RuntimeException e) {
+      try {
+        restore.close();
+      } catch (SQLException | RuntimeException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw e;
+    }
+    return restore;
+  }
+
+  @Override
+  public String toString() {
+    return "TransactionOptions(isolation=" + isolation + ", readOnly=" + readOnly + ')';
+  }
+
+}
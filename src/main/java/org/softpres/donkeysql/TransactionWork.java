@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import java.sql.SQLException;
+
+/**
+ * The queries and updates to perform within a transaction, using the supplied {@link DB},
+ * which is bound to the connection of the transaction.
+ *
+ * @see DB#transaction(javax.sql.DataSource, TransactionWork)
+ */
+@FunctionalInterface
+public interface TransactionWork<R> {
+
+  R apply(DB transaction) throws SQLException;
+
+}
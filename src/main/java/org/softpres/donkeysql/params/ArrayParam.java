@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql.params;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * A named parameter value bound as a single JDBC {@link Array}, rather than being expanded
+ * into a placeholder for each element like other iterable values. This keeps the statement
+ * the same whatever the number of elements, which is better for very large lists.
+ * <p/>
+ * Where used in an IN-list, such as {@code id IN (:ids)}, the statement is rewritten to
+ * the equivalent array form for the database, which is {@code id = ANY(?)} on PostgreSQL and
+ * {@code id IN (UNNEST(?))} on H2. Other databases fall back to expanding the elements.
+ * Elsewhere, such as {@code id = ANY(:ids)} or when inserting into an array column, the
+ * value is always bound as an array.
+ */
+public final class ArrayParam {
+
+  private final String typeName;
+  private final List<?> values;
+
+  private ArrayParam(String typeName, List<?> values) {
+    this.typeName = typeName;
+    this.values = values;
+  }
+
+  /**
+   * @param typeName the SQL name of the element type, as required by the database
+   *                 for {@link Connection#createArrayOf(String, Object[])}, e.g. "integer".
+   */
+  public static ArrayParam of(String typeName, Iterable<?> values) {
+    List<Object> list = new ArrayList<>();
+    values.forEach(list::add);
+    return new ArrayParam(typeName, list);
+  }
+
+  /** @see #of(String, Iterable) */
+  public static ArrayParam of(String typeName, Object... values) {
+    return new ArrayParam(typeName, Arrays.asList(values));
+  }
+
+  public String typeName() {
+    return typeName;
+  }
+
+  public List<?> values() {
+    return values;
+  }
+
+  Array toArray(Connection connection) throws SQLException {
+    return connection.createArrayOf(typeName, values.toArray());
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof ArrayParam)) {
+      return false;
+    }
+    ArrayParam array = (ArrayParam)other;
+    return typeName.equals(array.typeName) && values.equals(array.values);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * typeName.hashCode() + values.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return values.stream()
+          .map(Humanise::paramValue)
+          .collect(joining(",", "ARRAY[", "]"));
+  }
+
+}
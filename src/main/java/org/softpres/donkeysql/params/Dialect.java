@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql.params;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Locale;
+
+/**
+ * Database specific forms of SQL, which are only looked up from the connection
+ * metadata when a statement requires them.
+ */
+enum Dialect {
+
+  H2 {
+    @Override
+    String inArray(boolean negated) {
+      return negated ? "NOT IN (UNNEST(?))" : "IN (UNNEST(?))";
+    }
+  },
+
+  POSTGRESQL {
+    @Override
+    String inArray(boolean negated) {
+      return negated ? "<> ALL(?)" : "= ANY(?)";
+    }
+  },
+
+  OTHER {
+    @Override
+    String inArray(boolean negated) {
+      return null;
+    }
+  };
+
+  /**
+   * The replacement for "IN (?)" (or "NOT IN (?)") where the placeholder is bound to
+   * an array, or null if arrays are not supported in this way.
+   */
+  abstract String inArray(boolean negated);
+
+  static Dialect of(Connection connection) throws SQLException {
+    String product = connection.getMetaData().getDatabaseProductName().toLowerCase(Locale.ROOT);
+    if (product.equals("h2")) {
+      return H2;
+    } else if (product.contains("postgres")) {
+      return POSTGRESQL;
+    }
+    return OTHER;
+  }
+
+}
@@ -8,12 +8,15 @@ package org.softpres.donkeysql.params;
  * Provides utility functions used when formatting SQL statements for humans,
  * where it is used by multiple {@link ParamQuery} implementations.
  */
-class Humanise {
+public class Humanise {
 
-  static String paramValue(Object param) {
+  private Humanise() {}
+
+  /** Format a parameter value as a literal, quoting all but numbers and NULL. */
+  public static String paramValue(Object param) {
     if (param == null) {
       return "NULL";
-    } else if (param instanceof Number) {
+    } else if (param instanceof Number || param instanceof ArrayParam) {
       return param.toString();
     } else {
       return '\'' + param.toString() + '\'';
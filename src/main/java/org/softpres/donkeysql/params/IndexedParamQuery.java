@@ -3,46 +3,53 @@
  */
 package org.softpres.donkeysql.params;
 
-import org.softpres.donkeysql.tokeniser.StatementTokeniser;
-import org.softpres.donkeysql.tokeniser.Tokens;
+import org.softpres.donkeysql.tokeniser.ParamSpans;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-
-import static java.util.stream.Collectors.joining;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Associates an indexed parameterised SQL statement with the values to populate it.
  */
 class IndexedParamQuery implements ParamQuery {
 
-  private final String sql;
+  private final Template template;
   private final Object[] params;
 
   IndexedParamQuery(String sql, Object[] params) {
-    this.sql = sql;
+    this(TemplateCache.shared().get(sql), params);
+  }
+
+  IndexedParamQuery(Template template, Object[] params) {
+    this.template = template;
     this.params = params;
   }
 
   @Override
-  public PreparedStatement createStatement(Connection connection) throws SQLException {
-    PreparedStatement statement = connection.prepareStatement(sql);
-    applyParameters(statement);
-    return statement;
+  public String sql() {
+    return template.sql();
   }
 
-  private void applyParameters(PreparedStatement statement) throws SQLException {
-    check();
+  @Override
+  public List<Object> values() {
+    return Collections.unmodifiableList(Arrays.asList(params));
+  }
+
+  @Override
+  public void bind(PreparedStatement statement) throws SQLException {
+    check(template, params);
 
     for (int i = 0; i < params.length; i++) {
       statement.setObject(i + 1, params[i]);
     }
   }
 
-  private void check() {
-    if (count(sql) != params.length) {
-      throw new MismatchedParametersException(sql, params);
+  private static void check(Template template, Object[] params) {
+    if (template.indexedParams() != params.length) {
+      throw new MismatchedParametersException(template.sql(), params);
     }
   }
 
@@ -51,14 +58,12 @@ class IndexedParamQuery implements ParamQuery {
    * '?' characters existing within quoted values.
    */
   static long count(String statement) {
-    return StatementTokeniser.tokenise(statement).stream()
-          .filter(token -> token instanceof Tokens.IndexedParam)
-          .count();
+    return TemplateCache.shared().get(statement).indexedParams();
   }
 
   @Override
   public String toString() {
-    return humanise(sql, params);
+    return humanise(template, params);
   }
 
   /**
@@ -68,31 +73,25 @@ class IndexedParamQuery implements ParamQuery {
    * @param statement an SQL statement, which should have been normalised (no named params).
    */
   static String humanise(String statement, Object... params) {
-    if (count(statement) != params.length) {
-      throw new MismatchedParametersException(statement, params);
-    }
-
-    ParamIterator paramIterator = new ParamIterator(params);
-
-    return StatementTokeniser.tokenise(statement).stream()
-          .map(token -> token instanceof Tokens.IndexedParam ?
-                Humanise.paramValue(paramIterator.next()) : token.text)
-          .collect(joining());
+    return humanise(TemplateCache.shared().get(statement), params);
   }
 
-  /** Allows iteration of parameters. Assumes count has already been validated. */
-  private static class ParamIterator {
-    private int index;
-    private final Object[] params;
-
-    ParamIterator(Object[] params) {
-      index = 0;
-      this.params = params;
-    }
-
-    Object next() {
-      return params[index++];
+  private static String humanise(Template template, Object[] params) {
+    check(template, params);
+
+    String sql = template.sql();
+    ParamSpans spans = template.spans();
+    StringBuilder result = new StringBuilder(sql.length() + params.length * 8);
+    int position = 0;
+    int param = 0;
+    for (int i = 0; i < spans.size(); i++) {
+      if (spans.kind(i) == ParamSpans.Kind.INDEXED) {
+        result.append(sql, position, spans.offset(i))
+              .append(Humanise.paramValue(params[param++]));
+        position = spans.end(i);
+      }
     }
+    return result.append(sql, position, sql.length()).toString();
   }
 
 }
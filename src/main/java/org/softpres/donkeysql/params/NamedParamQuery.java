@@ -3,128 +3,322 @@
  */
 package org.softpres.donkeysql.params;
 
-import org.softpres.donkeysql.tokeniser.StatementTokeniser;
-import org.softpres.donkeysql.tokeniser.Tokens.NamedParam;
-import org.softpres.donkeysql.tokeniser.Tokens.OptimisedNamedParam;
-import org.softpres.donkeysql.tokeniser.Tokens.Punc;
-import org.softpres.donkeysql.tokeniser.Tokens.Token;
-
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
-import static java.util.stream.Collectors.joining;
-import static java.util.stream.Collectors.toList;
-
 /**
  * Associates a "named" parameterised SQL statement with the values to populate it.
  */
 class NamedParamQuery implements ParamQuery {
 
-  private final String sql;
+  private final Template template;
   private final Map<String, Object> params;
+  private final Dialect dialect;
 
   NamedParamQuery(String sql, Map<String, Object> params) {
-    this.sql = sql;
+    this(TemplateCache.shared().get(sql), params);
+  }
+
+  NamedParamQuery(Template template, Map<String, Object> params) {
+    this(template, params, null);
+  }
+
+  /**
+   * @param dialect of the database, which is only needed for {@link ArrayParam} values,
+   *                and null when unknown.
+   */
+  private NamedParamQuery(Template template, Map<String, Object> params, Dialect dialect) {
+    this.template = template;
     this.params = params;
+    this.dialect = dialect;
+  }
+
+  @Override
+  public String sql() {
+    return normalise();
   }
 
   @Override
-  public PreparedStatement createStatement(Connection connection) throws SQLException {
-    String normalisedSQL = normalise();
-    PreparedStatement statement = connection.prepareStatement(normalisedSQL);
-    applyParameters(statement);
-    return statement;
+  public String templateSql() {
+    return template.sql();
+  }
+
+  @Override
+  public void bind(PreparedStatement statement) throws SQLException {
+    bind(template, resolve(template, params), dialect, (position, value) -> {
+      if (value instanceof ArrayParam) {
+        statement.setArray(position, ((ArrayParam)value).toArray(statement.getConnection()));
+      } else {
+        statement.setObject(position, value);
+      }
+    });
+  }
+
+  /** Only array values depend on the database, so the metadata is not queried otherwise. */
+  @Override
+  public ParamQuery forConnection(Connection connection) throws SQLException {
+    if (dialect == null && containsArray(template.values(params))) {
+      return new NamedParamQuery(template, params, Dialect.of(connection));
+    }
+    return this;
+  }
+
+  private static boolean containsArray(Object[] values) {
+    for (Object value : values) {
+      if (value instanceof ArrayParam) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public List<ParamQuery> chunks(int size) {
+    if (size <= 0) {
+      return Collections.singletonList(this);
+    }
+
+    List<Map<String, Object>> chunks = Collections.singletonList(params);
+    for (int i = 0; i < template.nameCount(); i++) {
+      String name = template.name(i);
+      Object value = params.get(name);
+      if (value instanceof Iterable<?>) {
+        List<?> list = Streams.list((Iterable<?>)value);
+        int chunkSize = template.optimisedName(i) ? PowerOfTwo.previous(size) : size;
+        if (list.size() > chunkSize) {
+          chunks = split(chunks, name, list, chunkSize);
+        }
+      }
+    }
+
+    if (chunks.size() == 1) {
+      return Collections.singletonList(this);
+    }
+    List<ParamQuery> queries = new ArrayList<>(chunks.size());
+    for (Map<String, Object> chunk : chunks) {
+      queries.add(new NamedParamQuery(template, chunk, dialect));
+    }
+    return queries;
+  }
+
+  /** Combine each of the existing parameter sets with each chunk of the list. */
+  private static List<Map<String, Object>> split(
+        List<Map<String, Object>> paramSets, String name, List<?> list, int chunkSize) {
+
+    List<Map<String, Object>> result = new ArrayList<>();
+    for (Map<String, Object> paramSet : paramSets) {
+      for (int from = 0; from < list.size(); from += chunkSize) {
+        Map<String, Object> chunk = new HashMap<>(paramSet);
+        chunk.put(name, list.subList(from, Math.min(from + chunkSize, list.size())));
+        result.add(chunk);
+      }
+    }
+    return result;
   }
 
   /**
    * Replace all the named parameters in an SQL statement with the standard question marks.
    */
   String normalise() {
-    return normalisedTokens(sql, params::get)
-          .map(token -> token.text)
-          .collect(joining());
+    return normalise(template, resolve(template, params), dialect);
+  }
+
+  /**
+   * Lookup the value for each distinct parameter, where any iterables are converted to lists
+   * so they can be expanded multiple times, and their elements accessed by index in constant
+   * time (so linked lists are copied).
+   */
+  private static Object[] resolve(Template template, Map<String, Object> params) {
+    Object[] values = template.values(params);
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] instanceof Iterable<?>) {
+        List<?> list = Streams.list((Iterable<?>)values[i]);
+        values[i] = list instanceof RandomAccess ? list : new ArrayList<>(list);
+      }
+    }
+    return values;
   }
 
-  private static Stream<Token> normalisedTokens(String sql, Function<String, Object> lookupValue) {
-    return StatementTokeniser.tokenise(sql).stream()
-          .flatMap((Token token) -> expand(token, lookupValue));
+  private static String normalise(Template template, Object[] values, Dialect dialect) {
+    if (!expansionRequired(values)) {
+      return template.normalised();
+    }
+    return render(template, values, dialect, value -> "?");
   }
 
-  /** Repeat parameters when iterable value exists.  */
-  private static Stream<Token> expand(Token token, Function<String, Object> lookupValue) {
-    if (token instanceof NamedParam) {
-      Object value = lookupValue.apply(token.text);
-      if (value instanceof Iterable<?>) {
-        return expandedValues((Iterable<?>)value, token.getClass());
+  /**
+   * Build the statement from the template, writing each value (including each element of
+   * expanded iterables) with the supplied function, in a single linear pass.
+   */
+  private static String render(
+        Template template, Object[] values, Dialect dialect, Function<Object, String> writer) {
+
+    StringBuilder sql = new StringBuilder(template.normalised().length() + 16);
+    int placeholders = template.slotCount();
+    int skip = 0;
+    for (int i = 0; i < placeholders; i++) {
+      String fragment = template.fragment(i);
+      sql.append(fragment, skip, fragment.length());
+      skip = 0;
+
+      Object value = values[template.slot(i)];
+      List<?> expansion = expansion(template, i, value, dialect);
+      if (expansion != null) {
+        appendExpanded(sql, template, i, expansion, writer);
+      } else if (value instanceof ArrayParam && inList(template, i)) {
+        int start = inListStart(fragment);
+        sql.setLength(sql.length() - (fragment.length() - start));
+        sql.append(dialect.inArray(fragment.regionMatches(true, start, "NOT", 0, 3)));
+        skip = inListEnd(template.fragment(i + 1));
       } else {
-        return Stream.of(new ValueParam(value));
+        sql.append(writer.apply(value));
       }
     }
-    return Stream.of(token);
+    String last = template.fragment(placeholders);
+    return sql.append(last, skip, last.length()).toString();
   }
 
-  private static Stream<Token> expandedValues(Iterable<?> iterable, Class<? extends Token> type) {
-    return Streams.intersperse(
-          optimise(iterable, type).map(ValueParam::new),
-          new Punc(',')
-    );
+  /** Only iterable and array values change the shape of the statement from that cached in the template. */
+  private static boolean expansionRequired(Object[] values) {
+    for (Object value : values) {
+      if (value instanceof List<?> || value instanceof ArrayParam) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
-   * When indicated by use of the {@link OptimisedNamedParam} token, expand iterable values
-   * to a power of 2 (by repeating the last element), giving SQL optimisers a better chance
-   * of caching the {@link PreparedStatement} on IN operators (assumes users will only specify
-   * when used on IN operator.
+   * The elements to expand into a placeholder each, or null if the value is bound to a single
+   * placeholder. Arrays are expanded in IN-lists when the database does not support the
+   * array form, or is unknown (as when humanising the statement).
    */
-  private static Stream<?> optimise(Iterable<?> iterable, Class<? extends Token> type) {
-    if (type.equals(OptimisedNamedParam.class)) {
-      List<?> list = Streams.list(iterable);
-      return Streams.padWithLastTo(list, PowerOfTwo.nextOrZero(list.size()));
-    } else {
-      return Streams.from(iterable);
+  private static List<?> expansion(Template template, int placeholder, Object value, Dialect dialect) {
+    if (value instanceof List<?>) {
+      return (List<?>)value;
+    } else if (value instanceof ArrayParam && inList(template, placeholder) &&
+          (dialect == null || dialect.inArray(false) == null)) {
+      return ((ArrayParam)value).values();
     }
+    return null;
   }
 
-  private void applyParameters(PreparedStatement statement) throws SQLException {
-    List<Object> values = parameterValues(sql, params).collect(toList());
+  /** Whether the placeholder is the only item within "IN (...)". */
+  private static boolean inList(Template template, int placeholder) {
+    return inListStart(template.fragment(placeholder)) >= 0 &&
+          inListEnd(template.fragment(placeholder + 1)) >= 0;
+  }
+
+  /** Position of the "IN (" or "NOT IN (" ending the fragment, or -1 if there is none. */
+  private static int inListStart(String fragment) {
+    int i = skipWhitespaceBackwards(fragment, fragment.length() - 1);
+    if (i < 0 || fragment.charAt(i) != '(') {
+      return -1;
+    }
+    i = skipWhitespaceBackwards(fragment, i - 1);
+    if (i < 1 || !fragment.regionMatches(true, i - 1, "IN", 0, 2) || isWordPart(fragment, i - 2)) {
+      return -1;
+    }
 
-    for (int i = 0; i < values.size(); i++) {
-      statement.setObject(i + 1, values.get(i));
+    int start = i - 1;
+    int not = skipWhitespaceBackwards(fragment, start - 1);
+    if (not < start - 1 && not >= 2 &&
+          fragment.regionMatches(true, not - 2, "NOT", 0, 3) && !isWordPart(fragment, not - 3)) {
+      return not - 2;
     }
+    return start;
   }
 
-  static Stream<Object> parameterValues(String statement, Map<String, Object> values) {
-    return normalisedTokens(statement, values::get)
-          .filter(token -> token instanceof ValueParam)
-          .map(token -> ((ValueParam)token).value);
+  /** Number of characters up to and including the ")" starting the fragment, or -1 if there is none. */
+  private static int inListEnd(String fragment) {
+    int i = 0;
+    while (i < fragment.length() && Character.isWhitespace(fragment.charAt(i))) {
+      i++;
+    }
+    return i < fragment.length() && fragment.charAt(i) == ')' ? i + 1 : -1;
   }
 
-  @Override
-  public String toString() {
-    return normalisedTokens(sql, params::get)
-          .map(this::humanise)
-          .collect(joining());
+  private static int skipWhitespaceBackwards(String text, int index) {
+    while (index >= 0 && Character.isWhitespace(text.charAt(index))) {
+      index--;
+    }
+    return index;
   }
 
-  private String humanise(Token token) {
-    return token instanceof ValueParam ?
-          Humanise.paramValue(((ValueParam)token).value) :
-          token.text;
+  private static boolean isWordPart(String text, int index) {
+    return index >= 0 && (Character.isLetterOrDigit(text.charAt(index)) || text.charAt(index) == '_');
   }
 
-  /** Represents a parameter with an associated value. */
-  public static class ValueParam extends Token {
-    final Object value;
+  private static void appendExpanded(
+        StringBuilder sql, Template template, int placeholder, List<?> list, Function<Object, String> writer) {
 
-    ValueParam(Object value) {
-      super("?");
-      this.value = value;
+    int size = expandedSize(template, placeholder, list);
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        sql.append(',');
+      }
+      sql.append(writer.apply(expandedValue(list, i)));
     }
   }
 
+  /**
+   * The number of placeholders for an iterable value. When indicated by an '@' parameter,
+   * iterable values are expanded to a power of 2 (by repeating the last element), giving
+   * SQL optimisers a better chance of caching the {@link PreparedStatement} on IN operators
+   * (assumes users will only specify when used on IN operator).
+   */
+  private static int expandedSize(Template template, int placeholder, List<?> list) {
+    return template.optimised(placeholder) ? PowerOfTwo.nextOrZero(list.size()) : list.size();
+  }
+
+  /** Supply each value to the binder in JDBC parameter order, expanding any iterables. */
+  private static <E extends Exception> void bind(
+        Template template, Object[] values, Dialect dialect, Binder<E> binder) throws E {
+
+    int position = 1;
+    int placeholders = template.slotCount();
+    for (int i = 0; i < placeholders; i++) {
+      Object value = values[template.slot(i)];
+      List<?> list = expansion(template, i, value, dialect);
+      if (list != null) {
+        int size = expandedSize(template, i, list);
+        for (int j = 0; j < size; j++) {
+          binder.bind(position++, expandedValue(list, j));
+        }
+      } else {
+        binder.bind(position++, value);
+      }
+    }
+  }
+
+  /** Receives each parameter value along with its JDBC position. */
+  private interface Binder<E extends Exception> {
+    void bind(int position, Object value) throws E;
+  }
+
+  /** Element of an expanded iterable, where the last element is repeated for any padding. */
+  private static Object expandedValue(List<?> list, int index) {
+    return list.get(Math.min(index, list.size() - 1));
+  }
+
+  @Override
+  public List<Object> values() {
+    List<Object> values = new ArrayList<>();
+    bind(template, resolve(template, params), dialect, (position, value) -> values.add(value));
+    return values;
+  }
+
+  static Stream<Object> parameterValues(String statement, Map<String, Object> params) {
+    return new NamedParamQuery(statement, params).values().stream();
+  }
+
+  @Override
+  public String toString() {
+    return render(template, resolve(template, params), dialect, Humanise::paramValue);
+  }
+
 }
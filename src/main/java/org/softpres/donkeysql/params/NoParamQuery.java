@@ -3,9 +3,7 @@
  */
 package org.softpres.donkeysql.params;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
-import java.sql.SQLException;
 
 /**
  * Query where no parameters have been supplied.
@@ -19,8 +17,13 @@ class NoParamQuery implements ParamQuery {
   }
 
   @Override
-  public PreparedStatement createStatement(Connection connection) throws SQLException {
-    return connection.prepareStatement(sql);
+  public String sql() {
+    return sql;
+  }
+
+  @Override
+  public void bind(PreparedStatement statement) {
+    // Nothing to bind
   }
 
   @Override
@@ -6,6 +6,8 @@ package org.softpres.donkeysql.params;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -13,18 +15,88 @@ import java.util.Map;
  */
 public interface ParamQuery {
 
-  PreparedStatement createStatement(Connection connection) throws SQLException;
+  /** The statement to prepare, where any named parameters are replaced with '?' placeholders. */
+  String sql();
+
+  /**
+   * The statement as written, before any iterable parameters are expanded, which identifies
+   * executions of the same query regardless of the parameter values.
+   */
+  default String templateSql() {
+    return sql();
+  }
+
+  /** Apply the parameter values to a statement prepared from {@link #sql()}. */
+  void bind(PreparedStatement statement) throws SQLException;
+
+  /**
+   * The values bound by {@link #bind(PreparedStatement)}, in parameter order, which along
+   * with {@link #sql()} identify the results of the query.
+   */
+  default List<Object> values() {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Split the query so that no iterable parameter expands to more than the specified number
+   * of elements, where zero means no limit. Queries without iterable parameters return
+   * only themselves.
+   */
+  default List<ParamQuery> chunks(int size) {
+    return Collections.singletonList(this);
+  }
+
+  /**
+   * The query to execute on the specified connection, which may differ where the statement
+   * depends on the database, such as when binding an {@link ArrayParam}.
+   */
+  default ParamQuery forConnection(Connection connection) throws SQLException {
+    return this;
+  }
+
+  default PreparedStatement createStatement(Connection connection) throws SQLException {
+    ParamQuery query = forConnection(connection);
+    PreparedStatement statement = connection.prepareStatement(query.sql());
+    try {
+      query.bind(statement);
+    } catch (SQLException | RuntimeException e) {
+      statement.close();
+      throw e;
+    }
+    return statement;
+  }
 
   static ParamQuery indexed(String sql, Object[] params) {
     return new IndexedParamQuery(sql, params);
   }
 
+  static ParamQuery indexed(Template template, Object[] params) {
+    return new IndexedParamQuery(template, params);
+  }
+
   static ParamQuery named(String sql, Map<String, Object> params) {
     return new NamedParamQuery(sql, params);
   }
 
+  static ParamQuery named(Template template, Map<String, Object> params) {
+    return new NamedParamQuery(template, params);
+  }
+
   static ParamQuery none(String sql) {
     return new NoParamQuery(sql);
   }
 
+  /**
+   * Compile the SQL statement once so that it can be reused for any number of executions,
+   * possibly from different threads.
+   */
+  static Template template(String sql) {
+    return TemplateCache.shared().get(sql);
+  }
+
+  /** The cache of parsed statements used by named and indexed queries. */
+  static TemplateCache templateCache() {
+    return TemplateCache.shared();
+  }
+
 }
@@ -4,7 +4,7 @@
 package org.softpres.donkeysql.params;
 
 /**
- * Facility to compute the next nearest power of two.
+ * Facility to compute the nearest powers of two.
  */
 class PowerOfTwo {
 
@@ -17,4 +17,9 @@ class PowerOfTwo {
     }
   }
 
+  /** Return the largest power of two no greater than i, or zero when i=0. */
+  static int previous(int i) {
+    return Integer.highestOneBit(i);
+  }
+
 }
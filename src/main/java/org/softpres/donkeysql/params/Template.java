@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql.params;
+
+import org.softpres.donkeysql.tokeniser.ParamSpans;
+import org.softpres.donkeysql.tokeniser.ParamSpans.Kind;
+import org.softpres.donkeysql.tokeniser.StatementTokeniser;
+
+import java.util.*;
+
+/**
+ * The compiled form of an SQL statement, which is immutable so that it can be shared
+ * between threads and executions of the same statement by the {@link TemplateCache}.
+ * <p/>
+ * Named parameters are compiled into a binding plan, where each placeholder (slot) refers
+ * to an index within the distinct parameter names. This allows binding values with a
+ * simple loop, looking up each named value only once.
+ */
+public final class Template {
+
+  private final String sql;
+  private final ParamSpans spans;
+  private final String[] names;
+  private final int[] slots;
+  private final boolean[] optimised;
+  private final String[] fragments;
+  private final int indexedParams;
+  private final String normalised;
+
+  private Template(ParamSpans spans) {
+    this.spans = spans;
+    sql = spans.sql();
+
+    Map<String, Integer> distinct = new LinkedHashMap<>();
+    List<Integer> slotList = new ArrayList<>();
+    List<Boolean> optimisedList = new ArrayList<>();
+    List<String> fragmentList = new ArrayList<>();
+    StringBuilder normalisedSql = new StringBuilder(sql.length());
+    int position = 0;
+    int indexed = 0;
+
+    for (int i = 0; i < spans.size(); i++) {
+      if (spans.kind(i) == Kind.INDEXED) {
+        indexed++;
+      } else {
+        Integer slot = distinct.computeIfAbsent(spans.name(i), name -> distinct.size());
+        slotList.add(slot);
+        optimisedList.add(spans.kind(i) == Kind.OPTIMISED_NAMED);
+        fragmentList.add(sql.substring(position, spans.offset(i)));
+        normalisedSql.append(sql, position, spans.offset(i)).append('?');
+        position = spans.end(i);
+      }
+    }
+    fragmentList.add(sql.substring(position));
+    normalisedSql.append(sql, position, sql.length());
+
+    names = distinct.keySet().toArray(new String[0]);
+    slots = slotList.stream().mapToInt(Integer::intValue).toArray();
+    optimised = new boolean[slots.length];
+    for (int i = 0; i < optimised.length; i++) {
+      optimised[i] = optimisedList.get(i);
+    }
+    fragments = fragmentList.toArray(new String[0]);
+    indexedParams = indexed;
+    normalised = normalisedSql.toString();
+  }
+
+  static Template compile(String sql) {
+    return new Template(StatementTokeniser.scan(sql));
+  }
+
+  /** The statement as originally supplied. */
+  public String sql() {
+    return sql;
+  }
+
+  /** Positions of all the parameters within the original statement. */
+  ParamSpans spans() {
+    return spans;
+  }
+
+  /** Names of the named parameters in the order they occur, including duplicates. */
+  List<String> namedParams() {
+    List<String> result = new ArrayList<>(slots.length);
+    for (int slot : slots) {
+      result.add(names[slot]);
+    }
+    return result;
+  }
+
+  /** Number of distinct named parameters. */
+  int nameCount() {
+    return names.length;
+  }
+
+  String name(int index) {
+    return names[index];
+  }
+
+  /** Whether any placeholder for the named parameter should be padded when expanded. */
+  boolean optimisedName(int index) {
+    for (int i = 0; i < slots.length; i++) {
+      if (slots[i] == index && optimised[i]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Number of named placeholders, each of which refers to an index of {@link #values}. */
+  int slotCount() {
+    return slots.length;
+  }
+
+  /** Index of the value to be bound at the specified placeholder. */
+  int slot(int placeholder) {
+    return slots[placeholder];
+  }
+
+  /** Whether the placeholder should be padded for statement caching when expanded. */
+  boolean optimised(int placeholder) {
+    return optimised[placeholder];
+  }
+
+  /** The SQL text preceding the specified placeholder, or following the last when equal to the count. */
+  String fragment(int placeholder) {
+    return fragments[placeholder];
+  }
+
+  /** Lookup each of the distinct named parameter values once, in the order required by the slots. */
+  Object[] values(Map<String, Object> params) {
+    Object[] values = new Object[names.length];
+    for (int i = 0; i < names.length; i++) {
+      values[i] = params.get(names[i]);
+    }
+    return values;
+  }
+
+  /** Number of '?' placeholders, not including any existing within quoted values. */
+  int indexedParams() {
+    return indexedParams;
+  }
+
+  /**
+   * The statement with all named parameters replaced with the standard question marks,
+   * which is only correct when none of the parameter values need expanding.
+   */
+  String normalised() {
+    return normalised;
+  }
+
+}
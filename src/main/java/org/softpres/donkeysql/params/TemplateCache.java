@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql.params;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of tokenised SQL statements keyed by the SQL text, so that statements
+ * executed repeatedly need only be parsed once. The cache is safe for concurrent use,
+ * where the oldest entries are evicted first when the size limit is exceeded.
+ */
+public class TemplateCache {
+
+  static final int DEFAULT_MAX_SIZE = 1024;
+
+  private static final TemplateCache SHARED = new TemplateCache(DEFAULT_MAX_SIZE);
+
+  private final ConcurrentMap<String, Template> templates;
+  private final Queue<String> insertionOrder;
+  private final LongAdder hits;
+  private final LongAdder misses;
+  private final LongAdder evictions;
+  private volatile int maxSize;
+
+  TemplateCache(int maxSize) {
+    templates = new ConcurrentHashMap<>();
+    insertionOrder = new ConcurrentLinkedQueue<>();
+    hits = new LongAdder();
+    misses = new LongAdder();
+    evictions = new LongAdder();
+    this.maxSize = checkSize(maxSize);
+  }
+
+  /** The cache used by all queries. */
+  static TemplateCache shared() {
+    return SHARED;
+  }
+
+  Template get(String sql) {
+    Template template = templates.get(sql);
+    if (template != null) {
+      hits.increment();
+      return template;
+    }
+
+    misses.increment();
+    Template compiled = Template.compile(sql);
+    Template existing = templates.putIfAbsent(sql, compiled);
+    if (existing != null) {
+      return existing;
+    }
+    insertionOrder.add(sql);
+    evictExcess();
+    return compiled;
+  }
+
+  private void evictExcess() {
+    while (templates.size() > maxSize) {
+      String eldest = insertionOrder.poll();
+      if (eldest == null) {
+        return;
+      }
+      if (templates.remove(eldest) != null) {
+        evictions.increment();
+      }
+    }
+  }
+
+  /**
+   * Set the maximum number of statements to retain, evicting any excess immediately.
+   * A size of zero effectively disables caching.
+   */
+  public TemplateCache maxSize(int maxSize) {
+    this.maxSize = checkSize(maxSize);
+    evictExcess();
+    return this;
+  }
+
+  public int maxSize() {
+    return maxSize;
+  }
+
+  /** The number of statements currently cached. */
+  public int size() {
+    return templates.size();
+  }
+
+  /** The number of lookups that were satisfied by the cache. */
+  public long hits() {
+    return hits.sum();
+  }
+
+  /** The number of lookups that required the statement to be parsed. */
+  public long misses() {
+    return misses.sum();
+  }
+
+  /** The number of statements removed to keep within the size limit. */
+  public long evictions() {
+    return evictions.sum();
+  }
+
+  /** Remove all cached statements and reset the statistics. */
+  public void clear() {
+    templates.clear();
+    insertionOrder.clear();
+    hits.reset();
+    misses.reset();
+    evictions.reset();
+  }
+
+  private static int checkSize(int maxSize) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("Cache size cannot be negative: " + maxSize);
+    }
+    return maxSize;
+  }
+
+  @Override
+  public String toString() {
+    return "TemplateCache(size=" + size() + ", maxSize=" + maxSize +
+          ", hits=" + hits() + ", misses=" + misses() + ", evictions=" + evictions() + ')';
+  }
+
+}
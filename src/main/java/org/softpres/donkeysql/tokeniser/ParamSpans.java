@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql.tokeniser;
+
+import java.util.Arrays;
+
+/**
+ * Positions of the parameters within an SQL statement, as found by
+ * {@link StatementTokeniser#scan(String)}, which refer to the original statement
+ * rather than copying any of its text. Each span includes any ':' or '@' prefix,
+ * so the text between spans can be copied verbatim when normalising the statement.
+ */
+public final class ParamSpans {
+
+  /** The types of parameter placeholder. */
+  public enum Kind {
+    /** A standard JDBC '?' placeholder. */
+    INDEXED,
+    /** A ':name' placeholder. */
+    NAMED,
+    /** An '@name' placeholder, for iterable values padded to aid statement caching. */
+    OPTIMISED_NAMED
+  }
+
+  private final String sql;
+  private int[] offsets;
+  private int[] lengths;
+  private Kind[] kinds;
+  private int size;
+
+  ParamSpans(String sql) {
+    this.sql = sql;
+    offsets = new int[8];
+    lengths = new int[8];
+    kinds = new Kind[8];
+  }
+
+  void add(int offset, int length, Kind kind) {
+    if (size == offsets.length) {
+      offsets = Arrays.copyOf(offsets, size * 2);
+      lengths = Arrays.copyOf(lengths, size * 2);
+      kinds = Arrays.copyOf(kinds, size * 2);
+    }
+    offsets[size] = offset;
+    lengths[size] = length;
+    kinds[size] = kind;
+    size++;
+  }
+
+  /** The statement the spans refer to. */
+  public String sql() {
+    return sql;
+  }
+
+  /** The number of parameters found. */
+  public int size() {
+    return size;
+  }
+
+  /** Position of the parameter within the statement, including any prefix. */
+  public int offset(int span) {
+    return offsets[span];
+  }
+
+  /** Number of characters of the parameter, including any prefix. */
+  public int length(int span) {
+    return lengths[span];
+  }
+
+  /** Position immediately after the parameter. */
+  public int end(int span) {
+    return offsets[span] + lengths[span];
+  }
+
+  public Kind kind(int span) {
+    return kinds[span];
+  }
+
+  /** The name of a named parameter, without the prefix. */
+  public String name(int span) {
+    if (kinds[span] == Kind.INDEXED) {
+      throw new IllegalArgumentException("Indexed parameters do not have names");
+    }
+    return sql.substring(offsets[span] + 1, end(span));
+  }
+
+}
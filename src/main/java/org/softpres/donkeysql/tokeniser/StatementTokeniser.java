@@ -76,6 +76,78 @@ public class StatementTokeniser {
     return state.tokens;
   }
 
+  /**
+   * Find only the parameters within the statement, without creating any tokens for the text
+   * in between. Parameter names are delimited in the same way as by {@link #tokenise(String)},
+   * although a ':' or '@' not followed by a name, or doubled (such as the PostgreSQL '::'
+   * cast, or SQL Server '@@' variables), is left as it is rather than being removed.
+   */
+  public static ParamSpans scan(String statement) {
+    ParamSpans spans = new ParamSpans(statement);
+    int length = statement.length();
+    boolean quoting = false;
+
+    for (int i = 0; i < length; i++) {
+      char c = statement.charAt(i);
+      if (c == '\'') {
+        quoting = !quoting;
+      } else if (!quoting) {
+        if (c == '?') {
+          spans.add(i, 1, ParamSpans.Kind.INDEXED);
+        } else if ((c == ':' || c == '@') && i + 1 < length && !isDelimiter(statement.charAt(i + 1))) {
+          int end = i + 1;
+          while (end < length && !isDelimiter(statement.charAt(end))) {
+            end++;
+          }
+          spans.add(i, end - i, c == ':' ? ParamSpans.Kind.NAMED : ParamSpans.Kind.OPTIMISED_NAMED);
+          i = end - 1;
+        } else if ((c == ':' || c == '@') && i + 1 < length && statement.charAt(i + 1) == c) {
+          i++;
+        }
+      }
+    }
+    return spans;
+  }
+
+  /** Whether the character ends a word, matching the cases handled by {@link #tokenise(String)}. */
+  private static boolean isDelimiter(char c) {
+    switch (c) {
+      case '\'':
+      case '"':
+      case '&':
+      case '(':
+      case ')':
+      case '[':
+      case ']':
+      case '{':
+      case '}':
+      case ',':
+      case '.':
+      case ';':
+      case '^':
+      case '|':
+      case '=':
+      case '>':
+      case '<':
+      case '+':
+      case '-':
+      case '*':
+      case '/':
+      case '%':
+      case '!':
+      case ' ':
+      case '\t':
+      case '\n':
+      case '\r':
+      case '?':
+      case ':':
+      case '@':
+        return true;
+      default:
+        return false;
+    }
+  }
+
   /** Mini state machine for decomposing SQL statements. */
   private static class State {
     private static final Quote QUOTE = new Quote();
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.softpres.donkeysql.params.ArrayParam;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for binding {@link ArrayParam} values against H2.
+ */
+public class DBArrayParamTest {
+
+  private DataSource dataSource;
+
+  @Before
+  public void populateDataSource() throws Exception {
+    dataSource = TestDB.createPopulatedDataSource();
+  }
+
+  @Test
+  public void arrayInList() {
+    assertThat(names("SELECT name FROM animals WHERE id IN (:ids) ORDER BY id", ArrayParam.of("INTEGER", 2, 4, 8)))
+          .containsExactly("cat", "bird", "ant");
+  }
+
+  @Test
+  public void arrayNotInList() {
+    assertThat(names("SELECT name FROM animals WHERE id NOT IN (:ids) AND id < 5 ORDER BY id", ArrayParam.of("INTEGER", 2, 4)))
+          .containsExactly("dog", "mouse");
+  }
+
+  @Test
+  public void arrayWithAny() {
+    assertThat(names("SELECT name FROM animals WHERE id = ANY(:ids) ORDER BY id", ArrayParam.of("INTEGER", 1, 2)))
+          .containsExactly("dog", "cat");
+  }
+
+  @Test
+  public void largeArrayUsesSingleParameter() {
+    List<Integer> ids = IntStream.rangeClosed(1, 50_000).boxed().collect(Collectors.toList());
+
+    assertThat(names("SELECT name FROM animals WHERE id IN (:ids) ORDER BY id", ArrayParam.of("INTEGER", ids)))
+          .hasSize(10);
+  }
+
+  private List<String> names(String sql, ArrayParam ids) {
+    return DB.with(dataSource)
+          .query(sql)
+          .param("ids", ids)
+          .map(resultSet -> resultSet.getString("name"))
+          .execute()
+          .collect(toList());
+  }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Unit tests for asynchronous execution of {@link StagedQuery}.
+ */
+public class DBAsyncTest {
+
+  private JdbcConnectionPool dataSource;
+
+  @Before
+  public void populateDataSource() throws Exception {
+    dataSource = (JdbcConnectionPool)TestDB.createPopulatedDataSource();
+  }
+
+  @Test
+  public void executeAsyncCollectsResults() throws Exception {
+    CompletableFuture<List<Integer>> ids = idsUpTo(5).executeAsync();
+
+    assertThat(ids.get(5, TimeUnit.SECONDS)).containsExactly(1, 2, 3, 4, 5);
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void executeAsyncOnSuppliedExecutor() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      assertThat(idsUpTo(2).executeAsync(executor).get(5, TimeUnit.SECONDS)).containsExactly(1, 2);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void executeAsyncFailureCompletesExceptionally() {
+    CompletableFuture<List<Integer>> ids = DB.with(dataSource)
+          .query("SELECT id FROM missing")
+          .map(resultSet -> resultSet.getInt("id"))
+          .executeAsync();
+
+    Throwable throwable = catchThrowable(() -> ids.get(5, TimeUnit.SECONDS));
+
+    assertThat(throwable)
+          .isInstanceOf(ExecutionException.class)
+          .hasCauseInstanceOf(UncheckedSQLException.class);
+  }
+
+  @Test
+  public void publisherOnlyDeliversRequestedRows() throws Exception {
+    TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+    idsUpTo(5).publish(Runnable::run).subscribe(subscriber);
+
+    subscriber.request(2);
+
+    assertThat(subscriber.rows).containsExactly(1, 2);
+    assertThat(subscriber.completed.getCount()).isOne();
+
+    subscriber.request(10);
+    subscriber.awaitTermination();
+
+    assertThat(subscriber.rows).containsExactly(1, 2, 3, 4, 5);
+    assertThat(subscriber.error).isNull();
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void publisherCompletesWhenExactDemandSatisfied() throws Exception {
+    TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+    idsUpTo(3).publish().subscribe(subscriber);
+
+    subscriber.request(3);
+    subscriber.awaitTermination();
+
+    assertThat(subscriber.rows).containsExactly(1, 2, 3);
+  }
+
+  @Test
+  public void cancelClosesResources() throws Exception {
+    TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+    idsUpTo(10).publish(Runnable::run).subscribe(subscriber);
+
+    subscriber.request(1);
+    subscriber.subscription.cancel();
+
+    assertThat(dataSource.getActiveConnections()).isZero();
+    assertThat(subscriber.rows).containsExactly(1);
+  }
+
+  @Test
+  public void queryFailureSignalledAsError() throws Exception {
+    TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+    DB.with(dataSource)
+          .query("SELECT id FROM missing")
+          .map(resultSet -> resultSet.getInt("id"))
+          .publish()
+          .subscribe(subscriber);
+
+    subscriber.request(1);
+    subscriber.awaitTermination();
+
+    assertThat(subscriber.error).isInstanceOf(UncheckedSQLException.class);
+  }
+
+  @Test
+  public void nonPositiveRequestSignalledAsError() throws Exception {
+    TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+    idsUpTo(3).publish().subscribe(subscriber);
+
+    subscriber.request(0);
+    subscriber.awaitTermination();
+
+    assertThat(subscriber.error).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private StagedQuery<Integer> idsUpTo(int max) {
+    return DB.with(dataSource)
+          .query("SELECT id FROM animals WHERE id <= :max ORDER BY id")
+          .param("max", max)
+          .map(resultSet -> resultSet.getInt("id"));
+  }
+
+  private static class TestSubscriber<T> implements RowPublisher.Subscriber<T> {
+    final List<T> rows = new CopyOnWriteArrayList<>();
+    final CountDownLatch completed = new CountDownLatch(1);
+    volatile RowPublisher.Subscription subscription;
+    volatile Throwable error;
+
+    @Override
+    public void onSubscribe(RowPublisher.Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(T row) {
+      rows.add(row);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+      completed.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      completed.countDown();
+    }
+
+    void request(long n) {
+      subscription.request(n);
+    }
+
+    void awaitTermination() throws InterruptedException {
+      assertThat(completed.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+  }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.*;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for loading rows with {@link BulkInsert}.
+ */
+public class DBBulkInsertTest {
+
+  private JdbcConnectionPool dataSource;
+  private DB db;
+
+  @Before
+  public void populateDataSource() throws Exception {
+    dataSource = (JdbcConnectionPool)TestDB.createPopulatedDataSource();
+    db = DB.with(dataSource);
+  }
+
+  @Test
+  public void rowsInsertedFromItems() {
+    long inserted = db.bulkInsert("animals", "id", "name", "legs")
+          .rowsPerStatement(3)
+          .execute(IntStream.rangeClosed(11, 17).boxed(), (id, values) -> {
+            values[0] = id;
+            values[1] = "animal" + id;
+            values[2] = id % 2 == 0 ? null : 4;
+          });
+
+    assertThat(inserted).isEqualTo(7);
+    assertThat(count("SELECT COUNT(*) FROM animals")).isEqualTo(17);
+    assertThat(names("SELECT name FROM animals WHERE id > 10 AND legs IS NULL ORDER BY id"))
+          .containsExactly("animal12", "animal14", "animal16");
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void fullGroupStatementPreparedOnce() throws Exception {
+    Connection connection = spy(dataSource.getConnection());
+    try {
+      long inserted = DB.with(connection)
+            .bulkInsert("animals", "id", "name", "legs")
+            .rowsPerStatement(4)
+            .execute(IntStream.rangeClosed(11, 20).mapToObj(id -> new Object[] { id, "animal" + id, 2 }));
+
+      assertThat(inserted).isEqualTo(10);
+      verify(connection, times(1)).prepareStatement(MultiRowValues.sql("animals", columns(), 4));
+      verify(connection, times(1)).prepareStatement(MultiRowValues.sql("animals", columns(), 2));
+      verify(connection, times(2)).prepareStatement(anyString());
+    } finally {
+      connection.close();
+    }
+  }
+
+  @Test
+  public void multiRowStatement() {
+    assertThat(MultiRowValues.sql("animals", columns(), 2))
+          .isEqualTo("INSERT INTO animals (id, name, legs) VALUES (?, ?, ?), (?, ?, ?)");
+  }
+
+  @Test
+  public void rowsPerStatementLimitedByParameters() {
+    BulkInsert insert = db.bulkInsert("animals", "id", "name", "legs");
+
+    assertThat(insert.effectiveRowsPerStatement()).isEqualTo(666);
+    assertThat(insert.maxParameters(10).effectiveRowsPerStatement()).isEqualTo(3);
+    assertThat(insert.maxParameters(3).effectiveRowsPerStatement()).isEqualTo(1);
+    assertThat(insert.maxParameters(100_000).rowsPerStatement(50).effectiveRowsPerStatement()).isEqualTo(50);
+  }
+
+  @Test
+  public void moreColumnsThanParametersRejected() {
+    BulkInsert insert = db.bulkInsert("animals", "id", "name", "legs").maxParameters(2);
+
+    assertThat(catchThrowable(insert::effectiveRowsPerStatement)).isInstanceOf(IllegalArgumentException.class);
+    assertThat(catchThrowable(() -> insert.execute(Stream.<Object[]>of(new Object[] { 11, "ant", 6 }))))
+          .isInstanceOf(IllegalArgumentException.class);
+    assertThat(count("SELECT COUNT(*) FROM animals")).isEqualTo(10);
+  }
+
+  @Test
+  public void rowsWithWrongNumberOfValuesRejected() {
+    BulkInsert insert = db.bulkInsert("animals", "id", "name", "legs");
+
+    assertThat(catchThrowable(() -> insert.execute(Stream.of(new Object[] { 11, "ant", 6 }, new Object[] { 12, "bee" }))))
+          .isInstanceOf(IllegalArgumentException.class)
+          .hasMessageStartingWith("Row 1 has 2 values for 3 columns");
+    assertThat(catchThrowable(() -> insert.execute(Stream.<Object[]>of(new Object[] { 13, "wasp", 6, 2 }))))
+          .isInstanceOf(IllegalArgumentException.class)
+          .hasMessageStartingWith("Row 0 has 4 values for 3 columns");
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void valuesNotSetByBinderAreNull() {
+    db.bulkInsert("animals", "id", "name", "legs")
+          .execute(IntStream.rangeClosed(11, 14).boxed(), (id, values) -> {
+            values[0] = id;
+            values[1] = "animal" + id;
+            if (id % 2 == 1) {
+              values[2] = 4;
+            }
+          });
+
+    assertThat(names("SELECT name FROM animals WHERE id > 10 AND legs IS NULL ORDER BY id"))
+          .containsExactly("animal12", "animal14");
+  }
+
+  @Test
+  public void nothingToInsert() {
+    assertThat(db.bulkInsert("animals", "id").execute(Stream.empty())).isZero();
+  }
+
+  @Test
+  public void failureClosesResources() {
+    Throwable thrown = catchThrowable(() -> db.bulkInsert("animals", "id", "name", "legs")
+          .execute(Stream.<Object[]>of(new Object[] { 1, "duplicate", 4 })));
+
+    assertThat(thrown).isInstanceOf(UncheckedSQLException.class);
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void customWriterUsed() {
+    List<String> targets = new ArrayList<>();
+    BulkWriter batching = new BulkWriter() {
+      @Override
+      public <T> long write(Connection connection, String table, List<String> columns, Iterator<T> items,
+                            ColumnBinder<? super T> binder) throws java.sql.SQLException {
+        targets.add(table + columns);
+        Object[] values = new Object[columns.size()];
+        long rows = 0;
+        try (PreparedStatement statement = connection.prepareStatement(MultiRowValues.sql(table, columns, 1))) {
+          while (items.hasNext()) {
+            binder.bind(items.next(), values);
+            for (int i = 0; i < values.length; i++) {
+              statement.setObject(i + 1, values[i]);
+            }
+            statement.addBatch();
+            rows++;
+          }
+          statement.executeBatch();
+        }
+        return rows;
+      }
+    };
+
+    long inserted = db.bulkInsert("animals", "id", "name")
+          .writer(batching)
+          .execute(Stream.of(new Object[] { 11, "snake" }, new Object[] { 12, "slug" }));
+
+    assertThat(inserted).isEqualTo(2);
+    assertThat(targets).containsExactly("animals[id, name]");
+    assertThat(names("SELECT name FROM animals WHERE id > 10 ORDER BY id")).containsExactly("snake", "slug");
+  }
+
+  @Test
+  public void invalidConfiguration() {
+    assertThat(catchThrowable(() -> db.bulkInsert("animals"))).isInstanceOf(IllegalArgumentException.class);
+    assertThat(catchThrowable(() -> db.bulkInsert("animals", "id").rowsPerStatement(0)))
+          .isInstanceOf(IllegalArgumentException.class);
+    assertThat(catchThrowable(() -> BulkWriter.multiRowValues(0))).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private static List<String> columns() {
+    return Arrays.asList("id", "name", "legs");
+  }
+
+  private long count(String sql) {
+    return db.query(sql).map(rs -> rs.getLong(1)).execute().collect(toList()).get(0);
+  }
+
+  private List<String> names(String sql) {
+    return db.query(sql).map(rs -> rs.getString("name")).execute().collect(toList());
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for splitting oversized iterable parameters with {@link QueryOptions#chunkSize(int)}.
+ */
+public class DBChunkTest {
+
+  private static final List<Integer> IDS = Arrays.asList(1, 3, 4, 6, 7, 9, 10);
+
+  private JdbcConnectionPool dataSource;
+
+  @Before
+  public void populateDataSource() throws Exception {
+    dataSource = (JdbcConnectionPool)TestDB.createPopulatedDataSource();
+  }
+
+  @Test
+  public void chunkedRowsConcatenatedInOrder() {
+    List<String> names = names("SELECT name FROM animals WHERE id IN (:ids) ORDER BY id")
+          .chunkSize(3)
+          .execute()
+          .collect(toList());
+
+    assertThat(names).containsExactly("dog", "mouse", "bird", "worm", "spider", "horse", "beetle");
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void optimisedChunksPadded() {
+    List<String> names = names("SELECT name FROM animals WHERE id IN (@ids) ORDER BY id")
+          .chunkSize(5)
+          .execute()
+          .collect(toList());
+
+    assertThat(names).containsExactly("dog", "mouse", "bird", "worm", "spider", "horse", "beetle");
+  }
+
+  @Test
+  public void chunksExecutedInParallel() {
+    List<String> names = names("SELECT name FROM animals WHERE id IN (:ids) ORDER BY id")
+          .chunkSize(2)
+          .chunkParallelism(3)
+          .execute()
+          .collect(toList());
+
+    assertThat(names).containsExactly("dog", "mouse", "bird", "worm", "spider", "horse", "beetle");
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void chunkSizeFromDefaults() {
+    List<String> names = DB.with(dataSource)
+          .options(QueryOptions.defaults().chunkSize(2))
+          .query("SELECT name FROM animals WHERE id IN (:ids) AND legs = :legs ORDER BY id")
+          .param("ids", IDS)
+          .param("legs", 4)
+          .map(resultSet -> resultSet.getString("name"))
+          .execute()
+          .collect(toList());
+
+    assertThat(names).containsExactly("dog", "mouse", "horse");
+  }
+
+  @Test
+  public void closingEarlyReleasesConnection() {
+    try (Stream<String> names = names("SELECT name FROM animals WHERE id IN (:ids)").chunkSize(2).execute()) {
+      assertThat(names.findFirst()).contains("dog");
+    }
+
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  private StagedQuery<String> names(String sql) {
+    return DB.with(dataSource)
+          .query(sql)
+          .param("ids", IDS)
+          .map(resultSet -> resultSet.getString("name"));
+  }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests for reading results column by column with {@link StagedQuery#fetchColumns()}.
+ */
+public class DBColumnarTest {
+
+  private JdbcConnectionPool dataSource;
+
+  @Before
+  public void populateDataSource() throws Exception {
+    dataSource = (JdbcConnectionPool)TestDB.createPopulatedDataSource();
+  }
+
+  @Test
+  public void columnsTypedFromMetaData() {
+    ColumnarResult result = DB.with(dataSource)
+          .query("SELECT id, CAST(id AS BIGINT) AS big, legs / 2.0 AS half, name FROM animals ORDER BY id")
+          .map(rs -> null)
+          .fetchColumns();
+
+    assertThat(result.rows()).isEqualTo(10);
+    assertThat(result.ints("id").toArray()).containsExactly(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+    assertThat(result.longs("big").getLong(9)).isEqualTo(10L);
+    assertThat(result.doubles("half").getDouble(6)).isEqualTo(4.0);
+    assertThat(result.strings("name").get(0)).isEqualTo("dog");
+    assertThat(result.columns()).extracting(ColumnarResult.Column::label)
+          .containsExactly("ID", "BIG", "HALF", "NAME");
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void stringsDictionaryEncoded() {
+    ColumnarResult result = DB.with(dataSource)
+          .query("SELECT CASE WHEN legs > 4 THEN 'many' ELSE 'few' END AS amount FROM animals ORDER BY id")
+          .map(rs -> null)
+          .fetchColumns();
+
+    ColumnarResult.StringColumn amounts = result.strings("amount");
+    assertThat(amounts.dictionary()).containsExactly("few", "many");
+    assertThat(amounts.codes()).containsExactly(0, 0, 0, 0, 0, 0, 1, 1, 0, 1);
+    assertThat(amounts.get(6)).isEqualTo("many");
+  }
+
+  @Test
+  public void nullsRecorded() {
+    ColumnarResult result = DB.with(dataSource)
+          .query("SELECT NULLIF(legs, 0) AS legs, NULLIF(name, 'fish') AS name FROM animals ORDER BY id")
+          .map(rs -> null)
+          .fetchColumns();
+
+    ColumnarResult.IntColumn legs = result.ints("legs");
+    ColumnarResult.StringColumn names = result.strings("name");
+    assertThat(legs.isNull(4)).isTrue();
+    assertThat(legs.getInt(4)).isZero();
+    assertThat(legs.get(4)).isNull();
+    assertThat(legs.isNull(0)).isFalse();
+    assertThat(names.get(4)).isNull();
+    assertThat(names.code(4)).isEqualTo(-1);
+  }
+
+  @Test
+  public void emptyResult() {
+    ColumnarResult result = DB.with(dataSource)
+          .query("SELECT id FROM animals WHERE id < 0")
+          .map(rs -> null)
+          .fetchColumns();
+
+    assertThat(result.rows()).isZero();
+    assertThat(result.ints("id").toArray()).isEmpty();
+  }
+
+  @Test
+  public void buffersGrowForLargeResults() {
+    ColumnarResult result = DB.with(dataSource)
+          .query("SELECT X AS n FROM SYSTEM_RANGE(1, 5000)")
+          .map(rs -> null)
+          .fetchColumns();
+
+    assertThat(result.rows()).isEqualTo(5000);
+    assertThat(result.longs("n").getLong(4999)).isEqualTo(5000L);
+  }
+
+  @Test
+  public void chunksAppended() {
+    ColumnarResult result = DB.with(dataSource)
+          .query("SELECT id FROM animals WHERE id IN (:ids) ORDER BY id")
+          .param("ids", Arrays.asList(1, 2, 3, 4, 5))
+          .map(rs -> null)
+          .chunkSize(2)
+          .fetchColumns();
+
+    assertThat(result.ints("id").toArray()).containsExactly(1, 2, 3, 4, 5);
+  }
+
+  @Test
+  public void wrongColumnTypeRejected() {
+    ColumnarResult result = DB.with(dataSource)
+          .query("SELECT id FROM animals")
+          .map(rs -> null)
+          .fetchColumns();
+
+    assertThat(catchThrowable(() -> result.doubles("id"))).isInstanceOf(IllegalArgumentException.class);
+    assertThat(catchThrowable(() -> result.column("missing"))).isInstanceOf(IllegalArgumentException.class);
+    assertThat(catchThrowable(() -> result.ints("id").getInt(10))).isInstanceOf(IndexOutOfBoundsException.class);
+  }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Unit tests for {@link DB#executor(Executor)} and {@link DB#all(StagedQuery[])}.
+ */
+public class DBConcurrencyTest {
+
+  private JdbcConnectionPool dataSource;
+
+  @Before
+  public void populateDataSource() throws Exception {
+    dataSource = (JdbcConnectionPool)TestDB.createPopulatedDataSource();
+    dataSource.setMaxConnections(50);
+  }
+
+  @Test
+  public void allReturnsResultsInQueryOrder() {
+    DB db = DB.with(dataSource).virtualThreads();
+
+    List<List<String>> results = DB.all(
+          nameOf(db, 3),
+          nameOf(db, 1),
+          nameOf(db, 2));
+
+    assertThat(results).containsExactly(
+          singletonList("mouse"),
+          singletonList("dog"),
+          singletonList("cat"));
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void allFansOutManyQueries() {
+    DB db = DB.with(dataSource).virtualThreads();
+    List<StagedQuery<String>> queries = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      queries.add(nameOf(db, i % 5 + 1));
+    }
+
+    List<List<String>> results = DB.all(queries);
+
+    assertThat(results).hasSize(200);
+    assertThat(results.get(199)).containsExactly("fish");
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void allRethrowsFailure() {
+    DB db = DB.with(dataSource).virtualThreads();
+
+    Throwable throwable = catchThrowable(() -> DB.all(
+          nameOf(db, 1),
+          db.query("SELECT name FROM missing").map(resultSet -> resultSet.getString("name"))));
+
+    assertThat(throwable).isInstanceOf(UncheckedSQLException.class);
+  }
+
+  @Test
+  public void asyncExecutionUsesConfiguredExecutor() throws Exception {
+    Set<String> threads = ConcurrentHashMap.newKeySet();
+    Executor executor = runnable -> {
+      threads.add(Thread.currentThread().getName());
+      runnable.run();
+    };
+
+    List<String> names = nameOf(DB.with(dataSource).executor(executor), 2)
+          .executeAsync()
+          .get(5, TimeUnit.SECONDS);
+
+    assertThat(names).containsExactly("cat");
+    assertThat(threads).containsExactly(Thread.currentThread().getName());
+  }
+
+  private static StagedQuery<String> nameOf(DB db, int id) {
+    return db.query("SELECT name FROM animals WHERE id = ?")
+          .params(id)
+          .map(resultSet -> resultSet.getString("name"));
+  }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests for writing query results with {@link StagedQuery#writeTo(Writer, ExportFormat)}.
+ */
+public class DBExportTest {
+
+  private JdbcConnectionPool dataSource;
+
+  @Before
+  public void populateDataSource() throws Exception {
+    dataSource = (JdbcConnectionPool)TestDB.createPopulatedDataSource();
+    DB.with(dataSource).update(
+          "CREATE TABLE values_table (" +
+          "  id BIGINT, text VARCHAR(100), amount DECIMAL(10, 2), ratio DOUBLE," +
+          "  flag BOOLEAN, data VARBINARY(10))").execute();
+    DB.with(dataSource).update("INSERT INTO values_table VALUES (?, ?, ?, ?, ?, ?)")
+          .params(-9223372036854775807L, "say \"hi\", then\nleave", new BigDecimal("12.50"), 0.25, true, new byte[] {1, 2, 3})
+          .execute();
+    DB.with(dataSource).update("INSERT INTO values_table VALUES (?, ?, ?, ?, ?, ?)")
+          .params(null, null, null, null, null, null)
+          .execute();
+  }
+
+  @Test
+  public void csvWithHeader() {
+    StringWriter out = new StringWriter();
+
+    long rows = animals(3).writeTo(out, ExportFormat.CSV);
+
+    assertThat(rows).isEqualTo(3);
+    assertThat(out.toString()).isEqualTo(
+          "ID,NAME,LEGS\r\n" +
+          "1,dog,4\r\n" +
+          "2,cat,4\r\n" +
+          "3,mouse,4\r\n");
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void csvEscapesAndNulls() {
+    StringWriter out = new StringWriter();
+
+    values().writeTo(out, ExportFormat.CSV);
+
+    assertThat(out.toString()).isEqualTo(
+          "ID,TEXT,AMOUNT,RATIO,FLAG,DATA\r\n" +
+          "-9223372036854775807,\"say \"\"hi\"\", then\nleave\",12.50,0.25,true,AQID\r\n" +
+          ",,,,,\r\n");
+  }
+
+  @Test
+  public void csvEmptyStringDistinctFromNull() {
+    DB.with(dataSource).update("INSERT INTO values_table (id, text, data) VALUES (?, ?, ?)")
+          .params(1, "", new byte[0])
+          .execute();
+    StringWriter out = new StringWriter();
+
+    DB.with(dataSource)
+          .query("SELECT text, data FROM values_table WHERE id = 1 OR id IS NULL ORDER BY id")
+          .map(rs -> null)
+          .writeTo(out, ExportFormat.CSV);
+
+    assertThat(out.toString()).isEqualTo("TEXT,DATA\r\n,\r\n\"\",\"\"\r\n");
+  }
+
+  @Test
+  public void realWrittenWithFloatPrecision() {
+    DB.with(dataSource).update("CREATE TABLE reals (value REAL)").execute();
+    DB.with(dataSource).update("INSERT INTO reals VALUES (?)").params(0.1f).execute();
+    StringWriter csv = new StringWriter();
+    StringWriter json = new StringWriter();
+
+    DB.with(dataSource).query("SELECT value FROM reals").map(rs -> null).writeTo(csv, ExportFormat.CSV);
+    DB.with(dataSource).query("SELECT value FROM reals").map(rs -> null).writeTo(json, ExportFormat.NDJSON);
+
+    assertThat(csv.toString()).isEqualTo("VALUE\r\n0.1\r\n");
+    assertThat(json.toString()).isEqualTo("{\"VALUE\":0.1}\n");
+  }
+
+  @Test
+  public void ndjsonObjectPerRow() {
+    StringWriter out = new StringWriter();
+
+    animals(2).writeTo(out, ExportFormat.NDJSON);
+
+    assertThat(out.toString()).isEqualTo(
+          "{\"ID\":1,\"NAME\":\"dog\",\"LEGS\":4}\n" +
+          "{\"ID\":2,\"NAME\":\"cat\",\"LEGS\":4}\n");
+  }
+
+  @Test
+  public void ndjsonEscapesAndNulls() {
+    StringWriter out = new StringWriter();
+
+    values().writeTo(out, ExportFormat.NDJSON);
+
+    assertThat(out.toString()).isEqualTo(
+          "{\"ID\":-9223372036854775807,\"TEXT\":\"say \\\"hi\\\", then\\nleave\",\"AMOUNT\":12.50," +
+          "\"RATIO\":0.25,\"FLAG\":true,\"DATA\":\"AQID\"}\n" +
+          "{\"ID\":null,\"TEXT\":null,\"AMOUNT\":null,\"RATIO\":null,\"FLAG\":null,\"DATA\":null}\n");
+  }
+
+  @Test
+  public void outputStreamWrittenAsUtf8() {
+    DB.with(dataSource).update("UPDATE animals SET name = 'caf\u00e9' WHERE id = 1").execute();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    animals(1).writeTo(out, ExportFormat.CSV);
+
+    assertThat(new String(out.toByteArray(), StandardCharsets.UTF_8)).contains("1,caf\u00e9,4");
+  }
+
+  @Test
+  public void flushedAfterInterval() {
+    AtomicInteger flushes = new AtomicInteger();
+    Writer out = new StringWriter() {
+      @Override
+      public void flush() {
+        flushes.incrementAndGet();
+      }
+    };
+
+    animals(10).writeTo(out, ExportFormat.NDJSON, 3);
+
+    assertThat(flushes.get()).isEqualTo(4);
+  }
+
+  @Test
+  public void chunksWrittenWithSingleHeader() {
+    StringWriter out = new StringWriter();
+
+    long rows = DB.with(dataSource)
+          .query("SELECT id FROM animals WHERE id IN (:ids) ORDER BY id")
+          .param("ids", Arrays.asList(1, 2, 3, 4, 5))
+          .map(rs -> rs.getInt("id"))
+          .chunkSize(2)
+          .writeTo(out, ExportFormat.CSV);
+
+    assertThat(rows).isEqualTo(5);
+    assertThat(out.toString()).isEqualTo("ID\r\n1\r\n2\r\n3\r\n4\r\n5\r\n");
+  }
+
+  @Test
+  public void writeFailureClosesResources() {
+    Writer failing = new Writer() {
+      @Override
+      public void write(char[] buffer, int offset, int length) throws IOException {
+        throw new IOException("Disk full");
+      }
+
+      @Override
+      public void flush() { }
+
+      @Override
+      public void close() { }
+    };
+
+    Throwable thrown = catchThrowable(() -> animals(10).writeTo(failing, ExportFormat.CSV, 1));
+
+    assertThat(thrown).isInstanceOf(UncheckedIOException.class);
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  private StagedQuery<Void> animals(int max) {
+    return DB.with(dataSource)
+          .query("SELECT id, name, legs FROM animals WHERE id <= :max ORDER BY id")
+          .param("max", max)
+          .map(rs -> null);
+  }
+
+  private StagedQuery<Void> values() {
+    return DB.with(dataSource)
+          .query("SELECT * FROM values_table ORDER BY id DESC NULLS LAST")
+          .map(rs -> null);
+  }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests for returning the keys generated by inserts from {@link StagedUpdate} and {@link BatchUpdate}.
+ */
+public class DBGeneratedKeysTest {
+
+  private JdbcConnectionPool dataSource;
+  private DB db;
+
+  @Before
+  public void createTable() throws SQLException {
+    dataSource = (JdbcConnectionPool)TestDB.createPopulatedDataSource();
+    db = DB.with(dataSource);
+    db.update("CREATE TABLE pets (id BIGINT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(20))").execute();
+  }
+
+  @Test
+  public void longKeyOfInsert() {
+    long[] first = db.update("INSERT INTO pets (name) VALUES (:name)")
+          .param("name", "rex")
+          .executeForLongKeys()
+          .toArray();
+    long[] second = db.update("INSERT INTO pets (name) VALUES (?)")
+          .params("tom")
+          .executeForLongKeys()
+          .toArray();
+
+    assertThat(first).containsExactly(1L);
+    assertThat(second).containsExactly(2L);
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void keysOfNamedKeyColumnsMapped() {
+    List<String> keys = db.update("INSERT INTO pets (name) VALUES (:name)")
+          .param("name", "rex")
+          .keyColumns("id")
+          .executeForKeys(rs -> "pet-" + rs.getLong("id"))
+          .collect(toList());
+
+    assertThat(keys).containsExactly("pet-1");
+  }
+
+  @Test
+  public void keysOfBatchesInRowOrder() {
+    Stream<Map<String, Object>> rows = IntStream.range(0, 7)
+          .mapToObj(i -> Collections.singletonMap("name", "pet" + i));
+
+    long[] keys = db.batch("INSERT INTO pets (name) VALUES (:name)")
+          .size(3)
+          .executeForLongKeys(rows)
+          .toArray();
+
+    assertThat(keys).containsExactly(1, 2, 3, 4, 5, 6, 7);
+    assertThat(namesOf(7)).containsExactly("pet6");
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void keysOfIndexedBatch() {
+    List<Long> keys = db.batch("INSERT INTO pets (name) VALUES (?)")
+          .keyColumns("id")
+          .executeIndexedForKeys(Stream.of(new Object[] { "rex" }, new Object[] { "tom" }), rs -> rs.getLong(1))
+          .collect(toList());
+
+    assertThat(keys).containsExactly(1L, 2L);
+    assertThat(db.batch("INSERT INTO pets (name) VALUES (?)")
+          .executeIndexedForLongKeys(Stream.<Object[]>of(new Object[] { "kit" }))
+          .toArray()).containsExactly(3L);
+  }
+
+  @Test
+  public void noKeysWhenNothingInserted() {
+    long[] keys = db.batch("INSERT INTO pets (name) VALUES (:name)")
+          .executeForLongKeys(Stream.empty())
+          .toArray();
+
+    assertThat(keys).isEmpty();
+  }
+
+  @Test
+  public void failureClosesResources() {
+    Throwable thrown = catchThrowable(() -> db.update("INSERT INTO pets (missing) VALUES (:name)")
+          .param("name", "rex")
+          .executeForLongKeys());
+
+    assertThat(thrown).isInstanceOf(UncheckedSQLException.class);
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  private List<String> namesOf(long id) {
+    return db.query("SELECT name FROM pets WHERE id = :id")
+          .param("id", id)
+          .map(rs -> rs.getString("name"))
+          .execute()
+          .collect(toList());
+  }
+
+}
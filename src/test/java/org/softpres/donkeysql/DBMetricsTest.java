@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Before;
+import org.junit.Test;
+import org.softpres.donkeysql.QueryEvent.CloseReason;
+import org.softpres.donkeysql.QueryEvent.Phase;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests for reporting query timings to a {@link QueryListener}.
+ */
+public class DBMetricsTest {
+
+  private static final String SQL = "SELECT id FROM animals WHERE id IN (:ids) ORDER BY id";
+
+  private JdbcConnectionPool dataSource;
+  private List<QueryEvent> events;
+  private DB db;
+
+  @Before
+  public void populateDataSource() throws Exception {
+    dataSource = (JdbcConnectionPool)TestDB.createPopulatedDataSource();
+    events = new CopyOnWriteArrayList<>();
+    db = DB.with(dataSource).listener(events::add);
+  }
+
+  @Test
+  public void exhaustedQueryReportsAllPhases() {
+    List<Integer> ids = ids(1, 2, 3).map(rs -> rs.getInt("id")).execute().collect(toList());
+
+    assertThat(ids).containsExactly(1, 2, 3);
+    assertThat(events).hasSize(1);
+    QueryEvent event = events.get(0);
+    assertThat(event.sql()).isEqualTo(SQL);
+    assertThat(event.rows()).isEqualTo(3);
+    assertThat(event.closeReason()).isEqualTo(CloseReason.EXHAUSTED);
+    assertThat(event.failure()).isNull();
+    long phases = 0;
+    for (Phase phase : Phase.values()) {
+      assertThat(event.nanos(phase)).as(phase.name()).isPositive();
+      phases += event.nanos(phase);
+    }
+    assertThat(phases).isLessThanOrEqualTo(event.totalNanos());
+  }
+
+  @Test
+  public void earlyCloseReported() {
+    try (Stream<Integer> ids = ids(1, 2, 3).map(rs -> rs.getInt("id")).execute()) {
+      assertThat(ids.findFirst()).contains(1);
+    }
+
+    assertThat(events).hasSize(1);
+    assertThat(events.get(0).closeReason()).isEqualTo(CloseReason.CLOSED);
+    assertThat(events.get(0).rows()).isEqualTo(1);
+  }
+
+  @Test
+  public void mapperFailureReported() {
+    Throwable thrown = catchThrowable(() -> db.query("SELECT id FROM animals")
+          .map(rs -> rs.getInt("missing"))
+          .execute()
+          .collect(toList()));
+
+    assertThat(thrown).isInstanceOf(UncheckedSQLException.class);
+    assertThat(events).hasSize(1);
+    assertThat(events.get(0).closeReason()).isEqualTo(CloseReason.FAILED);
+    assertThat(events.get(0).failure()).isNotNull();
+  }
+
+  @Test
+  public void executeFailureReported() {
+    catchThrowable(() -> db.query("SELECT id FROM missing").map(rs -> 1).execute());
+
+    QueryEvent event = events.get(0);
+    assertThat(event.closeReason()).isEqualTo(CloseReason.FAILED);
+    assertThat(event.nanos(Phase.CONNECTION)).isPositive();
+    assertThat(event.nanos(Phase.FIRST_ROW)).isZero();
+    assertThat(event.nanos(Phase.ITERATION)).isZero();
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void otherTerminalsReported() {
+    ids(1, 2).mapToInt(rs -> rs.getInt("id")).execute().sum();
+    ids(1, 2).map(rs -> null).writeTo(new StringWriter(), ExportFormat.CSV);
+    ids(1, 2).map(rs -> null).fetchColumns();
+
+    assertThat(events).extracting(QueryEvent::rows).containsExactly(2L, 2L, 2L);
+    assertThat(events).extracting(QueryEvent::closeReason).containsOnly(CloseReason.EXHAUSTED);
+  }
+
+  @Test
+  public void metricsGroupedByTemplate() {
+    QueryMetrics metrics = new QueryMetrics();
+    DB measured = DB.with(dataSource).listener(metrics);
+
+    for (int i = 1; i <= 5; i++) {
+      measured.query(SQL).param("ids", Arrays.asList(1, i)).map(rs -> 1).execute().count();
+    }
+    measured.query("SELECT COUNT(*) FROM animals").map(rs -> 1).execute().count();
+
+    QueryMetrics.TemplateMetrics template = metrics.template(SQL);
+    assertThat(metrics.templates()).hasSize(2);
+    assertThat(template.count()).isEqualTo(5);
+    assertThat(template.rows()).isEqualTo(9);
+    assertThat(template.closed(CloseReason.EXHAUSTED)).isEqualTo(5);
+    assertThat(template.total().percentile(99)).isPositive();
+    assertThat(template.phase(Phase.EXECUTE).count()).isEqualTo(5);
+    assertThat(metrics.slowest(1, 99)).hasSize(1);
+
+    metrics.reset();
+    assertThat(metrics.templates()).isEmpty();
+  }
+
+  @Test
+  public void listenerFailureIgnored() {
+    DB failing = DB.with(dataSource).listener(event -> {
+      throw new IllegalStateException("Broken");
+    });
+
+    assertThat(failing.query("SELECT id FROM animals").map(rs -> 1).execute().count()).isEqualTo(10);
+  }
+
+  private DB.NamedQueryBuilder ids(Integer... ids) {
+    return db.query(SQL).param("ids", Arrays.asList(ids));
+  }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for applying {@link QueryOptions} to statements.
+ */
+public class DBOptionsTest {
+
+  private ResultSet resultSet;
+  private PreparedStatement statement;
+  private Connection connection;
+  private DataSource dataSource;
+
+  @Before
+  public void createMocks() throws SQLException {
+    resultSet = mock(ResultSet.class);
+    statement = mock(PreparedStatement.class);
+    when(statement.executeQuery()).thenReturn(resultSet);
+    connection = mock(Connection.class);
+    when(connection.prepareStatement(anyString())).thenReturn(statement);
+    when(connection.prepareStatement(anyString(), anyInt(), anyInt())).thenReturn(statement);
+    dataSource = mock(DataSource.class);
+    when(dataSource.getConnection()).thenReturn(connection);
+  }
+
+  @Test
+  public void driverDefaultsLeftAlone() throws SQLException {
+    execute(DB.with(dataSource).query("SELECT 1").map(rs -> 1));
+
+    verify(connection).prepareStatement("SELECT 1");
+    verify(statement, never()).setFetchSize(anyInt());
+    verify(statement, never()).setMaxRows(anyInt());
+    verify(statement, never()).setQueryTimeout(anyInt());
+    verify(connection, never()).setReadOnly(anyBoolean());
+  }
+
+  @Test
+  public void optionsAppliedToStatement() throws SQLException {
+    execute(DB.with(dataSource)
+          .query("SELECT 1")
+          .map(rs -> 1)
+          .fetchSize(500)
+          .maxRows(10)
+          .queryTimeout(Duration.ofMillis(1500)));
+
+    verify(statement).setFetchSize(500);
+    verify(statement).setMaxRows(10);
+    verify(statement).setQueryTimeout(2);
+  }
+
+  @Test
+  public void forwardOnlyRequestedExplicitly() throws SQLException {
+    execute(DB.with(dataSource).query("SELECT 1").map(rs -> 1).forwardOnly());
+
+    verify(connection).prepareStatement("SELECT 1", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    verify(statement).setFetchDirection(ResultSet.FETCH_FORWARD);
+  }
+
+  @Test
+  public void readOnlyRestoredBeforeConnectionClosed() throws SQLException {
+    execute(DB.with(dataSource).query("SELECT 1").map(rs -> 1).readOnly());
+
+    verify(connection).setReadOnly(true);
+    verify(connection).setReadOnly(false);
+    verify(connection).close();
+  }
+
+  @Test
+  public void readOnlyNotAppliedToExplicitConnection() throws SQLException {
+    execute(DB.with(connection).query("SELECT 1").map(rs -> 1).readOnly());
+
+    verify(connection, never()).setReadOnly(anyBoolean());
+  }
+
+  @Test
+  public void defaultsTakenFromDB() throws SQLException {
+    DB db = DB.with(dataSource).options(QueryOptions.defaults().fetchSize(100));
+
+    execute(db.query("SELECT 1").map(rs -> 1));
+    execute(db.query("SELECT 2").params().map(rs -> 2).maxRows(5));
+
+    verify(statement, times(2)).setFetchSize(100);
+    verify(statement).setMaxRows(5);
+  }
+
+  @Test
+  public void updatesTakeOptionsFromDB() throws SQLException {
+    DB db = DB.with(dataSource).options(QueryOptions.defaults().queryTimeout(Duration.ofSeconds(5)));
+
+    db.update("DELETE FROM animals").execute();
+    db.batch("DELETE FROM animals WHERE id = ?").executeIndexed(Stream.<Object[]>of(new Object[] { 1 }));
+
+    verify(statement, times(2)).setQueryTimeout(5);
+  }
+
+  @Test
+  public void bulkInsertsTakeOptionsFromDB() throws SQLException {
+    DB db = DB.with(dataSource).options(QueryOptions.defaults().queryTimeout(Duration.ofSeconds(5)));
+
+    db.bulkInsert("animals", "id").rowsPerStatement(2)
+          .execute(Stream.<Object[]>of(new Object[] { 1 }, new Object[] { 2 }, new Object[] { 3 }));
+
+    verify(statement, times(2)).setQueryTimeout(5);
+  }
+
+  @Test
+  public void resourcesClosedWhenStatementFails() throws SQLException {
+    SQLException failure = new SQLException("bad query");
+    when(statement.executeQuery()).thenThrow(failure);
+
+    Throwable throwable = catchThrowable(() -> DB.with(dataSource).query("SELECT 1").map(rs -> 1).execute());
+
+    assertThat(throwable).hasCause(failure);
+    verify(statement).close();
+    verify(connection).close();
+  }
+
+  @Test
+  public void maxRowsLimitsResults() throws Exception {
+    List<Integer> ids = DB.with(TestDB.createPopulatedDataSource())
+          .query("SELECT id FROM animals")
+          .map(rs -> rs.getInt("id"))
+          .maxRows(3)
+          .execute()
+          .collect(toList());
+
+    assertThat(ids).containsExactly(1, 2, 3);
+  }
+
+  @Test
+  public void sharedQueryUnchangedByOptions() throws SQLException {
+    StagedQuery<Integer> shared = DB.with(dataSource).query("SELECT 1").map(rs -> 1);
+
+    execute(shared.maxRows(5).fetchSize(10));
+    execute(shared);
+
+    verify(statement, times(1)).setMaxRows(5);
+    verify(statement, times(1)).setFetchSize(10);
+  }
+
+  @Test
+  public void optionsCopiedWithSingleChange() {
+    QueryOptions options = QueryOptions.defaults().fetchSize(10).maxRows(20).chunkSize(30).chunkParallelism(2);
+
+    assertThat(options.prefetchRows(40).toString()).isEqualTo("QueryOptions(fetchSize=10, maxRows=20, " +
+          "queryTimeout=PT0S, forwardOnly=false, readOnly=false, chunkSize=30, chunkParallelism=2, prefetchRows=40)");
+    assertThat(options.prefetchRows()).isZero();
+  }
+
+  @Test
+  public void invalidOptions() {
+    assertThat(catchThrowable(() -> QueryOptions.defaults().fetchSize(-1)))
+          .isInstanceOf(IllegalArgumentException.class);
+    assertThat(catchThrowable(() -> QueryOptions.defaults().maxRows(-1)))
+          .isInstanceOf(IllegalArgumentException.class);
+    assertThat(catchThrowable(() -> QueryOptions.defaults().queryTimeout(Duration.ofSeconds(-1))))
+          .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private void execute(StagedQuery<Integer> query) {
+    query.execute().collect(toList());
+  }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Before;
+import org.junit.Test;
+import org.softpres.donkeysql.params.ParamQuery;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for reading queries a page at a time with {@link StagedQuery#paginate(String, int)}.
+ */
+public class DBPaginateTest {
+
+  private JdbcConnectionPool pool;
+  private DataSource dataSource;
+
+  @Before
+  public void populateDataSource() throws Exception {
+    pool = (JdbcConnectionPool)TestDB.createPopulatedDataSource();
+    dataSource = spy(pool);
+  }
+
+  @Test
+  public void pagesReadInKeyOrder() throws SQLException {
+    List<Integer> ids = DB.with(dataSource)
+          .query("SELECT id, name FROM animals")
+          .map(rs -> rs.getInt("id"))
+          .paginate("id", 3)
+          .collect(toList());
+
+    assertThat(ids).containsExactly(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+    verify(dataSource, times(4)).getConnection();
+    assertThat(pool.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void emptyPageReadWhenLastPageFull() throws SQLException {
+    long count = DB.with(dataSource)
+          .query("SELECT id FROM animals")
+          .map(rs -> rs.getInt("id"))
+          .paginate("id", 5)
+          .count();
+
+    assertThat(count).isEqualTo(10);
+    verify(dataSource, times(3)).getConnection();
+  }
+
+  @Test
+  public void parametersBoundBeforeKey() {
+    List<String> names = DB.with(dataSource)
+          .query("SELECT id, name FROM animals WHERE legs >= :legs AND name <> :name")
+          .param("legs", 4)
+          .param("name", "cat")
+          .map(rs -> rs.getString("name"))
+          .paginate("id", 2)
+          .collect(toList());
+
+    assertThat(names).containsExactly("dog", "mouse", "spider", "ant", "horse", "beetle");
+  }
+
+  @Test
+  public void indexedParametersBoundBeforeKey() {
+    List<Integer> ids = DB.with(dataSource)
+          .query("SELECT id FROM animals WHERE legs = ?")
+          .params(4)
+          .map(rs -> rs.getInt("id"))
+          .paginate("id", 3)
+          .collect(toList());
+
+    assertThat(ids).containsExactly(1, 2, 3, 9);
+  }
+
+  @Test
+  public void nextPageOnlyReadWhenRequired() throws SQLException {
+    Iterator<Integer> ids = DB.with(dataSource)
+          .query("SELECT id FROM animals")
+          .map(rs -> rs.getInt("id"))
+          .paginate("id", 4)
+          .iterator();
+
+    assertThat(ids.next()).isEqualTo(1);
+    verify(dataSource, times(1)).getConnection();
+    assertThat(pool.getActiveConnections()).isZero();
+
+    for (int i = 0; i < 4; i++) {
+      ids.next();
+    }
+    verify(dataSource, times(2)).getConnection();
+  }
+
+  @Test
+  public void nextPagePrefetched() throws Exception {
+    try (Stream<Integer> ids = DB.with(dataSource)
+          .query("SELECT id FROM animals")
+          .map(rs -> rs.getInt("id"))
+          .paginate("id", 4, true)) {
+
+      Iterator<Integer> iterator = ids.iterator();
+      assertThat(iterator.next()).isEqualTo(1);
+      verify(dataSource, timeout(5000).times(2)).getConnection();
+
+      List<Integer> rest = Stream.generate(iterator::next).limit(9).collect(toList());
+      assertThat(rest).containsExactly(2, 3, 4, 5, 6, 7, 8, 9, 10);
+    }
+    verify(dataSource, times(3)).getConnection();
+  }
+
+  @Test
+  public void closingStopsPrefetchedPage() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    CountDownLatch prefetching = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<Integer> mapped = new CopyOnWriteArrayList<>();
+
+    try (Stream<Integer> ids = DB.with(dataSource)
+          .executor(executor)
+          .query("SELECT id FROM animals")
+          .map(rs -> {
+            int id = rs.getInt("id");
+            if (id == 5) {
+              prefetching.countDown();
+              await(release);
+            }
+            mapped.add(id);
+            return id;
+          })
+          .paginate("id", 4, true)) {
+
+      assertThat(ids.iterator().next()).isEqualTo(1);
+      assertThat(prefetching.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+    release.countDown();
+    executor.shutdown();
+
+    assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(mapped).containsExactly(1, 2, 3, 4, 5);
+    assertThat(pool.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void keyFormattedAsLiteral() {
+    ParamQuery query = ParamQuery.indexed("SELECT name FROM animals WHERE legs = ?", new Object[] { 4 });
+
+    assertThat(new KeysetQuery(query, "name", 2, "cat").toString()).isEqualTo(
+          "SELECT * FROM (SELECT name FROM animals WHERE legs = 4) paged WHERE name > 'cat' ORDER BY name LIMIT 2");
+    assertThat(new KeysetQuery(query, "id", 2, 3).toString()).isEqualTo(
+          "SELECT * FROM (SELECT name FROM animals WHERE legs = 4) paged WHERE id > 3 ORDER BY id LIMIT 2");
+  }
+
+  @Test
+  public void explicitConnectionNotShared() throws SQLException {
+    try (Connection connection = pool.getConnection()) {
+      List<Integer> ids = DB.with(connection)
+            .query("SELECT id FROM animals")
+            .map(rs -> rs.getInt("id"))
+            .paginate("id", 3, true)
+            .collect(toList());
+
+      assertThat(ids).containsExactly(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+      assertThat(connection.isClosed()).isFalse();
+    }
+  }
+
+  @Test
+  public void nullKeyRejected() {
+    Throwable thrown = catchThrowable(() -> DB.with(dataSource)
+          .query("SELECT NULLIF(id, 5) AS nid FROM animals")
+          .map(rs -> rs.getObject("nid"))
+          .paginate("nid", 20)
+          .count());
+
+    assertThat(thrown).isInstanceOf(IllegalStateException.class);
+    assertThat(pool.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void invalidPagination() {
+    StagedQuery<Integer> query = DB.with(dataSource)
+          .query("SELECT id FROM animals WHERE id IN (:ids)")
+          .param("ids", Arrays.asList(1, 2, 3))
+          .map(rs -> rs.getInt("id"));
+
+    assertThat(catchThrowable(() -> query.paginate("id", 0))).isInstanceOf(IllegalArgumentException.class);
+    assertThat(catchThrowable(() -> query.chunkSize(2).paginate("id", 2))).isInstanceOf(IllegalStateException.class);
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Unit tests for {@link PartitionedQuery}.
+ */
+public class DBPartitionedTest {
+
+  private static final String SQL = "SELECT id FROM animals WHERE id BETWEEN :lo AND :hi";
+
+  private JdbcConnectionPool dataSource;
+
+  @Before
+  public void populateDataSource() throws Exception {
+    dataSource = (JdbcConnectionPool)TestDB.createPopulatedDataSource();
+  }
+
+  @Test
+  public void orderedPartitionsReturnedInOrder() {
+    List<Integer> ids = DB.with(dataSource)
+          .query(SQL)
+          .partitions(Partitions.range("lo", "hi", 1, 10, 4))
+          .map(resultSet -> resultSet.getInt("id"))
+          .parallelism(3)
+          .bufferSize(1)
+          .execute()
+          .collect(toList());
+
+    assertThat(ids).containsExactly(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void unorderedPartitionsReturnAllRows() {
+    List<Integer> ids = DB.with(dataSource)
+          .query(SQL)
+          .partitions(Partitions.range("lo", "hi", 1, 10, 5))
+          .map(resultSet -> resultSet.getInt("id"))
+          .ordered(false)
+          .execute()
+          .collect(toList());
+
+    assertThat(ids).containsOnly(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+  }
+
+  @Test
+  public void commonParametersSharedByPartitions() {
+    List<String> names = DB.with(dataSource)
+          .query("SELECT name FROM animals WHERE id BETWEEN :lo AND :hi AND legs = :legs")
+          .partitions(Partitions.range("lo", "hi", 1, 10, 2))
+          .param("legs", 6)
+          .map(resultSet -> resultSet.getString("name"))
+          .execute()
+          .collect(toList());
+
+    assertThat(names).containsExactly("ant", "beetle");
+  }
+
+  @Test
+  public void streamCanBeProcessedInParallel() {
+    int sum = DB.with(dataSource)
+          .query(SQL)
+          .partitions(Partitions.range("lo", "hi", 1, 10, 3))
+          .map(resultSet -> resultSet.getInt("id"))
+          .execute()
+          .parallel()
+          .mapToInt(Integer::intValue)
+          .sum();
+
+    assertThat(sum).isEqualTo(55);
+  }
+
+  @Test
+  public void orderedStreamSplitsByPartition() {
+    try (Stream<Integer> ids = DB.with(dataSource)
+          .query(SQL)
+          .partitions(Partitions.range("lo", "hi", 1, 10, 2))
+          .map(resultSet -> resultSet.getInt("id"))
+          .execute()) {
+
+      Spliterator<Integer> rest = ids.spliterator();
+      Spliterator<Integer> first = rest.trySplit();
+
+      assertThat(StreamSupport.stream(first, false).collect(toList())).containsExactly(1, 2, 3, 4, 5);
+      assertThat(StreamSupport.stream(rest, false).collect(toList())).containsExactly(6, 7, 8, 9, 10);
+    }
+  }
+
+  @Test(timeout = 10_000)
+  public void parallelStreamConsumesPartitionsWaitingToBeProduced() throws Exception {
+    ForkJoinPool pool = new ForkJoinPool(1);
+    try {
+      List<Integer> ids = pool.submit(() -> DB.with(dataSource)
+            .query(SQL)
+            .partitions(Partitions.range("lo", "hi", 1, 10, 5))
+            .map(resultSet -> resultSet.getInt("id"))
+            .parallelism(1)
+            .bufferSize(1)
+            .execute()
+            .parallel()
+            .collect(toList())).get();
+
+      assertThat(ids).containsExactly(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+      assertThat(dataSource.getActiveConnections()).isZero();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void concurrentConnectionsBoundedByParallelism() {
+    AtomicInteger maxActive = new AtomicInteger();
+
+    long count = DB.with(dataSource)
+          .query(SQL)
+          .partitions(Partitions.range("lo", "hi", 1, 10, 10))
+          .map(resultSet -> {
+            maxActive.accumulateAndGet(dataSource.getActiveConnections(), Math::max);
+            return resultSet.getInt("id");
+          })
+          .parallelism(2)
+          .execute()
+          .count();
+
+    assertThat(count).isEqualTo(10);
+    assertThat(maxActive.get()).isBetween(1, 2);
+  }
+
+  @Test
+  public void closingEarlyReleasesAllConnections() {
+    try (Stream<Integer> ids = DB.with(dataSource)
+          .query(SQL)
+          .partitions(Partitions.range("lo", "hi", 1, 10, 10))
+          .map(resultSet -> resultSet.getInt("id"))
+          .bufferSize(1)
+          .execute()) {
+
+      assertThat(ids.findFirst()).contains(1);
+    }
+
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void failureInPartitionPropagatedAndResourcesClosed() {
+    Throwable throwable = catchThrowable(() -> DB.with(dataSource)
+          .query(SQL)
+          .partitions(Partitions.range("lo", "hi", 1, 10, 5))
+          .map(resultSet -> {
+            if (resultSet.getInt("id") == 7) {
+              throw new SQLException("bad row");
+            }
+            return resultSet.getInt("id");
+          })
+          .execute()
+          .collect(toList()));
+
+    assertThat(throwable)
+          .isInstanceOf(UncheckedSQLException.class)
+          .hasMessage("bad row");
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test(timeout = 10_000)
+  public void failureInParallelStreamStopsOtherPartitions() {
+    Throwable throwable = catchThrowable(() -> DB.with(dataSource)
+          .query(SQL)
+          .partitions(Partitions.range("lo", "hi", 1, 10, 5))
+          .map(resultSet -> {
+            if (resultSet.getInt("id") == 1) {
+              throw new SQLException("bad row");
+            }
+            return resultSet.getInt("id");
+          })
+          .parallelism(1)
+          .bufferSize(1)
+          .execute()
+          .parallel()
+          .collect(toList()));
+
+    assertThat(throwable).hasRootCauseInstanceOf(SQLException.class);
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void explicitConnectionExecutesPartitionsInTurn() throws SQLException {
+    try (Connection connection = dataSource.getConnection()) {
+      List<Integer> ids = DB.with(connection)
+            .query(SQL)
+            .partitions(Partitions.range("lo", "hi", 3, 6, 2))
+            .map(resultSet -> resultSet.getInt("id"))
+            .parallelism(4)
+            .execute()
+            .collect(toList());
+
+      assertThat(ids).containsExactly(3, 4, 5, 6);
+    }
+  }
+
+  @Test
+  public void noPartitions() {
+    List<Map<String, Object>> none = Collections.emptyList();
+
+    List<Integer> ids = DB.with(dataSource)
+          .query(SQL)
+          .partitions(none)
+          .map(resultSet -> resultSet.getInt("id"))
+          .execute()
+          .collect(toList());
+
+    assertThat(ids).isEmpty();
+  }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests for reading rows ahead of the consumer with {@link QueryOptions#prefetchRows(int)}.
+ */
+public class DBPrefetchTest {
+
+  private JdbcConnectionPool dataSource;
+
+  @Before
+  public void populateDataSource() throws Exception {
+    dataSource = (JdbcConnectionPool)TestDB.createPopulatedDataSource();
+  }
+
+  @Test
+  public void rowsMappedOnAnotherThread() {
+    Set<Thread> mappers = ConcurrentHashMap.newKeySet();
+    List<Integer> ids = DB.with(dataSource)
+          .query("SELECT id FROM animals ORDER BY id")
+          .map(rs -> {
+            mappers.add(Thread.currentThread());
+            return rs.getInt("id");
+          })
+          .prefetchRows(3)
+          .execute()
+          .collect(toList());
+
+    assertThat(ids).containsExactly(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+    assertThat(mappers).doesNotContain(Thread.currentThread()).hasSize(1);
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void producerWaitsForConsumer() throws Exception {
+    CountDownLatch fourthMapped = new CountDownLatch(1);
+    CountDownLatch fifthMapped = new CountDownLatch(1);
+    AtomicInteger consumed = new AtomicInteger();
+    AtomicInteger consumedWhenFifthMapped = new AtomicInteger();
+    try (Stream<Integer> ids = DB.with(dataSource)
+          .query("SELECT id FROM animals ORDER BY id")
+          .map(rs -> {
+            int id = rs.getInt("id");
+            if (id == 4) {
+              fourthMapped.countDown();
+            } else if (id == 5) {
+              consumedWhenFifthMapped.set(consumed.get());
+              fifthMapped.countDown();
+            }
+            return id;
+          })
+          .prefetchRows(2)
+          .execute()) {
+
+      Iterator<Integer> iterator = ids.iterator();
+      consumed.incrementAndGet();
+      assertThat(iterator.next()).isEqualTo(1);
+
+      // One consumed, two buffered, and the fourth waiting to be buffered
+      assertThat(fourthMapped.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(dataSource.getActiveConnections()).isOne();
+
+      consumed.incrementAndGet();
+      assertThat(iterator.next()).isEqualTo(2);
+      assertThat(fifthMapped.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(consumedWhenFifthMapped.get()).isEqualTo(2);
+    }
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void nullRowsPassedThrough() {
+    List<String> names = DB.with(dataSource)
+          .query("SELECT NULLIF(name, 'cat') AS name FROM animals WHERE id <= 3 ORDER BY id")
+          .map(rs -> rs.getString("name"))
+          .prefetchRows(1)
+          .execute()
+          .collect(toList());
+
+    assertThat(names).containsExactly("dog", null, "mouse");
+  }
+
+  @Test
+  public void sqlFailurePropagated() {
+    Throwable thrown = catchThrowable(() -> DB.with(dataSource)
+          .query("SELECT id FROM animals")
+          .map(rs -> rs.getInt("missing"))
+          .prefetchRows(4)
+          .execute()
+          .count());
+
+    assertThat(thrown).isInstanceOf(UncheckedSQLException.class);
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void mapperFailurePropagatedAfterEarlierRows() {
+    AtomicInteger consumed = new AtomicInteger();
+    Throwable thrown = catchThrowable(() -> DB.with(dataSource)
+          .query("SELECT id FROM animals ORDER BY id")
+          .map(rs -> {
+            if (rs.getInt("id") == 5) {
+              throw new IllegalStateException("Bad row");
+            }
+            return rs.getInt("id");
+          })
+          .prefetchRows(2)
+          .execute()
+          .forEach(id -> consumed.incrementAndGet()));
+
+    assertThat(thrown).isInstanceOf(IllegalStateException.class).hasMessage("Bad row");
+    assertThat(consumed.get()).isEqualTo(4);
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void prefetchNotStarvedByBoundedPool() throws Exception {
+    ExecutorService pool = QueryExecutors.bounded(1);
+    try {
+      List<Integer> ids = DB.with(dataSource)
+            .executor(pool)
+            .query("SELECT id FROM animals ORDER BY id")
+            .map(rs -> rs.getInt("id"))
+            .prefetchRows(2)
+            .executeAsync()
+            .get(5, TimeUnit.SECONDS);
+
+      assertThat(ids).hasSize(10);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void rejectedExecutionClosesResources() {
+    Throwable thrown = catchThrowable(() -> DB.with(dataSource)
+          .executor(task -> { throw new RejectedExecutionException("Full"); })
+          .query("SELECT id FROM animals")
+          .map(rs -> rs.getInt("id"))
+          .prefetchRows(2)
+          .execute());
+
+    assertThat(thrown).isInstanceOf(RejectedExecutionException.class);
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+}
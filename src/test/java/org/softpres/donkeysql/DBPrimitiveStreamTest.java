@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests for mapping rows to primitive streams with {@link DB.MappableQuery#mapToInt(IntRowMapper)}.
+ */
+public class DBPrimitiveStreamTest {
+
+  private JdbcConnectionPool dataSource;
+
+  @Before
+  public void populateDataSource() throws Exception {
+    dataSource = (JdbcConnectionPool)TestDB.createPopulatedDataSource();
+  }
+
+  @Test
+  public void intsCollectedToArray() {
+    int[] ids = DB.with(dataSource)
+          .query("SELECT id FROM animals WHERE legs = :legs ORDER BY id")
+          .param("legs", 4)
+          .mapToInt(rs -> rs.getInt("id"))
+          .execute()
+          .toArray();
+
+    assertThat(ids).containsExactly(1, 2, 3, 9);
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void longsFromIndexedQuery() {
+    long total = DB.with(dataSource)
+          .query("SELECT legs FROM animals WHERE id <= ?")
+          .params(10)
+          .mapToLong(rs -> rs.getLong(1))
+          .execute()
+          .sum();
+
+    assertThat(total).isEqualTo(38);
+  }
+
+  @Test
+  public void doublesFromUnparameterisedQuery() {
+    double[] halves = DB.with(dataSource)
+          .query("SELECT legs / 2.0 AS half FROM animals WHERE id <= 2 ORDER BY id")
+          .mapToDouble(rs -> rs.getDouble("half"))
+          .execute()
+          .toArray();
+
+    assertThat(halves).containsExactly(2.0, 2.0);
+  }
+
+  @Test
+  public void optionsApplied() {
+    int[] ids = DB.with(dataSource)
+          .query("SELECT id FROM animals ORDER BY id")
+          .mapToInt(rs -> rs.getInt("id"))
+          .maxRows(3)
+          .execute()
+          .toArray();
+
+    assertThat(ids).containsExactly(1, 2, 3);
+  }
+
+  @Test
+  public void chunksFlattenedInOrder() {
+    int[] ids = DB.with(dataSource)
+          .query("SELECT id FROM animals WHERE id IN (:ids) ORDER BY id")
+          .param("ids", Arrays.asList(1, 2, 3, 4, 5))
+          .mapToInt(rs -> rs.getInt("id"))
+          .chunkSize(2)
+          .execute()
+          .toArray();
+
+    assertThat(ids).containsExactly(1, 2, 3, 4, 5);
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void partialConsumptionClosedExplicitly() {
+    try (IntStream ids = DB.with(dataSource)
+          .query("SELECT id FROM animals ORDER BY id")
+          .mapToInt(rs -> rs.getInt("id"))
+          .execute()) {
+
+      PrimitiveIterator.OfInt iterator = ids.iterator();
+      assertThat(iterator.nextInt()).isEqualTo(1);
+      assertThat(dataSource.getActiveConnections()).isOne();
+    }
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void mapperFailureClosesResources() {
+    Throwable thrown = catchThrowable(() -> DB.with(dataSource)
+          .query("SELECT id FROM animals ORDER BY id")
+          .mapToInt(rs -> rs.getInt("missing"))
+          .execute()
+          .sum());
+
+    assertThat(thrown).isInstanceOf(UncheckedSQLException.class);
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+}
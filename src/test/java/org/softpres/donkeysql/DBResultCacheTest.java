@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for serving repeated queries from a {@link ResultCache}.
+ */
+public class DBResultCacheTest {
+
+  private DataSource dataSource;
+  private DB db;
+  private ResultCache<String> cache;
+
+  @Before
+  public void createDataSource() throws SQLException {
+    dataSource = spy(TestDB.createPopulatedDataSource());
+    db = DB.with(dataSource);
+    cache = new ResultCache<>();
+  }
+
+  @Test
+  public void repeatedQueriesServedFromCache() throws SQLException {
+    assertThat(names(4)).containsExactly("dog", "cat", "mouse", "horse");
+    assertThat(names(4)).containsExactly("dog", "cat", "mouse", "horse");
+
+    verify(dataSource, times(1)).getConnection();
+    assertThat(cache.hits()).isEqualTo(1);
+    assertThat(cache.misses()).isEqualTo(1);
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.weight()).isEqualTo(4);
+  }
+
+  @Test
+  public void parameterValuesPartOfKey() throws SQLException {
+    assertThat(names(4)).hasSize(4);
+    assertThat(names(0)).containsExactly("fish", "worm");
+    assertThat(names(4)).hasSize(4);
+
+    verify(dataSource, times(2)).getConnection();
+    assertThat(cache.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void indexedAndExpandedParametersCached() throws SQLException {
+    for (int i = 0; i < 2; i++) {
+      assertThat(db.query("SELECT name FROM animals WHERE id = ?")
+            .params(1)
+            .map(rs -> rs.getString("name"))
+            .cache(cache)
+            .execute()
+            .collect(toList())).containsExactly("dog");
+
+      assertThat(db.query("SELECT name FROM animals WHERE id IN (:ids) ORDER BY id")
+            .param("ids", Arrays.asList(7, 8))
+            .map(rs -> rs.getString("name"))
+            .cache(cache)
+            .execute()
+            .collect(toList())).containsExactly("spider", "ant");
+    }
+
+    verify(dataSource, times(2)).getConnection();
+    assertThat(cache.hits()).isEqualTo(2);
+  }
+
+  @Test
+  public void expiredAfterTimeToLive() throws SQLException {
+    AtomicLong time = new AtomicLong();
+    cache = new ResultCache<String>(time::get).ttl(Duration.ofMillis(1));
+
+    names(4);
+    time.addAndGet(Duration.ofMillis(1).toNanos() - 1);
+    names(4);
+    time.incrementAndGet();
+    names(4);
+
+    verify(dataSource, times(2)).getConnection();
+    assertThat(cache.hits()).isEqualTo(1);
+    assertThat(cache.expirations()).isEqualTo(1);
+    assertThat(cache.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void leastRecentlyUsedEvictedOverMaxEntries() throws SQLException {
+    cache.maxEntries(2);
+
+    names(4);
+    names(0);
+    names(4);
+    names(8);
+
+    assertThat(cache.evictions()).isEqualTo(1);
+    assertThat(cache.size()).isEqualTo(2);
+
+    names(4);
+    names(0);
+    verify(dataSource, times(4)).getConnection();
+  }
+
+  @Test
+  public void evictedOverMaxWeight() {
+    cache.maxWeight(5);
+
+    names(4);
+    names(0);
+
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.weight()).isEqualTo(2);
+    assertThat(cache.evictions()).isEqualTo(1);
+  }
+
+  @Test
+  public void weigherApplied() {
+    cache.weigher(rows -> rows.stream().mapToLong(String::length).sum());
+
+    names(0);
+
+    assertThat(cache.weight()).isEqualTo(8);
+  }
+
+  @Test
+  public void invalidatedByTemplate() throws SQLException {
+    names(4);
+    names(0);
+    db.query("SELECT name FROM animals WHERE id = 1")
+          .map(rs -> rs.getString("name"))
+          .cache(cache)
+          .execute();
+
+    cache.invalidate("SELECT name FROM animals WHERE legs = :legs ORDER BY id");
+
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.weight()).isEqualTo(1);
+    names(4);
+    verify(dataSource, times(4)).getConnection();
+
+    cache.invalidateAll();
+    assertThat(cache.size()).isZero();
+    assertThat(cache.weight()).isZero();
+  }
+
+  @Test
+  public void failuresNotCached() throws SQLException {
+    for (int i = 0; i < 2; i++) {
+      Throwable thrown = catchThrowable(() -> db.query("SELECT name FROM animals")
+            .map(rs -> rs.getString("missing"))
+            .cache(cache)
+            .execute());
+
+      assertThat(thrown).isInstanceOf(UncheckedSQLException.class);
+    }
+
+    verify(dataSource, times(2)).getConnection();
+    assertThat(cache.size()).isZero();
+  }
+
+  @Test
+  public void concurrentMissesLoadOnce() throws Exception {
+    CountDownLatch reading = new CountDownLatch(1);
+    CountDownLatch waiting = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    // Until the load completes, the clock is only read when a caller finds the entry being loaded
+    cache = new ResultCache<>(() -> {
+      waiting.countDown();
+      return System.nanoTime();
+    });
+    StagedQuery<String> blocking = db.query("SELECT name FROM animals WHERE legs = :legs ORDER BY id")
+          .param("legs", 4)
+          .map(rs -> {
+            reading.countDown();
+            await(release);
+            return rs.getString("name");
+          })
+          .cache(cache);
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    CompletableFuture<List<String>> first = CompletableFuture.supplyAsync(
+          () -> blocking.execute().collect(toList()), executor);
+    reading.await();
+    CompletableFuture<List<String>> second = CompletableFuture.supplyAsync(() -> names(4), executor);
+    waiting.await();
+    release.countDown();
+
+    assertThat(first.get()).containsExactly("dog", "cat", "mouse", "horse");
+    assertThat(second.get()).isEqualTo(first.get());
+    verify(dataSource, times(1)).getConnection();
+    executor.shutdown();
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private List<String> names(int legs) {
+    return db.query("SELECT name FROM animals WHERE legs = :legs ORDER BY id")
+          .param("legs", legs)
+          .map(rs -> rs.getString("name"))
+          .cache(cache)
+          .execute()
+          .collect(toList());
+  }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for reusing prepared statements with a {@link StatementCache}.
+ */
+public class DBStatementCacheTest {
+
+  private Connection connection;
+  private Connection spy;
+  private DB db;
+
+  @Before
+  public void createConnection() throws SQLException {
+    DataSource dataSource = TestDB.createPopulatedDataSource();
+    connection = dataSource.getConnection();
+    spy = spy(connection);
+    db = DB.with(spy).cacheStatements(2);
+  }
+
+  @After
+  public void closeConnection() throws SQLException {
+    db.statementCache().close();
+    connection.close();
+  }
+
+  @Test
+  public void statementPreparedOnceForRepeatedQueries() throws SQLException {
+    assertThat(legs("dog")).containsExactly(4);
+    assertThat(legs("spider")).containsExactly(8);
+    assertThat(legs("fish")).containsExactly(0);
+
+    verify(spy, times(1)).prepareStatement(anyString());
+    assertThat(db.statementCache().hits()).isEqualTo(2);
+    assertThat(db.statementCache().misses()).isEqualTo(1);
+    assertThat(db.statementCache().size()).isEqualTo(1);
+  }
+
+  @Test
+  public void updatesShareCachedStatements() {
+    for (int id = 1; id <= 3; id++) {
+      db.update("UPDATE animals SET legs = :legs WHERE id = :id")
+            .param("legs", 100 + id)
+            .param("id", id)
+            .execute();
+    }
+
+    assertThat(db.statementCache().misses()).isEqualTo(1);
+    assertThat(db.statementCache().hits()).isEqualTo(2);
+    assertThat(legs("cat")).containsExactly(102);
+  }
+
+  @Test
+  public void batchesShareCachedStatements() throws SQLException {
+    for (int id = 1; id <= 3; id++) {
+      db.batch("UPDATE animals SET legs = ? WHERE id = ?")
+            .executeIndexed(Stream.of(new Object[] { 100 + id, id }, new Object[] { 200 + id, id + 5 }));
+    }
+
+    verify(spy, times(1)).prepareStatement(anyString());
+    assertThat(db.statementCache().hits()).isEqualTo(2);
+    assertThat(legs("cat")).containsExactly(102);
+    assertThat(legs("worm")).containsExactly(201);
+  }
+
+  @Test
+  public void closedStreamsReleaseStatementOnce() {
+    for (String name : Arrays.asList("dog", "cat", "spider")) {
+      try (Stream<Integer> legs = legsQuery(name).execute()) {
+        assertThat(legs.collect(toList())).hasSize(1);
+      }
+    }
+
+    assertThat(db.statementCache().misses()).isEqualTo(1);
+    assertThat(db.statementCache().hits()).isEqualTo(2);
+  }
+
+  @Test
+  public void leastRecentlyUsedStatementEvicted() {
+    legs("dog");
+    count(4);
+    legs("cat");
+    nameOf(1);
+
+    StatementCache cache = db.statementCache();
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.evictions()).isEqualTo(1);
+
+    count(4);
+
+    assertThat(cache.misses()).isEqualTo(4);
+    assertThat(cache.evictions()).isEqualTo(2);
+  }
+
+  @Test
+  public void statementInUseNotShared() {
+    try (Stream<Integer> first = legsQuery("dog").execute();
+         Stream<Integer> second = legsQuery("cat").execute()) {
+
+      assertThat(first.collect(toList())).containsExactly(4);
+      assertThat(second.collect(toList())).containsExactly(4);
+    }
+
+    assertThat(db.statementCache().misses()).isEqualTo(2);
+    assertThat(db.statementCache().size()).isEqualTo(1);
+  }
+
+  @Test
+  public void optionsDoNotCarryOverBetweenUses() {
+    assertThat(legsQuery("dog").maxRows(1).execute().collect(toList())).hasSize(1);
+
+    List<String> names = db.query("SELECT name FROM animals WHERE legs = ? ORDER BY id")
+          .params(4)
+          .map(rs -> rs.getString("name"))
+          .maxRows(1)
+          .execute()
+          .collect(toList());
+    List<String> unlimited = db.query("SELECT name FROM animals WHERE legs = ? ORDER BY id")
+          .params(4)
+          .map(rs -> rs.getString("name"))
+          .execute()
+          .collect(toList());
+
+    assertThat(names).containsExactly("dog");
+    assertThat(unlimited).containsExactly("dog", "cat", "mouse", "horse");
+    assertThat(db.statementCache().hits()).isEqualTo(1);
+  }
+
+  @Test
+  public void parametersClearedOnRelease() throws SQLException {
+    PreparedStatement statement = mock(PreparedStatement.class);
+    Connection mocked = mock(Connection.class);
+    when(mocked.prepareStatement(anyString())).thenReturn(statement);
+    StatementCache cache = new StatementCache(mocked, 1);
+
+    cache.release(cache.checkout("SELECT 1", QueryOptions.defaults()));
+    cache.release(cache.checkout("SELECT 1", QueryOptions.defaults()));
+    cache.close();
+
+    verify(mocked, times(1)).prepareStatement("SELECT 1");
+    verify(statement, times(2)).clearParameters();
+    verify(statement).setMaxRows(0);
+    verify(statement).close();
+  }
+
+  @Test
+  public void forwardOnlyCachedSeparately() throws SQLException {
+    legs("dog");
+    legsQuery("dog").forwardOnly().execute().collect(toList());
+
+    assertThat(db.statementCache().misses()).isEqualTo(2);
+    assertThat(db.statementCache().size()).isEqualTo(2);
+  }
+
+  @Test
+  public void closeClosesIdleStatements() throws SQLException {
+    legs("dog");
+    db.statementCache().close();
+
+    assertThat(db.statementCache().size()).isZero();
+    assertThat(connection.isClosed()).isFalse();
+  }
+
+  @Test
+  public void onlySupportedForExplicitConnections() throws SQLException {
+    Throwable pooled = catchThrowable(() -> DB.with(TestDB.createPopulatedDataSource()).cacheStatements(10));
+    Throwable uncached = catchThrowable(() -> DB.with(connection).statementCache());
+
+    assertThat(pooled).isInstanceOf(IllegalStateException.class);
+    assertThat(uncached).isInstanceOf(IllegalStateException.class);
+    assertThat(catchThrowable(() -> DB.with(connection).cacheStatements(0)))
+          .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private List<Integer> legs(String name) {
+    return legsQuery(name).execute().collect(toList());
+  }
+
+  private StagedQuery<Integer> legsQuery(String name) {
+    return db.query("SELECT legs FROM animals WHERE name = :name")
+          .param("name", name)
+          .map(rs -> rs.getInt("legs"));
+  }
+
+  private List<Long> count(int legs) {
+    return db.query("SELECT COUNT(*) AS total FROM animals WHERE legs = :legs")
+          .param("legs", legs)
+          .map(rs -> rs.getLong("total"))
+          .execute()
+          .collect(toList());
+  }
+
+  private List<String> nameOf(int id) {
+    return db.query("SELECT name FROM animals WHERE id IN (:ids)")
+          .param("ids", Arrays.asList(id))
+          .map(rs -> rs.getString("name"))
+          .execute()
+          .collect(toList());
+  }
+
+}
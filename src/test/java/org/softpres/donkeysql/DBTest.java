@@ -164,4 +164,21 @@ public class DBTest {
     assertThat(names).containsOnly("ant", "beetle", "spider", "dog", "cat");
   }
 
+  @Test
+  public void repeatedQueryIsParsedOnce() {
+    String sql = "SELECT name FROM animals WHERE id = :id -- repeatedQueryIsParsedOnce";
+    long misses = DB.templateCache().misses();
+
+    for (int id = 1; id <= 3; id++) {
+      DB.with(dataSource)
+            .query(sql)
+            .param("id", id)
+            .map(resultSet -> resultSet.getString("name"))
+            .execute()
+            .collect(toList());
+    }
+
+    assertThat(DB.templateCache().misses()).isEqualTo(misses + 1);
+  }
+
 }
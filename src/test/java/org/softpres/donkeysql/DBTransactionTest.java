@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for performing work in a transaction with {@link DB#transaction(DataSource, TransactionWork)}.
+ */
+public class DBTransactionTest {
+
+  private JdbcConnectionPool dataSource;
+
+  @Before
+  public void populateDataSource() throws Exception {
+    dataSource = (JdbcConnectionPool)TestDB.createPopulatedDataSource();
+  }
+
+  @Test
+  public void workCommittedOnCompletion() {
+    List<Integer> legs = DB.transaction(dataSource, tx -> {
+      tx.update("UPDATE animals SET legs = 3 WHERE name = :name").param("name", "dog").execute();
+      tx.update("INSERT INTO animals (id, name, legs) VALUES (?, ?, ?)").params(11, "tripod", 3).execute();
+      return tx.query("SELECT id FROM animals WHERE legs = 3 ORDER BY id")
+            .map(rs -> rs.getInt("id"))
+            .execute()
+            .collect(toList());
+    });
+
+    assertThat(legs).containsExactly(1, 11);
+    assertThat(legsOf("dog")).containsExactly(3);
+    assertThat(legsOf("tripod")).containsExactly(3);
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void workRolledBackOnFailure() {
+    Throwable thrown = catchThrowable(() -> DB.transaction(dataSource, tx -> {
+      tx.update("UPDATE animals SET legs = 3 WHERE name = :name").param("name", "dog").execute();
+      return tx.update("UPDATE missing SET legs = 3").execute();
+    }));
+
+    assertThat(thrown).isInstanceOf(UncheckedSQLException.class);
+    assertThat(legsOf("dog")).containsExactly(4);
+    assertThat(dataSource.getActiveConnections()).isZero();
+  }
+
+  @Test
+  public void runtimeExceptionsRolledBackAndRethrown() {
+    IllegalStateException failure = new IllegalStateException("Failed");
+
+    Throwable thrown = catchThrowable(() -> DB.transaction(dataSource, tx -> {
+      tx.update("DELETE FROM animals").execute();
+      throw failure;
+    }));
+
+    assertThat(thrown).isSameAs(failure);
+    assertThat(legsOf("dog")).containsExactly(4);
+  }
+
+  @Test
+  public void uncommittedChangesNotVisibleToOtherConnections() {
+    List<Integer> outside = DB.transaction(dataSource, tx -> {
+      tx.update("UPDATE animals SET legs = 3 WHERE name = :name").param("name", "dog").execute();
+      return legsOf("dog");
+    });
+
+    assertThat(outside).containsExactly(4);
+  }
+
+  @Test
+  public void singleConnectionUsedAndSettingsRestored() throws SQLException {
+    Connection connection = mock(Connection.class);
+    when(connection.getAutoCommit()).thenReturn(true);
+    when(connection.getTransactionIsolation()).thenReturn(Connection.TRANSACTION_READ_COMMITTED);
+    DataSource mocked = mock(DataSource.class);
+    when(mocked.getConnection()).thenReturn(connection);
+
+    TransactionOptions options = TransactionOptions.defaults()
+          .isolation(Connection.TRANSACTION_SERIALIZABLE)
+          .readOnly();
+    String result = DB.transaction(mocked, options, tx -> "done");
+
+    assertThat(result).isEqualTo("done");
+    verify(mocked, times(1)).getConnection();
+    verify(connection).setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+    verify(connection).setReadOnly(true);
+    verify(connection).setAutoCommit(false);
+    verify(connection).commit();
+    verify(connection, never()).rollback();
+    verify(connection).setAutoCommit(true);
+    verify(connection).setReadOnly(false);
+    verify(connection).setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+    verify(connection).close();
+  }
+
+  @Test
+  public void nestedTransactionJoinsOuter() {
+    Throwable thrown = catchThrowable(() -> DB.transaction(dataSource, tx -> {
+      tx.transaction(inner -> inner.update("DELETE FROM animals WHERE id = 1").execute());
+      throw new IllegalStateException("Outer failed");
+    }));
+
+    assertThat(thrown).isInstanceOf(IllegalStateException.class);
+    assertThat(legsOf("dog")).containsExactly(4);
+  }
+
+  @Test
+  public void explicitConnectionLeftOpen() throws SQLException {
+    try (Connection connection = dataSource.getConnection()) {
+      int deleted = DB.with(connection).transaction(tx -> tx.update("DELETE FROM animals WHERE id = 1").execute());
+
+      assertThat(deleted).isOne();
+      assertThat(connection.isClosed()).isFalse();
+      assertThat(connection.getAutoCommit()).isTrue();
+    }
+    assertThat(legsOf("dog")).isEmpty();
+  }
+
+  @Test
+  public void explicitConnectionJoinsCallersTransaction() throws SQLException {
+    try (Connection connection = dataSource.getConnection()) {
+      connection.setAutoCommit(false);
+      DB.with(connection).update("DELETE FROM animals WHERE id = 1").execute();
+
+      DB.with(connection).transaction(tx -> tx.update("DELETE FROM animals WHERE id = 2").execute());
+      assertThat(connection.getAutoCommit()).isFalse();
+      connection.rollback();
+    }
+
+    assertThat(legsOf("dog")).containsExactly(4);
+    assertThat(legsOf("cat")).containsExactly(4);
+  }
+
+  @Test
+  public void unknownIsolationRejected() {
+    Throwable thrown = catchThrowable(() -> TransactionOptions.defaults().isolation(3));
+
+    assertThat(thrown).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private List<Integer> legsOf(String name) {
+    return DB.with(dataSource)
+          .query("SELECT legs FROM animals WHERE name = :name")
+          .param("name", name)
+          .map(rs -> rs.getInt("legs"))
+          .execute()
+          .collect(toList());
+  }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Unit tests for {@link StagedUpdate} and {@link BatchUpdate}.
+ */
+public class DBUpdateTest {
+
+  private DataSource dataSource;
+
+  @Before
+  public void populateDataSource() throws Exception {
+    dataSource = TestDB.createPopulatedDataSource();
+  }
+
+  @Test
+  public void updateWithNamedParameters() {
+    int count = DB.with(dataSource)
+          .update("UPDATE animals SET legs = :legs WHERE name IN (:names)")
+          .param("legs", 5)
+          .param("names", Arrays.asList("dog", "cat"))
+          .execute();
+
+    assertThat(count).isEqualTo(2);
+    assertThat(namesWithLegs(5)).containsOnly("dog", "cat");
+  }
+
+  @Test
+  public void updateWithIndexedParameters() {
+    int count = DB.with(dataSource)
+          .update("DELETE FROM animals WHERE legs = ?")
+          .params(0)
+          .execute();
+
+    assertThat(count).isEqualTo(2);
+    assertThat(namesWithLegs(0)).isEmpty();
+  }
+
+  @Test
+  public void updateWithoutParameters() {
+    int count = DB.with(dataSource)
+          .update("DELETE FROM animals")
+          .execute();
+
+    assertThat(count).isEqualTo(10);
+  }
+
+  @Test
+  public void updateWithMismatchedParameters() {
+    Throwable error = catchThrowable(() -> DB.with(dataSource)
+          .update("DELETE FROM animals WHERE legs = ?")
+          .params(0, 1)
+          .execute());
+
+    assertThat(error)
+          .isInstanceOf(UncheckedSQLException.class)
+          .hasMessageStartingWith("Parameters supplied do not correspond to SQL statement");
+  }
+
+  @Test
+  public void updateWithMixedParametersRejected() {
+    StagedUpdate named = DB.with(dataSource).update("DELETE FROM animals WHERE legs = :legs").param("legs", 0);
+    StagedUpdate indexed = DB.with(dataSource).update("DELETE FROM animals WHERE legs = ?").params(0);
+
+    assertThat(catchThrowable(() -> named.params(0))).isInstanceOf(IllegalStateException.class);
+    assertThat(catchThrowable(() -> indexed.param("legs", 0))).isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void peekAtUpdate() {
+    List<String> sql = new ArrayList<>();
+
+    DB.with(dataSource)
+          .update("UPDATE animals SET legs = :legs WHERE name = :name")
+          .param("legs", 3)
+          .param("name", "dog")
+          .peek(sql::add);
+
+    assertThat(sql).containsExactly("UPDATE animals SET legs = 3 WHERE name = 'dog'");
+  }
+
+  @Test
+  public void batchFlushesEverySizeRows() {
+    Stream<Map<String, Object>> rows = IntStream.rangeClosed(11, 15)
+          .mapToObj(id -> animal(id, "ant" + id, 6));
+
+    List<int[]> counts = DB.with(dataSource)
+          .batch("INSERT INTO animals VALUES (:id, :name, :legs)")
+          .size(2)
+          .execute(rows);
+
+    assertThat(counts).hasSize(3);
+    assertThat(counts.stream().mapToInt(batch -> batch.length).sum()).isEqualTo(5);
+    assertThat(namesWithLegs(6)).contains("ant11", "ant15");
+  }
+
+  @Test
+  public void batchFromObjects() {
+    List<String> names = Arrays.asList("newt", "crab");
+
+    DB.with(dataSource)
+          .batch("INSERT INTO animals VALUES (:id, :name, :legs)")
+          .execute(names.stream(), name -> animal(names.indexOf(name) + 20, name, 10));
+
+    assertThat(namesWithLegs(10)).containsOnly("newt", "crab");
+  }
+
+  @Test
+  public void batchWithIndexedParameters() {
+    List<int[]> counts = DB.with(dataSource)
+          .batch("UPDATE animals SET legs = ? WHERE id = ?")
+          .executeIndexed(Stream.of(new Object[] { 1, 1 }, new Object[] { 1, 2 }));
+
+    assertThat(counts).hasSize(1);
+    assertThat(namesWithLegs(1)).containsOnly("dog", "cat");
+  }
+
+  @Test
+  public void batchWithChangingStatementShape() {
+    List<Map<String, Object>> rows = Arrays.asList(
+          legsForNames(1, "dog"),
+          legsForNames(1, "cat"),
+          legsForNames(3, "ant", "beetle"));
+
+    List<int[]> counts = DB.with(dataSource)
+          .batch("UPDATE animals SET legs = :legs WHERE name IN (:names)")
+          .execute(rows);
+
+    assertThat(counts).hasSize(2);
+    assertThat(namesWithLegs(1)).containsOnly("dog", "cat");
+    assertThat(namesWithLegs(3)).containsOnly("ant", "beetle");
+  }
+
+  @Test
+  public void batchOfNothing() {
+    List<int[]> counts = DB.with(dataSource)
+          .batch("DELETE FROM animals WHERE id = :id")
+          .execute(Collections.emptyList());
+
+    assertThat(counts).isEmpty();
+  }
+
+  @Test
+  public void invalidBatchSize() {
+    Throwable error = catchThrowable(() -> DB.with(dataSource).batch("DELETE FROM animals").size(0));
+
+    assertThat(error).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private List<String> namesWithLegs(int legs) {
+    return DB.with(dataSource)
+          .query("SELECT name FROM animals WHERE legs = :legs")
+          .param("legs", legs)
+          .map(resultSet -> resultSet.getString("name"))
+          .execute()
+          .collect(toList());
+  }
+
+  private static Map<String, Object> animal(int id, String name, int legs) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("id", id);
+    params.put("name", name);
+    params.put("legs", legs);
+    return params;
+  }
+
+  private static Map<String, Object> legsForNames(int legs, String... names) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("legs", legs);
+    params.put("names", Arrays.asList(names));
+    return params;
+  }
+
+}
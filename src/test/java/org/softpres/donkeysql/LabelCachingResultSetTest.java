@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.junit.Test;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link LabelCachingResultSet}.
+ */
+public class LabelCachingResultSetTest {
+
+  private final ResultSet delegate = mock(ResultSet.class);
+  private final ResultSet resultSet = new LabelCachingResultSet(delegate);
+
+  @Test
+  public void labelResolvedOnce() throws SQLException {
+    when(delegate.findColumn("name")).thenReturn(2);
+    when(delegate.getString(2)).thenReturn("dog", "cat");
+
+    assertThat(resultSet.getString("name")).isEqualTo("dog");
+    assertThat(resultSet.getString("name")).isEqualTo("cat");
+
+    verify(delegate, times(1)).findColumn("name");
+    verify(delegate, never()).getString("name");
+  }
+
+  @Test
+  public void labelsResolvedSeparately() throws SQLException {
+    when(delegate.findColumn("id")).thenReturn(1);
+    when(delegate.findColumn("ID")).thenReturn(1);
+    when(delegate.findColumn("legs")).thenReturn(3);
+    when(delegate.getInt(1)).thenReturn(7);
+    when(delegate.getInt(3)).thenReturn(8);
+
+    assertThat(resultSet.getInt("id")).isEqualTo(7);
+    assertThat(resultSet.getInt("ID")).isEqualTo(7);
+    assertThat(resultSet.getInt("legs")).isEqualTo(8);
+  }
+
+  @Test
+  public void indexAccessDelegated() throws SQLException {
+    when(delegate.getLong(4)).thenReturn(42L);
+    when(delegate.wasNull()).thenReturn(true);
+
+    assertThat(resultSet.getLong(4)).isEqualTo(42L);
+    assertThat(resultSet.wasNull()).isTrue();
+    verify(delegate, never()).findColumn(anyString());
+  }
+
+  @Test
+  public void unwrapsDelegate() throws SQLException {
+    assertThat(resultSet.unwrap(ResultSet.class)).isSameAs(delegate);
+    assertThat(resultSet.isWrapperFor(ResultSet.class)).isTrue();
+  }
+
+}
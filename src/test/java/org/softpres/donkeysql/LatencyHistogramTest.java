@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Unit tests for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+  @Test
+  public void emptyHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    assertThat(histogram.count()).isZero();
+    assertThat(histogram.percentile(99)).isZero();
+    assertThat(histogram.mean()).isZero();
+  }
+
+  @Test
+  public void smallValuesExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 10; i++) {
+      histogram.record(i);
+    }
+
+    assertThat(histogram.percentile(50)).isEqualTo(5);
+    assertThat(histogram.percentile(100)).isEqualTo(10);
+    assertThat(histogram.mean()).isEqualTo(5.5);
+  }
+
+  @Test
+  public void percentilesWithinBucketPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long micros = 1; micros <= 10_000; micros++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+    }
+
+    assertThat((double)histogram.percentile(50)).isCloseTo(5_000_000, within(5_000_000 * 0.0625));
+    assertThat((double)histogram.percentile(99)).isCloseTo(9_900_000, within(9_900_000 * 0.0625));
+    assertThat(histogram.percentile(100)).isEqualTo(histogram.max()).isEqualTo(10_000_000);
+    assertThat(histogram.count()).isEqualTo(10_000);
+  }
+
+  @Test
+  public void bucketsContainTheirValues() {
+    for (long value : new long[] {0, 15, 16, 17, 31, 32, 1000, 123_456_789, 1L << 40, (1L << 45) - 1}) {
+      int index = LatencyHistogram.index(value);
+      assertThat(LatencyHistogram.upperBound(index)).isGreaterThanOrEqualTo(value);
+      assertThat(index == 0 || LatencyHistogram.upperBound(index - 1) < value).isTrue();
+    }
+  }
+
+  @Test
+  public void hugeValuesCountedInHighestBucket() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(Long.MAX_VALUE);
+    histogram.record(-5);
+
+    assertThat(histogram.count()).isEqualTo(2);
+    assertThat(histogram.max()).isEqualTo(Long.MAX_VALUE);
+    assertThat(histogram.percentile(0)).isZero();
+  }
+
+  @Test
+  public void percentileOutOfRangeRejected() {
+    Throwable thrown = catchThrowable(() -> new LatencyHistogram().percentile(101));
+
+    assertThat(thrown).isInstanceOf(IllegalArgumentException.class);
+  }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Unit tests for {@link Partitions}.
+ */
+public class PartitionsTest {
+
+  @Test
+  public void rangeSplitEvenly() {
+    assertThat(bounds(Partitions.range("lo", "hi", 1, 10, 2)))
+          .containsExactly("1-5", "6-10");
+  }
+
+  @Test
+  public void rangeSplitWithRemainder() {
+    assertThat(bounds(Partitions.range("lo", "hi", 1, 10, 3)))
+          .containsExactly("1-4", "5-8", "9-10");
+  }
+
+  @Test
+  public void rangeSmallerThanCount() {
+    assertThat(bounds(Partitions.range("lo", "hi", 5, 6, 4)))
+          .containsExactly("5-5", "6-6");
+  }
+
+  @Test
+  public void singleValueRange() {
+    assertThat(bounds(Partitions.range("lo", "hi", 7, 7, 1)))
+          .containsExactly("7-7");
+  }
+
+  @Test
+  public void invalidRange() {
+    assertThat(catchThrowable(() -> Partitions.range("lo", "hi", 2, 1, 1)))
+          .isInstanceOf(IllegalArgumentException.class);
+    assertThat(catchThrowable(() -> Partitions.range("lo", "hi", 1, 2, 0)))
+          .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private static List<String> bounds(List<Map<String, Object>> partitions) {
+    return partitions.stream()
+          .map(params -> params.get("lo") + "-" + params.get("hi"))
+          .collect(toList());
+  }
+
+}
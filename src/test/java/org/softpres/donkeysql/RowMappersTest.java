@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.sql.DataSource;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link RowMappers}.
+ */
+public class RowMappersTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private DataSource dataSource;
+
+  @Before
+  public void populateDataSource() throws Exception {
+    dataSource = TestDB.createPopulatedDataSource();
+  }
+
+  @Test
+  public void mapToSetters() {
+    List<AnimalBean> animals = query("SELECT id, name, legs FROM animals WHERE id <= 2 ORDER BY id", AnimalBean.class);
+
+    assertThat(animals).extracting(animal -> animal.id + ":" + animal.name + ":" + animal.legs)
+          .containsExactly("1:dog:4", "2:cat:4");
+  }
+
+  @Test
+  public void mapToFieldsIgnoringUnmatchedColumns() {
+    List<AnimalFields> animals = query("SELECT id AS animal_id, name, legs FROM animals WHERE id = 4", AnimalFields.class);
+
+    assertThat(animals).hasSize(1);
+    assertThat(animals.get(0).animalId).isEqualTo(4L);
+    assertThat(animals.get(0).name).isEqualTo("bird");
+  }
+
+  @Test
+  public void mapToConstructorByPosition() {
+    List<Animal> animals = query("SELECT name, legs FROM animals WHERE id IN (7, 8) ORDER BY id", Animal.class);
+
+    assertThat(animals).extracting(Animal::toString).containsExactly("spider:8", "ant:6");
+  }
+
+  @Test
+  public void mapNullToBoxedType() {
+    List<AnimalFields> animals = query("SELECT NULL AS legs, name FROM animals WHERE id = 1", AnimalFields.class);
+
+    assertThat(animals.get(0).legs).isNull();
+  }
+
+  @Test
+  public void mapEnum() {
+    List<Species> species = query("SELECT UPPER(name) AS species FROM animals WHERE id = 2", Species.class);
+
+    assertThat(species.get(0).species).isEqualTo(Species.Kind.CAT);
+  }
+
+  @Test
+  public void planCachedForEachShape() {
+    query("SELECT id, name FROM animals", AnimalBean.class);
+    int plans = RowMappers.cachedPlans(AnimalBean.class);
+
+    query("SELECT id, name FROM animals WHERE id > 5", AnimalBean.class);
+    assertThat(RowMappers.cachedPlans(AnimalBean.class)).isEqualTo(plans);
+
+    query("SELECT id, legs FROM animals", AnimalBean.class);
+    assertThat(RowMappers.cachedPlans(AnimalBean.class)).isEqualTo(plans + 1);
+  }
+
+  @Test
+  public void mapToRecordComponentsByName() throws Exception {
+    Class<?> type = compileRecord("AnimalRecord", "String name, int legs");
+
+    List<?> animals = query("SELECT legs, id, name FROM animals WHERE id IN (7, 8) ORDER BY id", type);
+
+    assertThat(animals).extracting(Object::toString)
+          .containsExactly("AnimalRecord[name=spider, legs=8]", "AnimalRecord[name=ant, legs=6]");
+  }
+
+  @Test
+  public void planResolvedOncePerResultSet() throws SQLException {
+    RowMapper<AnimalFields> mapper = RowMappers.of(AnimalFields.class);
+    try (Connection connection = dataSource.getConnection()) {
+      ResultSet first = spy(connection.createStatement().executeQuery("SELECT id, name FROM animals"));
+      ResultSet second = spy(connection.createStatement().executeQuery("SELECT id, legs FROM animals"));
+      ResultSetIterator<AnimalFields> firstRows = new ResultSetIterator<>(first, mapper);
+      ResultSetIterator<AnimalFields> secondRows = new ResultSetIterator<>(second, mapper);
+
+      for (int i = 0; i < 3; i++) {
+        firstRows.next();
+        secondRows.next();
+      }
+
+      verify(first, times(1)).getMetaData();
+      verify(second, times(1)).getMetaData();
+      firstRows.close();
+      secondRows.close();
+    }
+  }
+
+  @Test
+  public void columnCountMismatchForPositionalConstructor() {
+    Throwable throwable = catchThrowable(() -> query("SELECT id, name, legs FROM animals", Animal.class));
+
+    assertThat(throwable)
+          .isInstanceOf(UncheckedSQLException.class)
+          .hasMessageContaining("Expected 2 columns");
+  }
+
+  @Test
+  public void classWithoutSuitableConstructor() {
+    assertThat(catchThrowable(() -> RowMappers.of(Ambiguous.class)))
+          .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  /** Records cannot be compiled for the Java version targeted, so are compiled when supported. */
+  private Class<?> compileRecord(String name, String components) throws Exception {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    assumeTrue(compiler != null && hasMethod(Class.class, "isRecord"));
+
+    File source = new File(folder.getRoot(), name + ".java");
+    Files.write(source.toPath(), Collections.singletonList(
+          "public record " + name + "(" + components + ") { }"), StandardCharsets.UTF_8);
+    int result = compiler.run(null, null, null, "-d", folder.getRoot().getPath(), source.getPath());
+    assertThat(result).isZero();
+
+    URLClassLoader loader = new URLClassLoader(new URL[] { folder.getRoot().toURI().toURL() });
+    return loader.loadClass(name);
+  }
+
+  private static boolean hasMethod(Class<?> type, String name) {
+    try {
+      type.getMethod(name);
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  private <T> List<T> query(String sql, Class<T> type) {
+    return DB.with(dataSource)
+          .query(sql)
+          .map(RowMappers.of(type))
+          .execute()
+          .collect(toList());
+  }
+
+  public static class AnimalBean {
+    private int id;
+    private String name;
+    private int legs;
+
+    public void setId(int id) {
+      this.id = id;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public void setLegs(int legs) {
+      this.legs = legs;
+    }
+  }
+
+  static class AnimalFields {
+    long animalId;
+    String name;
+    Integer legs;
+  }
+
+  static class Animal {
+    private final String name;
+    private final int legs;
+
+    Animal(String name, int legs) {
+      this.name = name;
+      this.legs = legs;
+    }
+
+    @Override
+    public String toString() {
+      return name + ':' + legs;
+    }
+  }
+
+  static class Species {
+    enum Kind { DOG, CAT }
+
+    Kind species;
+  }
+
+  static class Ambiguous {
+    Ambiguous(int a) { }
+
+    Ambiguous(String b) { }
+  }
+
+}
@@ -9,12 +9,15 @@ import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Utility methods for DB tests against simple key-value style database.
  */
 public class TestDB {
 
+  private static final AtomicInteger DATABASES = new AtomicInteger();
+
   public static DataSource createPopulatedDataSource() throws SQLException {
     DataSource dataSource = createDataSource();
 
@@ -26,8 +29,13 @@ public class TestDB {
     return dataSource;
   }
 
+  /**
+   * Each data source has a distinct named database, so that it is shared by all
+   * connections from the pool, but not with other tests.
+   */
   private static DataSource createDataSource() {
-    return JdbcConnectionPool.create("jdbc:h2:mem:", "user", "pass");
+    String url = "jdbc:h2:mem:test" + DATABASES.incrementAndGet();
+    return JdbcConnectionPool.create(url, "user", "pass");
   }
 
   private static void applySchema(Connection connection) throws SQLException {
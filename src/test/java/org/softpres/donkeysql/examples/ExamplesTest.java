@@ -7,14 +7,17 @@ package org.softpres.donkeysql.examples;
 import org.junit.Before;
 import org.junit.Test;
 import org.softpres.donkeysql.DB;
+import org.softpres.donkeysql.Partitions;
+import org.softpres.donkeysql.QueryOptions;
 import org.softpres.donkeysql.StagedQuery;
 import org.softpres.donkeysql.TestDB;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.Arrays;
-import java.util.Optional;
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -94,6 +97,56 @@ public class ExamplesTest {
           new Animal("spider", 8));
   }
 
+  @Test
+  public void update() {
+    int updated = DB.with(dataSource)
+          .update("UPDATE animals SET legs = :legs WHERE name = :name")
+          .param("legs", 6)
+          .param("name", "spider")
+          .execute();
+
+    assertThat(updated).isEqualTo(1);
+  }
+
+  @Test
+  public void batchUpdate() {
+    Stream<Map<String, Object>> rows = IntStream.range(100, 1100)
+          .mapToObj(id -> animal(id, "centipede", 100));
+
+    List<int[]> counts = DB.with(dataSource)
+          .batch("INSERT INTO animals VALUES (:id, :name, :legs)")
+          .size(500)
+          .execute(rows);
+
+    assertThat(counts).hasSize(2);
+  }
+
+  @Test
+  public void partitionedQuery() {
+    Stream<String> names = DB.with(dataSource)
+          .query("SELECT name FROM animals WHERE id BETWEEN :lo AND :hi")
+          .partitions(Partitions.range("lo", "hi", 1, 10, 5))
+          .map(resultSet -> resultSet.getString("name"))
+          .parallelism(2)
+          .execute();
+
+    assertThat(names).hasSize(10);
+  }
+
+  @Test
+  public void queryWithOptions() {
+    DB db = DB.with(dataSource)
+          .options(QueryOptions.defaults().fetchSize(1000));
+
+    Stream<String> names = db
+          .query("SELECT name FROM animals")
+          .map(resultSet -> resultSet.getString("name"))
+          .queryTimeout(Duration.ofSeconds(30))
+          .execute();
+
+    assertThat(names).hasSize(10);
+  }
+
   @Test
   public void queryWithExplicitConnection() throws SQLException {
     try (Connection connection = dataSource.getConnection()) {
@@ -120,4 +173,12 @@ public class ExamplesTest {
     }
   }
 
+  private static Map<String, Object> animal(int id, String name, int legs) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("id", id);
+    params.put("name", name);
+    params.put("legs", legs);
+    return params;
+  }
+
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql.params;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for rewriting statements with {@link ArrayParam} values.
+ */
+public class ArrayParamTest {
+
+  private static final ArrayParam IDS = ArrayParam.of("integer", 1, 2, 3);
+
+  @Test
+  public void postgresInListRewritten() throws SQLException {
+    assertThat(sql("postgresql", "SELECT * FROM t WHERE id IN (:ids) ORDER BY id"))
+          .isEqualTo("SELECT * FROM t WHERE id = ANY(?) ORDER BY id");
+    assertThat(sql("PostgreSQL", "SELECT * FROM t WHERE id not in(:ids)"))
+          .isEqualTo("SELECT * FROM t WHERE id <> ALL(?)");
+  }
+
+  @Test
+  public void h2InListRewritten() throws SQLException {
+    assertThat(sql("H2", "SELECT * FROM t WHERE id IN ( :ids )"))
+          .isEqualTo("SELECT * FROM t WHERE id IN (UNNEST(?))");
+    assertThat(sql("H2", "SELECT * FROM t WHERE id NOT IN (:ids)"))
+          .isEqualTo("SELECT * FROM t WHERE id NOT IN (UNNEST(?))");
+  }
+
+  @Test
+  public void otherDatabasesExpandInList() throws SQLException {
+    assertThat(sql("Oracle", "SELECT * FROM t WHERE id IN (:ids)"))
+          .isEqualTo("SELECT * FROM t WHERE id IN (?,?,?)");
+  }
+
+  @Test
+  public void arrayBoundAsIsOutsideInList() throws SQLException {
+    assertThat(sql("Oracle", "SELECT * FROM t WHERE id = ANY(:ids)"))
+          .isEqualTo("SELECT * FROM t WHERE id = ANY(?)");
+    assertThat(sql("H2", "SELECT * FROM t WHERE id IN (:ids, 4)"))
+          .isEqualTo("SELECT * FROM t WHERE id IN (?, 4)");
+    assertThat(sql("H2", "SELECT * FROM t WHERE LOGIN (:ids)"))
+          .isEqualTo("SELECT * FROM t WHERE LOGIN (?)");
+  }
+
+  @Test
+  public void consecutiveArraysRewritten() throws SQLException {
+    assertThat(sql("PostgreSQL", "WHERE a IN (:ids) AND b IN (:ids)"))
+          .isEqualTo("WHERE a = ANY(?) AND b = ANY(?)");
+  }
+
+  @Test
+  public void metadataOnlyQueriedForArrays() throws SQLException {
+    Connection connection = mock(Connection.class);
+    ParamQuery query = ParamQuery.named("WHERE id IN (:ids)", params(Collections.singletonList(1)));
+
+    assertThat(query.forConnection(connection)).isSameAs(query);
+    verify(connection, never()).getMetaData();
+  }
+
+  @Test
+  public void humanisedAsValues() {
+    assertThat(ParamQuery.named("WHERE id IN (:ids) OR id = ANY(:ids)", params(IDS)).toString())
+          .isEqualTo("WHERE id IN (1,2,3) OR id = ANY(ARRAY[1,2,3])");
+  }
+
+  private static String sql(String product, String sql) throws SQLException {
+    DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+    when(metaData.getDatabaseProductName()).thenReturn(product);
+    Connection connection = mock(Connection.class);
+    when(connection.getMetaData()).thenReturn(metaData);
+
+    return ParamQuery.named(sql, params(IDS)).forConnection(connection).sql();
+  }
+
+  private static Map<String, Object> params(Object ids) {
+    return Collections.singletonMap("ids", ids);
+  }
+
+}
@@ -8,12 +8,18 @@ import org.junit.Test;
 import org.softpres.donkeysql.tokeniser.StatementTokeniser;
 import org.softpres.donkeysql.tokeniser.Tokens;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.toMap;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
 import static org.softpres.donkeysql.params.NamedParamQuery.parameterValues;
 
 /**
@@ -97,6 +103,78 @@ public class NamedParamQueryTest {
           .isEqualTo("SELECT * FROM people WHERE favouriteCol in (?, ?, ?)");
   }
 
+  @Test
+  public void normalisePreservesWhitespace() {
+    assertThat(normalise("SELECT *\tFROM people\r\nWHERE age > :age"))
+          .isEqualTo("SELECT *\tFROM people\r\nWHERE age > ?");
+  }
+
+  @Test
+  public void normaliseLeavesCastsAndVariables() {
+    assertThat(normalise("SELECT age::text, @@ROWCOUNT FROM people WHERE id = :id"))
+          .isEqualTo("SELECT age::text, @@ROWCOUNT FROM people WHERE id = ?");
+  }
+
+  @Test
+  public void normaliseLargeStatement() {
+    StringBuilder sql = new StringBuilder("SELECT * FROM people WHERE 1 = 1");
+    StringBuilder expected = new StringBuilder(sql);
+    for (int i = 0; i < 500; i++) {
+      sql.append(" AND col").append(i).append(" = :value").append(i);
+      expected.append(" AND col").append(i).append(" = ?");
+    }
+
+    assertThat(normalise(sql.toString())).isEqualTo(expected.toString());
+  }
+
+  @Test
+  public void expandVeryLargeIterable() {
+    List<Integer> ids = IntStream.range(0, 150_000).boxed().collect(Collectors.toCollection(LinkedList::new));
+    Map<String, Object> params = params("ids", ids);
+    String sql = "WHERE id IN (:ids)";
+
+    assertThat(parameterValues(sql, params).count()).isEqualTo(150_000);
+    assertThat(normalise(sql, params)).hasSize(13 + 150_000 * 2);
+    assertThat(new NamedParamQuery(sql, params).toString()).endsWith(",149998,149999)");
+  }
+
+  @Test
+  public void toStringWithOptimisedIterable() {
+    assertThat(new NamedParamQuery("WHERE a = :a AND b IN (@b)", params("a", "x", "b", items(1, 2, 3))).toString())
+          .isEqualTo("WHERE a = 'x' AND b IN (1,2,3,3)");
+  }
+
+  @Test
+  public void chunksOversizedIterable() {
+    NamedParamQuery query = new NamedParamQuery("WHERE a = :a AND b IN (:b)", params("a", 1, "b", items(1, 2, 3, 4, 5)));
+
+    assertThat(query.chunks(2)).extracting(Object::toString).containsExactly(
+          "WHERE a = 1 AND b IN (1,2)",
+          "WHERE a = 1 AND b IN (3,4)",
+          "WHERE a = 1 AND b IN (5)");
+    assertThat(query.chunks(5)).containsExactly(query);
+    assertThat(query.chunks(0)).containsExactly(query);
+  }
+
+  @Test
+  public void chunksOptimisedIterableToPowerOfTwo() {
+    NamedParamQuery query = new NamedParamQuery("WHERE b IN (@b)", params("b", items(1, 2, 3, 4, 5, 6, 7)));
+
+    assertThat(query.chunks(6)).extracting(Object::toString).containsExactly(
+          "WHERE b IN (1,2,3,4)",
+          "WHERE b IN (5,6,7,7)");
+  }
+
+  @Test
+  public void chunksEveryCombinationOfOversizedIterables() {
+    NamedParamQuery query = new NamedParamQuery("WHERE a IN (:a) AND b IN (:b)", params("a", items(1, 2, 3), "b", items(4, 5)));
+
+    assertThat(query.chunks(2)).extracting(Object::toString).containsExactly(
+          "WHERE a IN (1,2) AND b IN (4,5)",
+          "WHERE a IN (3) AND b IN (4,5)");
+    assertThat(query.chunks(1)).hasSize(6);
+  }
+
   @Test
   public void normaliseWithZeroIterableItems() {
     assertThat(normalise("WHERE item IN (:items)", params("items", items(1))))
@@ -160,6 +238,37 @@ public class NamedParamQueryTest {
           .containsExactly(1, 2, 3, 4, 5, 5, 5, 5);
   }
 
+  @Test
+  public void parameterValuesForRepeatedParameter() {
+    assertThat(parameterValues("WHERE a = :x OR b = :y OR c = :x", params("x", 1, "y", 2)))
+          .containsExactly(1, 2, 1);
+  }
+
+  @Test
+  public void expandNonListIterable() {
+    String sql = "WHERE n IN (@ns) AND m = :m";
+    Set<Integer> ns = new LinkedHashSet<>(Arrays.asList(1, 2, 3));
+
+    assertThat(normalise(sql, params("ns", ns, "m", 4)))
+          .isEqualTo("WHERE n IN (?,?,?,?) AND m = ?");
+    assertThat(parameterValues(sql, params("ns", ns, "m", 4)))
+          .containsExactly(1, 2, 3, 3, 4);
+  }
+
+  @Test
+  public void bindsValuesInParameterOrder() throws SQLException {
+    Connection connection = mock(Connection.class);
+    PreparedStatement statement = mock(PreparedStatement.class);
+    when(connection.prepareStatement("WHERE a = ? AND b IN (?,?) AND c = ?")).thenReturn(statement);
+
+    new NamedParamQuery("WHERE a = :a AND b IN (:b) AND c = :a", params("a", 1, "b", items(2, 3)))
+          .createStatement(connection);
+
+    verify(statement).setObject(1, 1);
+    verify(statement).setObject(2, 2);
+    verify(statement).setObject(3, 3);
+    verify(statement).setObject(4, 1);
+  }
 
   private String normalise(String sql) {
     return new NamedParamQuery(
@@ -48,4 +48,12 @@ public class PowerOfTwoTest {
     assertThat(PowerOfTwo.nextOrZero(128)).isEqualTo(128);
   }
 
+  @Test
+  public void previous() {
+    assertThat(PowerOfTwo.previous(0)).isZero();
+    assertThat(PowerOfTwo.previous(1)).isOne();
+    assertThat(PowerOfTwo.previous(1000)).isEqualTo(512);
+    assertThat(PowerOfTwo.previous(1024)).isEqualTo(1024);
+  }
+
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql.params;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Unit tests for {@link TemplateCache}.
+ */
+public class TemplateCacheTest {
+
+  private final TemplateCache cache = new TemplateCache(2);
+
+  @Test
+  public void firstLookupIsMiss() {
+    cache.get("SELECT 1");
+
+    assertThat(cache.misses()).isOne();
+    assertThat(cache.hits()).isZero();
+    assertThat(cache.size()).isOne();
+  }
+
+  @Test
+  public void repeatedLookupIsHitForSameTemplate() {
+    Template first = cache.get("SELECT 1");
+    Template second = cache.get("SELECT 1");
+
+    assertThat(second).isSameAs(first);
+    assertThat(cache.hits()).isOne();
+    assertThat(cache.misses()).isOne();
+  }
+
+  @Test
+  public void oldestEvictedWhenFull() {
+    Template first = cache.get("SELECT 1");
+    cache.get("SELECT 2");
+    cache.get("SELECT 3");
+
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.evictions()).isOne();
+    assertThat(cache.get("SELECT 1")).isNotSameAs(first);
+  }
+
+  @Test
+  public void reducingSizeEvictsImmediately() {
+    cache.get("SELECT 1");
+    cache.get("SELECT 2");
+
+    cache.maxSize(0);
+
+    assertThat(cache.size()).isZero();
+    assertThat(cache.evictions()).isEqualTo(2);
+  }
+
+  @Test
+  public void clearResetsStatistics() {
+    cache.get("SELECT 1");
+    cache.get("SELECT 1");
+
+    cache.clear();
+
+    assertThat(cache.size()).isZero();
+    assertThat(cache.hits()).isZero();
+    assertThat(cache.misses()).isZero();
+  }
+
+  @Test
+  public void negativeSizeRejected() {
+    Throwable error = catchThrowable(() -> cache.maxSize(-1));
+
+    assertThat(error).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void templateHasParametersAndNormalisedStatement() {
+    Template template = cache.get("SELECT * FROM t WHERE a = :a AND b IN (@b) AND c = ':c' AND d = ?");
+
+    assertThat(template.namedParams()).containsExactly("a", "b");
+    assertThat(template.indexedParams()).isOne();
+    assertThat(template.normalised())
+          .isEqualTo("SELECT * FROM t WHERE a = ? AND b IN (?) AND c = ':c' AND d = ?");
+  }
+
+}
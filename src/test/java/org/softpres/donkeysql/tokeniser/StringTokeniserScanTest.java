@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2017, Kieron Wilkinson
+ */
+package org.softpres.donkeysql.tokeniser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Unit tests for {@link StatementTokeniser#scan(String)}.
+ */
+public class StringTokeniserScanTest {
+
+  @Test
+  public void scanWithNoParameters() {
+    assertThat(spans("")).isEmpty();
+    assertThat(spans("SELECT * FROM table WHERE id > 100")).isEmpty();
+  }
+
+  @Test
+  public void scanAllKinds() {
+    assertThat(spans("WHERE a = ? AND b = :name AND c IN (@ids)"))
+          .containsExactly("INDEXED(10,1)", "NAMED(20,5)", "OPTIMISED_NAMED(36,4)");
+  }
+
+  @Test
+  public void scanNames() {
+    ParamSpans spans = StatementTokeniser.scan("WHERE (:low >= 18 AND 60 > :high_value) AND x IN (@list)");
+
+    assertThat(spans.name(0)).isEqualTo("low");
+    assertThat(spans.name(1)).isEqualTo("high_value");
+    assertThat(spans.name(2)).isEqualTo("list");
+  }
+
+  @Test
+  public void scanIgnoresQuoted() {
+    assertThat(spans("WHERE a = ':not' AND b = '?' AND time = '12:30' AND c = :yes"))
+          .containsExactly("NAMED(56,4)");
+  }
+
+  @Test
+  public void scanNameEndsAtStatementEnd() {
+    assertThat(spans("WHERE a = :last")).containsExactly("NAMED(10,5)");
+  }
+
+  @Test
+  public void scanIgnoresPrefixWithoutName() {
+    assertThat(spans("SELECT a::int, @@ROWCOUNT, ': ' FROM t WHERE b = :")).isEmpty();
+  }
+
+  @Test
+  public void scanAgreesWithTokeniser() {
+    String sql = "SELECT count(1) FROM people WHERE" +
+          " (name LIKE :name_pattern) AND" +
+          " ((:age >= 18 AND :age <= 60) OR (sibling LIKE :sister)) AND" +
+          " job IN (@academia) AND x = ?";
+    ParamSpans spans = StatementTokeniser.scan(sql);
+
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < spans.size(); i++) {
+      if (spans.kind(i) != ParamSpans.Kind.INDEXED) {
+        names.add(spans.name(i));
+      }
+    }
+    assertThat(names).containsExactlyElementsOf(
+          () -> StatementTokeniser.tokenise(sql).stream()
+                .filter(token -> token instanceof Tokens.NamedParam)
+                .map(token -> token.text)
+                .iterator());
+  }
+
+  @Test
+  public void indexedParamHasNoName() {
+    assertThat(catchThrowable(() -> StatementTokeniser.scan("?").name(0)))
+          .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private static List<String> spans(String statement) {
+    ParamSpans spans = StatementTokeniser.scan(statement);
+    List<String> result = new ArrayList<>();
+    for (int i = 0; i < spans.size(); i++) {
+      result.add(spans.kind(i) + "(" + spans.offset(i) + "," + spans.length(i) + ")");
+    }
+    return result;
+  }
+
+}